@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tallison.batchlite.MetadataWriter;
+import org.tallison.batchlite.writer.MetadataWriterFactory;
+
+/**
+ * Rows per second through each {@link MetadataWriter}, including the writer
+ * queue, batching and the final flush/close.  Each invocation writes a fresh
+ * output (a new csv file, json directory or h2 table).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetadataWriterBenchmark {
+
+    private static final int ROWS = 10000;
+    private static final int MAX_BUFFER = 10000;
+
+    @Param({"csv", "json", "jdbc-h2"})
+    public String writer;
+
+    private Path tmpDir;
+    private String[] relPaths;
+    private ExecutorService executorService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tmpDir = Files.createTempDirectory("batchlite-writer-bench");
+        relPaths = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            relPaths[i] = "dir" + (i % 100) + "/file" + i + ".pdf";
+        }
+        executorService = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executorService.shutdownNow();
+        deleteRecursively(tmpDir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int write() throws Exception {
+        MetadataWriter metadataWriter = MetadataWriterFactory.build(getWriterString(),
+                MAX_BUFFER, MAX_BUFFER, false);
+        Future<Integer> future = executorService.submit(metadataWriter);
+        for (String relPath : relPaths) {
+            metadataWriter.write(relPath, SampleResults.newResult());
+        }
+        metadataWriter.shutdown();
+        return future.get();
+    }
+
+    private String getWriterString() {
+        switch (writer) {
+            case "csv":
+                return tmpDir.resolve("metadata.csv").toString();
+            case "json":
+                return tmpDir.resolve("metadata-json").toString();
+            case "jdbc-h2":
+                //the table is dropped and recreated by each writer
+                return "jdbc:h2:file:" + tmpDir.resolve("h2").toAbsolutePath() + ":file_metadata";
+            default:
+                throw new IllegalArgumentException("unknown writer: " + writer);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.ProcessExecutor;
+
+/**
+ * Per-file overhead of {@link ProcessExecutor}: fork/exec, the stream
+ * eaters, the process monitor and waiting for exit, for a command that
+ * does nothing.  Compare against the time of the real commandline to see
+ * how much batchlite adds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProcessExecutorBenchmark {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final int MAX_BUFFER = 10000;
+
+    @Param({"/bin/true"})
+    public String command;
+
+    @Benchmark
+    public FileProcessResult execute() throws IOException {
+        return ProcessExecutor.execute(new ProcessBuilder(command),
+                TIMEOUT_MILLIS, MAX_BUFFER, MAX_BUFFER);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tallison.batchlite.AbstractFileProcessor;
+import org.tallison.batchlite.MetadataWriter;
+
+/**
+ * Paths per second from the crawler's queue, through the processor threads,
+ * to the metadata writer's queue and writer thread.  The processors do no
+ * work and the writer drops its rows, so this measures only the handoffs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueueHandoffBenchmark {
+
+    private static final int FILES = 10000;
+    //same as AbstractDirectoryProcessor
+    private static final int QUEUE_SIZE = 1000;
+    //processors stop when they see the empty path, as AbstractDirectoryProcessor.POISON
+    private static final Path POISON = Paths.get("");
+
+    @Param({"1", "4", "16"})
+    public int threads;
+
+    private Path root;
+    private Path[] paths;
+    private ExecutorService executorService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        root = Paths.get("/batchlite-benchmark").toAbsolutePath();
+        paths = new Path[FILES];
+        for (int i = 0; i < FILES; i++) {
+            paths[i] = root.resolve("dir" + (i % 100)).resolve("file" + i + ".pdf");
+        }
+        //processors + writer
+        executorService = Executors.newFixedThreadPool(threads + 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public int handoff() throws Exception {
+        ArrayBlockingQueue<Path> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        MetadataWriter metadataWriter = new SampleResults.NullMetadataWriter();
+        Future<Integer> writerFuture = executorService.submit(metadataWriter);
+        List<Future<Integer>> processors = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            processors.add(executorService.submit(
+                    new HandoffProcessor(queue, root, metadataWriter)));
+        }
+        //this thread is the crawler
+        for (Path p : paths) {
+            queue.put(p);
+        }
+        for (int i = 0; i < threads; i++) {
+            queue.put(POISON);
+        }
+        for (Future<Integer> processor : processors) {
+            processor.get();
+        }
+        metadataWriter.shutdown();
+        return writerFuture.get();
+    }
+
+    private static class HandoffProcessor extends AbstractFileProcessor {
+
+        private final Path root;
+        private final MetadataWriter metadataWriter;
+
+        HandoffProcessor(ArrayBlockingQueue<Path> queue, Path root,
+                         MetadataWriter metadataWriter) {
+            super(queue);
+            this.root = root;
+            this.metadataWriter = metadataWriter;
+        }
+
+        @Override
+        public void process(Path path) throws IOException {
+            metadataWriter.write(root.relativize(path).toString(), SampleResults.newResult());
+        }
+    }
+}
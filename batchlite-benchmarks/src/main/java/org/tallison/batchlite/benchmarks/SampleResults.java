@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.benchmarks;
+
+import java.io.IOException;
+
+import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.MetadataWriter;
+import org.tallison.batchlite.writer.PathResultPair;
+
+/**
+ * Results and writers shared by the benchmarks.
+ */
+class SampleResults {
+
+    private static final String STDOUT = "/data/file.pdf: PDF document, version 1.7, 12 pages";
+    private static final String STDERR = "Syntax Warning: Invalid Font Weight";
+
+    /**
+     * @return a result that looks like a typical small commandline run
+     */
+    static FileProcessResult newResult() {
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue(0);
+        result.setProcessTimeMillis(42);
+        result.setStdout(STDOUT);
+        result.setStdoutLength(STDOUT.length());
+        result.setStderr(STDERR);
+        result.setStderrLength(STDERR.length());
+        result.setFileSize(123456);
+        result.setLastModified(1600000000000L);
+        result.setAttemptTimesMillis(new long[]{42});
+        return result;
+    }
+
+    /**
+     * Drops everything; use this to measure the writer queue without any i/o.
+     */
+    static class NullMetadataWriter extends MetadataWriter {
+
+        @Override
+        protected void write(PathResultPair pathResultPair) throws IOException {
+            //no-op
+        }
+
+        @Override
+        protected void close() throws IOException {
+            //no-op
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tallison.batchlite.StreamEater;
+
+/**
+ * Time for a {@link StreamEater} to drain a process's worth of output,
+ * from a chatty process (many megabytes) down to a quiet one.  The stream
+ * is in memory, so this measures the copy into the head/tail buffer and
+ * the final decoding, not the pipe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StreamEaterBenchmark {
+
+    @Param({"1024", "1048576", "67108864"})
+    public int outputBytes;
+
+    //MetadataWriter's default max buffer and a large one
+    @Param({"10000", "1000000"})
+    public int maxBufferLength;
+
+    private byte[] output;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] line = "Syntax Error (1234): Illegal character in content stream\n"
+                .getBytes(StandardCharsets.UTF_8);
+        output = new byte[outputBytes];
+        for (int i = 0; i < outputBytes; i++) {
+            output[i] = line[i % line.length];
+        }
+    }
+
+    @Benchmark
+    public String eat() {
+        StreamEater eater = new StreamEater(new ByteArrayInputStream(output), maxBufferLength);
+        eater.run();
+        return eater.getContent();
+    }
+}
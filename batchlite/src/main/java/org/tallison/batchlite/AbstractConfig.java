@@ -0,0 +1,447 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import org.tallison.batchlite.writer.MetadataWriterFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Options shared by {@link ConfigSrc} and {@link ConfigSrcTarg}.
+ * <p>
+ * Optional settings are passed as <code>--flag</code> or <code>--flag value</code>
+ * anywhere on the commandline, or, if there are no commandline arguments,
+ * via environment variables.
+ * <ul>
+ *     <li><code>--resume</code> (RESUME=true) skip files that a previous run already
+ *     wrote to the metadata writer or to the journal</li>
+ *     <li><code>--journal &lt;file&gt;</code> (JOURNAL) append-only journal of
+ *     completed paths</li>
+ *     <li><code>--incremental</code> (INCREMENTAL=true) only process files that are new or
+ *     whose size or last modified time changed since the previous run, and record the files
+ *     that have been deleted since then as removed</li>
+ *     <li><code>--adaptive</code> (ADAPTIVE=true) start with a few threads and adjust
+ *     the number of active threads at runtime, up to the configured number of threads</li>
+ *     <li><code>--crawl-threads &lt;n&gt;</code> (CRAWL_THREADS) crawl the source directory
+ *     with n threads</li>
+ *     <li><code>--manifest &lt;file|jdbc&gt;</code> (MANIFEST) read the paths from a file
+ *     (one per line, optionally gzipped) or jdbc query instead of crawling</li>
+ *     <li><code>--manifest-query &lt;sql&gt;</code> (MANIFEST_QUERY) query for a jdbc manifest;
+ *     the first column is the path</li>
+ *     <li><code>--large-file-bytes &lt;n&gt;</code> (LARGE_FILE_BYTES) send files of at least
+ *     n bytes to a separate lane so that they don't hold up the small files</li>
+ *     <li><code>--large-file-threads &lt;n&gt;</code> (LARGE_FILE_THREADS) number of threads
+ *     for the large file lane, default 1</li>
+ *     <li><code>--large-file-timeout-millis &lt;n&gt;</code> (LARGE_FILE_TIMEOUT_MILLIS) per-file
+ *     timeout for large files</li>
+ *     <li><code>--retry-timeouts &lt;n&gt;</code> (RETRY_TIMEOUTS) retry files that time out
+ *     at the end of the run, up to n attempts in total</li>
+ *     <li><code>--retry-timeout-scale &lt;x&gt;</code> (RETRY_TIMEOUT_SCALE) multiply the
+ *     timeout by x for each retry, default 2</li>
+ *     <li><code>--metrics &lt;file&gt;</code> (METRICS) write a snapshot of the metrics
+ *     to this file periodically, as csv if the file ends in .csv, otherwise as json lines.
+ *     The metrics are always available over jmx.</li>
+ *     <li><code>--metrics-interval-secs &lt;n&gt;</code> (METRICS_INTERVAL_SECS) seconds
+ *     between snapshots, default 10</li>
+ *     <li><code>--cache-dir &lt;dir&gt;</code> (CACHE_DIR) reuse the results for files with
+ *     the same content from this cache, which can be shared across runs</li>
+ *     <li><code>--cache-max-bytes &lt;n&gt;</code> (CACHE_MAX_BYTES) evict least recently used
+ *     results beyond this size, default 10GB</li>
+ *     <li><code>--cache-namespace &lt;name&gt;</code> (CACHE_NAMESPACE) results are only reused
+ *     within a namespace; this should identify the tool and its options.  Default is the
+ *     processor's class name.</li>
+ *     <li><code>--output-compression &lt;none|gzip|zstd&gt;</code> (OUTPUT_COMPRESSION) compress
+ *     the output of file to file processors</li>
+ *     <li><code>--output-segment-bytes &lt;n&gt;</code> (OUTPUT_SEGMENT_BYTES) pack the output of
+ *     file to file processors into segments of about n bytes with an index, instead of one
+ *     file per input</li>
+ *     <li><code>--partition &lt;i/N&gt;</code> (PARTITION) only process the paths in partition i
+ *     of N (by a stable hash of the relative path) and write this partition's shard of the
+ *     metadata, journal and metrics, e.g. metadata-part-2-of-8.csv.  Run each partition on a
+ *     different machine and combine the shards with {@link ShardMerger}.</li>
+ *     <li><code>--memory-limit-bytes &lt;n&gt;</code> (MEMORY_LIMIT_BYTES) soft limit on the
+ *     address space of each child process, applied with prlimit</li>
+ * </ul>
+ */
+public abstract class AbstractConfig {
+
+    static final String SRC_ROOT = "SRC_ROOT";
+    static final String METADATA_WRITER_STRING = "METADATA_WRITER_STRING";
+    static final String NUM_THREADS = "NUM_THREADS";
+    private static final String RESUME = "RESUME";
+    private static final String JOURNAL = "JOURNAL";
+    private static final String INCREMENTAL = "INCREMENTAL";
+    private static final String ADAPTIVE = "ADAPTIVE";
+    private static final String CRAWL_THREADS = "CRAWL_THREADS";
+    private static final String MANIFEST = "MANIFEST";
+    private static final String MANIFEST_QUERY = "MANIFEST_QUERY";
+    private static final String LARGE_FILE_BYTES = "LARGE_FILE_BYTES";
+    private static final String LARGE_FILE_THREADS = "LARGE_FILE_THREADS";
+    private static final String LARGE_FILE_TIMEOUT_MILLIS = "LARGE_FILE_TIMEOUT_MILLIS";
+    private static final String RETRY_TIMEOUTS = "RETRY_TIMEOUTS";
+    private static final String RETRY_TIMEOUT_SCALE = "RETRY_TIMEOUT_SCALE";
+    private static final String METRICS = "METRICS";
+    private static final String METRICS_INTERVAL_SECS = "METRICS_INTERVAL_SECS";
+    private static final String CACHE_DIR = "CACHE_DIR";
+    private static final String CACHE_MAX_BYTES = "CACHE_MAX_BYTES";
+    private static final String CACHE_NAMESPACE = "CACHE_NAMESPACE";
+    private static final String OUTPUT_COMPRESSION = "OUTPUT_COMPRESSION";
+    private static final String OUTPUT_SEGMENT_BYTES = "OUTPUT_SEGMENT_BYTES";
+    private static final String PARTITION = "PARTITION";
+    private static final String MEMORY_LIMIT_BYTES = "MEMORY_LIMIT_BYTES";
+    private static final long DEFAULT_CACHE_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+
+    protected Path srcRoot;
+    protected MetadataWriter metadataWriter;
+    protected int numThreads = 10;
+    private boolean resume = false;
+    private Path journal = null;
+    private boolean incremental = false;
+    private boolean adaptive = false;
+    private int crawlThreads = 1;
+    private String manifest = null;
+    private String manifestQuery = null;
+    private long largeFileBytes = -1;
+    private int largeFileThreads = 1;
+    private long largeFileTimeoutMillis = -1;
+    private int retryTimeouts = 1;
+    private double retryTimeoutScale = 2.0;
+    private Path metrics = null;
+    private long metricsIntervalSeconds = 10;
+    private Path cacheDir = null;
+    private long cacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+    private String cacheNamespace = null;
+    private OutputCompression outputCompression = OutputCompression.NONE;
+    private long outputSegmentBytes = -1;
+    private Partition partition = null;
+    private long memoryLimitBytes = -1;
+
+    /**
+     * Pulls the optional <code>--flags</code> out of the commandline.
+     *
+     * @param args
+     * @return the positional arguments that remain
+     */
+    protected String[] parseOptions(String[] args) {
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--resume")) {
+                resume = true;
+            } else if (arg.equals("--journal")) {
+                journal = Paths.get(requireValue(args, ++i, arg));
+            } else if (arg.equals("--incremental")) {
+                incremental = true;
+            } else if (arg.equals("--adaptive")) {
+                adaptive = true;
+            } else if (arg.equals("--crawl-threads")) {
+                crawlThreads = Integer.parseInt(requireValue(args, ++i, arg));
+            } else if (arg.equals("--manifest")) {
+                manifest = requireValue(args, ++i, arg);
+            } else if (arg.equals("--manifest-query")) {
+                manifestQuery = requireValue(args, ++i, arg);
+            } else if (arg.equals("--large-file-bytes")) {
+                largeFileBytes = Long.parseLong(requireValue(args, ++i, arg));
+            } else if (arg.equals("--large-file-threads")) {
+                largeFileThreads = Integer.parseInt(requireValue(args, ++i, arg));
+            } else if (arg.equals("--large-file-timeout-millis")) {
+                largeFileTimeoutMillis = Long.parseLong(requireValue(args, ++i, arg));
+            } else if (arg.equals("--retry-timeouts")) {
+                retryTimeouts = Integer.parseInt(requireValue(args, ++i, arg));
+            } else if (arg.equals("--retry-timeout-scale")) {
+                retryTimeoutScale = Double.parseDouble(requireValue(args, ++i, arg));
+            } else if (arg.equals("--metrics")) {
+                metrics = Paths.get(requireValue(args, ++i, arg));
+            } else if (arg.equals("--metrics-interval-secs")) {
+                metricsIntervalSeconds = Long.parseLong(requireValue(args, ++i, arg));
+            } else if (arg.equals("--cache-dir")) {
+                cacheDir = Paths.get(requireValue(args, ++i, arg));
+            } else if (arg.equals("--cache-max-bytes")) {
+                cacheMaxBytes = Long.parseLong(requireValue(args, ++i, arg));
+            } else if (arg.equals("--cache-namespace")) {
+                cacheNamespace = requireValue(args, ++i, arg);
+            } else if (arg.equals("--output-compression")) {
+                outputCompression = OutputCompression.parse(requireValue(args, ++i, arg));
+            } else if (arg.equals("--output-segment-bytes")) {
+                outputSegmentBytes = Long.parseLong(requireValue(args, ++i, arg));
+            } else if (arg.equals("--partition")) {
+                partition = Partition.parse(requireValue(args, ++i, arg));
+            } else if (arg.equals("--memory-limit-bytes")) {
+                memoryLimitBytes = Long.parseLong(requireValue(args, ++i, arg));
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("unrecognized option: " + arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+        return positional.toArray(new String[0]);
+    }
+
+    /**
+     * Reads the optional settings from environment variables.
+     */
+    protected void parseEnvOptions() {
+        String v = System.getenv(RESUME);
+        if (v != null) {
+            resume = Boolean.parseBoolean(v);
+        }
+        v = System.getenv(JOURNAL);
+        if (v != null && v.trim().length() > 0) {
+            journal = Paths.get(v);
+        }
+        v = System.getenv(INCREMENTAL);
+        if (v != null) {
+            incremental = Boolean.parseBoolean(v);
+        }
+        v = System.getenv(ADAPTIVE);
+        if (v != null) {
+            adaptive = Boolean.parseBoolean(v);
+        }
+        v = System.getenv(CRAWL_THREADS);
+        if (v != null && v.trim().length() > 0) {
+            crawlThreads = Integer.parseInt(v.trim());
+        }
+        v = System.getenv(MANIFEST);
+        if (v != null && v.trim().length() > 0) {
+            manifest = v;
+        }
+        v = System.getenv(MANIFEST_QUERY);
+        if (v != null && v.trim().length() > 0) {
+            manifestQuery = v;
+        }
+        v = System.getenv(LARGE_FILE_BYTES);
+        if (v != null && v.trim().length() > 0) {
+            largeFileBytes = Long.parseLong(v.trim());
+        }
+        v = System.getenv(LARGE_FILE_THREADS);
+        if (v != null && v.trim().length() > 0) {
+            largeFileThreads = Integer.parseInt(v.trim());
+        }
+        v = System.getenv(LARGE_FILE_TIMEOUT_MILLIS);
+        if (v != null && v.trim().length() > 0) {
+            largeFileTimeoutMillis = Long.parseLong(v.trim());
+        }
+        v = System.getenv(RETRY_TIMEOUTS);
+        if (v != null && v.trim().length() > 0) {
+            retryTimeouts = Integer.parseInt(v.trim());
+        }
+        v = System.getenv(RETRY_TIMEOUT_SCALE);
+        if (v != null && v.trim().length() > 0) {
+            retryTimeoutScale = Double.parseDouble(v.trim());
+        }
+        v = System.getenv(METRICS);
+        if (v != null && v.trim().length() > 0) {
+            metrics = Paths.get(v);
+        }
+        v = System.getenv(METRICS_INTERVAL_SECS);
+        if (v != null && v.trim().length() > 0) {
+            metricsIntervalSeconds = Long.parseLong(v.trim());
+        }
+        v = System.getenv(CACHE_DIR);
+        if (v != null && v.trim().length() > 0) {
+            cacheDir = Paths.get(v);
+        }
+        v = System.getenv(CACHE_MAX_BYTES);
+        if (v != null && v.trim().length() > 0) {
+            cacheMaxBytes = Long.parseLong(v.trim());
+        }
+        v = System.getenv(CACHE_NAMESPACE);
+        if (v != null && v.trim().length() > 0) {
+            cacheNamespace = v;
+        }
+        v = System.getenv(OUTPUT_COMPRESSION);
+        if (v != null && v.trim().length() > 0) {
+            outputCompression = OutputCompression.parse(v);
+        }
+        v = System.getenv(OUTPUT_SEGMENT_BYTES);
+        if (v != null && v.trim().length() > 0) {
+            outputSegmentBytes = Long.parseLong(v.trim());
+        }
+        v = System.getenv(PARTITION);
+        if (v != null && v.trim().length() > 0) {
+            partition = Partition.parse(v);
+        }
+        v = System.getenv(MEMORY_LIMIT_BYTES);
+        if (v != null && v.trim().length() > 0) {
+            memoryLimitBytes = Long.parseLong(v.trim());
+        }
+    }
+
+    private static String requireValue(String[] args, int i, String flag) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(flag + " requires a value");
+        }
+        return args[i];
+    }
+
+    public Path getSrcRoot() {
+        return srcRoot;
+    }
+
+    public MetadataWriter getMetadataWriter() {
+        return metadataWriter;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * @return path to the completion journal or <code>null</code> if none was configured
+     */
+    public Path getJournal() {
+        return shard(journal);
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return whether the metadata writer should keep what a previous run wrote
+     * rather than starting over
+     */
+    protected boolean isKeepExisting() {
+        return resume || incremental;
+    }
+
+    /**
+     * @return whether to adjust the number of active threads at runtime;
+     * if so, {@link #getNumThreads()} is the maximum
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getCrawlThreads() {
+        return crawlThreads;
+    }
+
+    /**
+     * @return a manifest file or jdbc connection string, or <code>null</code> to crawl the source directory
+     */
+    public String getManifest() {
+        return manifest;
+    }
+
+    public String getManifestQuery() {
+        return manifestQuery;
+    }
+
+    /**
+     * @return files at least this large go to the large file lane; -1 if there is no large file lane
+     */
+    public long getLargeFileBytes() {
+        return largeFileBytes;
+    }
+
+    public int getLargeFileThreads() {
+        return largeFileThreads;
+    }
+
+    /**
+     * @return per-file timeout for the large file lane or -1 to use the default
+     */
+    public long getLargeFileTimeoutMillis() {
+        return largeFileTimeoutMillis;
+    }
+
+    /**
+     * @return maximum attempts for a file that times out, including the first; 1 for no retries
+     */
+    public int getRetryTimeouts() {
+        return retryTimeouts;
+    }
+
+    public double getRetryTimeoutScale() {
+        return retryTimeoutScale;
+    }
+
+    /**
+     * @return file for periodic metrics snapshots or <code>null</code>
+     */
+    public Path getMetrics() {
+        return shard(metrics);
+    }
+
+    public long getMetricsIntervalSeconds() {
+        return metricsIntervalSeconds;
+    }
+
+    /**
+     * @return directory for the result cache or <code>null</code> if results shouldn't be reused
+     */
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * @return namespace for the result cache or <code>null</code> for the default
+     */
+    public String getCacheNamespace() {
+        return cacheNamespace;
+    }
+
+    public OutputCompression getOutputCompression() {
+        return outputCompression;
+    }
+
+    /**
+     * @return size of the output segments, -1 for one output file per input
+     */
+    public long getOutputSegmentBytes() {
+        return outputSegmentBytes;
+    }
+
+    /**
+     * @return the partition of the input to process or <code>null</code> for all of it
+     */
+    public Partition getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return soft limit on the address space of child processes, -1 for no limit
+     */
+    public long getMemoryLimitBytes() {
+        return memoryLimitBytes;
+    }
+
+    /**
+     * @return the writer string for this partition's shard, or the writer string itself
+     * if the input isn't partitioned
+     */
+    protected String shard(String metadataWriterString) {
+        return partition == null ? metadataWriterString :
+                MetadataWriterFactory.shard(metadataWriterString, partition);
+    }
+
+    private Path shard(Path path) {
+        return partition == null || path == null ? path : partition.shard(path);
+    }
+}
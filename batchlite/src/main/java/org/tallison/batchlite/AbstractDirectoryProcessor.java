@@ -18,24 +18,27 @@ package org.tallison.batchlite;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.metrics.BatchMetrics;
+import org.tallison.batchlite.metrics.MetricsReporter;
 import org.tallison.batchlite.writer.JDBCMetadataWriter;
 
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractDirectoryProcessor {
@@ -43,10 +46,35 @@ public abstract class AbstractDirectoryProcessor {
     private static Logger LOGGER = LoggerFactory.getLogger(JDBCMetadataWriter.class);
 
     static Path POISON = Paths.get("");
-    private static long TIMEOUT_MILLIS = 720000;
     private static int QUEUE_SIZE = 1000;
+    private static int INITIAL_ADAPTIVE_THREADS = 2;
+    private static long ADAPTIVE_INTERVAL_MILLIS = 5000;
+    //large file processors may wait for the whole crawl for their first file
+    private static long LARGE_FILE_QUEUE_TIMEOUT_MILLIS = Long.MAX_VALUE;
     private int maxFiles = -1;
     private int numThreads;
+    private boolean resume = false;
+    private Path journalPath = null;
+    private boolean incremental = false;
+    private boolean adaptive = false;
+    private int crawlThreads = 1;
+    private String manifest = null;
+    private String manifestQuery = null;
+    private long largeFileBytes = -1;
+    private int largeFileThreads = 1;
+    private long largeFileTimeoutMillis = -1;
+    private int retryTimeouts = 1;
+    private double retryTimeoutScale = 2.0;
+    private Path metricsPath = null;
+    private long metricsIntervalSeconds = 10;
+    private BatchMetrics metrics = null;
+    private Path cacheDir = null;
+    private long cacheMaxBytes = -1;
+    private String cacheNamespace = null;
+    private OutputCompression outputCompression = OutputCompression.NONE;
+    private long outputSegmentBytes = -1;
+    private Partition partition = null;
+    private long memoryLimitBytes = -1;
     protected final Path rootDir;
     protected final MetadataWriter metadataWriter;
 
@@ -58,25 +86,140 @@ public abstract class AbstractDirectoryProcessor {
         this.metadataWriter = metadataWriter;
     }
 
+    public AbstractDirectoryProcessor(AbstractConfig config) {
+        this(config.getSrcRoot(), config.getMetadataWriter());
+        this.resume = config.isResume();
+        this.journalPath = config.getJournal();
+        this.incremental = config.isIncremental();
+        this.adaptive = config.isAdaptive();
+        this.crawlThreads = config.getCrawlThreads();
+        this.manifest = config.getManifest();
+        this.manifestQuery = config.getManifestQuery();
+        this.largeFileBytes = config.getLargeFileBytes();
+        this.largeFileThreads = config.getLargeFileThreads();
+        this.largeFileTimeoutMillis = config.getLargeFileTimeoutMillis();
+        this.retryTimeouts = config.getRetryTimeouts();
+        this.retryTimeoutScale = config.getRetryTimeoutScale();
+        this.metricsPath = config.getMetrics();
+        this.metricsIntervalSeconds = config.getMetricsIntervalSeconds();
+        this.cacheDir = config.getCacheDir();
+        this.cacheMaxBytes = config.getCacheMaxBytes();
+        this.cacheNamespace = config.getCacheNamespace();
+        this.outputCompression = config.getOutputCompression();
+        this.outputSegmentBytes = config.getOutputSegmentBytes();
+        this.partition = config.getPartition();
+        this.memoryLimitBytes = config.getMemoryLimitBytes();
+    }
+
     protected Path getRootDir() {
         return rootDir;
     }
 
     public void execute() throws SQLException, IOException {
+        CompletedPathSet completedPaths = loadCompleted();
+        FileStateIndex fileStates = incremental ? loadFileStates() : null;
+        if (journalPath != null) {
+            metadataWriter.setCompletionJournal(CompletionJournal.open(journalPath, resume));
+        }
         ArrayBlockingQueue<Path> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
         List<AbstractFileProcessor> processors = getProcessors(queue);
-        numThreads = processors.size()+2;
+        ScheduledExecutorService monitorService = adaptive ? startController(processors) : null;
+        ArrayBlockingQueue<Path> largeQueue = null;
+        List<AbstractFileProcessor> largeFileProcessors = Collections.emptyList();
+        if (largeFileBytes > -1) {
+            largeQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            largeFileProcessors = getLargeFileProcessors(largeQueue);
+            configureLargeFileProcessors(largeFileProcessors);
+        }
+        int numProcessors = processors.size() + largeFileProcessors.size();
+        numThreads = numProcessors+2;
+        metrics = new BatchMetrics();
+        metrics.addQueueGauge("paths", queue::size);
+        if (largeQueue != null) {
+            metrics.addQueueGauge("large_paths", largeQueue::size);
+        }
+        metrics.addQueueGauge("writer", metadataWriter::getQueueDepth);
+        metadataWriter.setMetrics(metrics);
+        for (AbstractFileProcessor processor : processors) {
+            processor.setMetrics(metrics);
+        }
+        for (AbstractFileProcessor processor : largeFileProcessors) {
+            processor.setMetrics(metrics);
+        }
+        if (memoryLimitBytes > -1) {
+            for (AbstractFileProcessor processor : processors) {
+                processor.setMemoryLimitBytes(memoryLimitBytes);
+            }
+            for (AbstractFileProcessor processor : largeFileProcessors) {
+                processor.setMemoryLimitBytes(memoryLimitBytes);
+            }
+        }
+        if (retryTimeouts > 1) {
+            RetryLane retryLane = new RetryLane(retryTimeouts, retryTimeoutScale, numProcessors);
+            for (AbstractFileProcessor processor : processors) {
+                processor.setRetryLane(retryLane);
+            }
+            for (AbstractFileProcessor processor : largeFileProcessors) {
+                processor.setRetryLane(retryLane);
+            }
+        }
+        if (cacheDir != null) {
+            ResultCache resultCache = new ResultCache(cacheDir, cacheMaxBytes);
+            for (AbstractFileProcessor processor : processors) {
+                processor.setResultCache(resultCache, cacheNamespace);
+            }
+            for (AbstractFileProcessor processor : largeFileProcessors) {
+                processor.setResultCache(resultCache, cacheNamespace);
+            }
+        }
+        List<OutputStore> outputStores = Collections.emptyList();
+        if (outputCompression != OutputCompression.NONE || outputSegmentBytes > 0) {
+            List<AbstractFileProcessor> all = new ArrayList<>(processors);
+            all.addAll(largeFileProcessors);
+            outputStores = configureOutputStores(all);
+        }
+        metrics.registerMBean();
+        MetricsReporter metricsReporter = null;
+        if (metricsPath != null) {
+            metricsReporter = new MetricsReporter(metrics, metricsPath);
+            if (monitorService == null) {
+                monitorService = newScheduledExecutor("batchlite-monitor");
+            }
+            monitorService.scheduleAtFixedRate(metricsReporter, metricsIntervalSeconds,
+                    metricsIntervalSeconds, TimeUnit.SECONDS);
+        }
 
         ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
         ExecutorCompletionService<Integer> executorCompletionService = new ExecutorCompletionService<>(executorService);
 
         long start = System.currentTimeMillis();
         executorCompletionService.submit(metadataWriter);
-        executorCompletionService.submit(new DirectoryCrawler(rootDir, queue));
+        PathCrawler crawler = getCrawler(queue, completedPaths);
+        if (largeQueue != null) {
+            crawler.setLargeFileLane(largeQueue, largeFileBytes, largeFileProcessors.size());
+        }
+        if (fileStates != null) {
+            //a manifest doesn't tell us that a file has been removed
+            crawler.setIncremental(fileStates, manifest == null ? metadataWriter : null);
+        }
+        if (partition != null) {
+            crawler.setPartition(partition);
+            LOGGER.info("processing partition " + partition);
+        }
+        for (AbstractFileProcessor processor : processors) {
+            processor.setCrawler(crawler);
+        }
+        for (AbstractFileProcessor processor : largeFileProcessors) {
+            processor.setCrawler(crawler);
+        }
+        executorCompletionService.submit(crawler);
 
         for (int i = 0; i < processors.size(); i++) {
             executorCompletionService.submit(processors.get(i));
         }
+        for (int i = 0; i < largeFileProcessors.size(); i++) {
+            executorCompletionService.submit(largeFileProcessors.get(i));
+        }
 
         int completed = 0;
         //this waits for all threads to finish.
@@ -104,13 +247,26 @@ public abstract class AbstractDirectoryProcessor {
                         throw new RuntimeException(e);
                     }
                 }
-                if (completed == processors.size()+1) {
+                if (completed == numProcessors+1) {
                     metadataWriter.shutdown();
                 }
             }
         } finally {
             executorService.shutdown();
             executorService.shutdownNow();
+            if (monitorService != null) {
+                monitorService.shutdownNow();
+            }
+            if (metricsReporter != null) {
+                metricsReporter.close();
+            }
+            metrics.unregisterMBean();
+            if (fileStates != null) {
+                fileStates.close();
+            }
+            for (OutputStore outputStore : outputStores) {
+                outputStore.close();
+            }
         }
         long elapsed = System.currentTimeMillis()-start;
         LOGGER.info("Finished "+metadataWriter.getRecordsWritten() + " records in "+
@@ -118,79 +274,303 @@ public abstract class AbstractDirectoryProcessor {
 
     }
 
+    /**
+     * If resuming, this collects the relative paths that were completed
+     * by a previous run from the metadata writer (e.g. the jdbc table)
+     * and from the completion journal, if there is one.
+     */
+    private CompletedPathSet loadCompleted() throws IOException {
+        CompletedPathSet completed = new CompletedPathSet();
+        if (! resume) {
+            return completed;
+        }
+        metadataWriter.loadCompletedPaths(completed);
+        if (journalPath != null) {
+            CompletionJournal.load(journalPath, completed);
+        }
+        if (completed.isEmpty()) {
+            LOGGER.warn("resuming, but couldn't find any completed paths");
+        } else {
+            LOGGER.info("resuming; will skip " + completed.size() + " completed paths");
+        }
+        return completed;
+    }
+
+    /**
+     * Treats the processors as a pool of up to processors.size() threads and
+     * lets an {@link AdaptiveConcurrencyController} decide how many of them
+     * may work at the same time, starting small.
+     */
+    private ScheduledExecutorService startController(List<AbstractFileProcessor> processors) {
+        int max = processors.size();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+                Math.min(INITIAL_ADAPTIVE_THREADS, max), 1, max);
+        for (AbstractFileProcessor processor : processors) {
+            processor.setConcurrencyLimiter(limiter);
+        }
+        ScheduledExecutorService monitorService = newScheduledExecutor("batchlite-monitor");
+        monitorService.scheduleAtFixedRate(new AdaptiveConcurrencyController(limiter),
+                0, ADAPTIVE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        LOGGER.info("adaptive concurrency: starting with " + limiter.getLimit() +
+                " of up to " + max + " processors");
+        return monitorService;
+    }
+
+    /**
+     * Sets up one output store per output root, shared by the
+     * file to file processors that write to it.
+     */
+    private List<OutputStore> configureOutputStores(List<AbstractFileProcessor> processors)
+            throws IOException {
+        Map<Path, OutputStore> stores = new HashMap<>();
+        for (AbstractFileProcessor processor : processors) {
+            if (! (processor instanceof FileToFileProcessor)) {
+                continue;
+            }
+            FileToFileProcessor fileToFileProcessor = (FileToFileProcessor) processor;
+            Path outputRoot = fileToFileProcessor.getOutputRoot();
+            OutputStore outputStore = stores.get(outputRoot);
+            if (outputStore == null) {
+                outputStore = outputSegmentBytes > 0 ?
+                        new SegmentedOutputStore(outputRoot, outputCompression, outputSegmentBytes,
+                                partition) :
+                        new OutputStore(outputRoot, outputCompression);
+                stores.put(outputRoot, outputStore);
+            }
+            fileToFileProcessor.setOutputStore(outputStore);
+        }
+        return new ArrayList<>(stores.values());
+    }
+
+    private static ScheduledExecutorService newScheduledExecutor(String name) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void configureLargeFileProcessors(List<AbstractFileProcessor> largeFileProcessors) {
+        for (AbstractFileProcessor processor : largeFileProcessors) {
+            processor.setTimeoutMillis(LARGE_FILE_QUEUE_TIMEOUT_MILLIS);
+            if (largeFileTimeoutMillis > 0) {
+                processor.setFileTimeoutMillis(largeFileTimeoutMillis);
+            }
+        }
+        LOGGER.info("sending files >= " + largeFileBytes + " bytes to " +
+                largeFileProcessors.size() + " large file processor(s)");
+    }
+
+    private PathCrawler getCrawler(ArrayBlockingQueue<Path> queue, CompletedPathSet completedPaths) {
+        if (manifest != null) {
+            return new ManifestCrawler(rootDir, queue, completedPaths, maxFiles, numThreads,
+                    manifest, manifestQuery);
+        } else if (crawlThreads > 1) {
+            return new ParallelDirectoryCrawler(rootDir, queue, completedPaths, maxFiles, numThreads,
+                    crawlThreads);
+        }
+        return new DirectoryCrawler(rootDir, queue, completedPaths, maxFiles, numThreads);
+    }
+
+    /**
+     * @return metrics for the current (or last) run, <code>null</code> before
+     * {@link #execute()} has been called
+     */
+    public BatchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Loads the size and last modified time of the files processed
+     * by the previous run from the metadata writer.
+     */
+    private FileStateIndex loadFileStates() throws IOException {
+        FileStateIndex fileStates = new FileStateIndex();
+        metadataWriter.loadFileStates(fileStates);
+        metadataWriter.setIncremental(true);
+        if (fileStates.isEmpty()) {
+            LOGGER.warn("incremental, but couldn't find any files from a previous run; " +
+                    "processing everything");
+        } else {
+            LOGGER.info("incremental; loaded the state of " + fileStates.size() +
+                    " files from the previous run");
+        }
+        return fileStates;
+    }
+
     protected void setMaxFiles(int maxFiles) {
         this.maxFiles = maxFiles;
     }
 
-    public abstract List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue);
+    /**
+     * @param resume if <code>true</code>, skip the paths that a previous
+     *               run has already completed
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
 
-    private class DirectoryCrawler implements Callable<Integer> {
-        private final Path rootDir;
-        private final ArrayBlockingQueue<Path> queue;
+    /**
+     * @param journalPath append-only journal to record completed paths, may be <code>null</code>
+     */
+    public void setJournalPath(Path journalPath) {
+        this.journalPath = journalPath;
+    }
 
-        private DirectoryCrawler(Path rootDir, ArrayBlockingQueue queue) {
-            this.rootDir = rootDir;
-            this.queue = queue;
-        }
+    /**
+     * @param incremental if <code>true</code>, only process new files and files whose
+     *                    size or last modified time has changed since the previous run,
+     *                    and record deleted files as removed.  The metadata writer has to
+     *                    have been opened without overwriting the previous run's output.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
 
+    /**
+     * @param adaptive if <code>true</code>, adjust the number of active
+     *                 processors at runtime; the number of processors
+     *                 returned by {@link #getProcessors(ArrayBlockingQueue)} is the maximum
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
 
-        @Override
-        public Integer call() throws Exception {
-            Files.walkFileTree(rootDir, new PathAdder(queue));
+    /**
+     * @param crawlThreads if > 1, crawl the directory tree with this many threads
+     */
+    public void setCrawlThreads(int crawlThreads) {
+        this.crawlThreads = crawlThreads;
+    }
 
-            for (int i = 0; i < numThreads; i++) {
-                //TODO: could lock forever...fix this
-                queue.put(POISON);
-            }
+    /**
+     * Reads the paths to process from a manifest instead of crawling the root directory.
+     *
+     * @param manifest file with one path per line (may be gzipped) or a jdbc connection string;
+     *                 relative paths are resolved against the root directory
+     * @param manifestQuery query whose first column is the path, required for jdbc
+     */
+    public void setManifest(String manifest, String manifestQuery) {
+        this.manifest = manifest;
+        this.manifestQuery = manifestQuery;
+    }
 
-            return 2;
-        }
+    /**
+     * @param retryTimeouts retry files that time out at the end of the run, up to this
+     *                      many attempts in total; 1 for no retries
+     * @param retryTimeoutScale multiply the per-file timeout by this for each retry
+     */
+    public void setRetryTimeouts(int retryTimeouts, double retryTimeoutScale) {
+        this.retryTimeouts = retryTimeouts;
+        this.retryTimeoutScale = retryTimeoutScale;
+    }
 
-        private class PathAdder implements FileVisitor<Path> {
-            private final ArrayBlockingQueue<Path> queue;
-            int added = 0;
-            public PathAdder(ArrayBlockingQueue<Path> queue) {
-                this.queue = queue;
-            }
+    /**
+     * @param metricsPath write a metrics snapshot to this file periodically
+     *                    (.csv or else json lines), may be <code>null</code>
+     * @param metricsIntervalSeconds seconds between snapshots
+     */
+    public void setMetricsPath(Path metricsPath, long metricsIntervalSeconds) {
+        this.metricsPath = metricsPath;
+        this.metricsIntervalSeconds = metricsIntervalSeconds;
+    }
 
-            @Override
-            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes basicFileAttributes) throws IOException {
-                return FileVisitResult.CONTINUE;
-            }
+    /**
+     * Reuse results for files whose content has already been processed, see {@link ResultCache}.
+     *
+     * @param cacheDir directory for the cache, may be shared across runs; <code>null</code>
+     *                 for no cache
+     * @param cacheMaxBytes evict least recently used results beyond this size
+     * @param cacheNamespace results are only reused within a namespace, this should
+     *                       identify the tool and its options; if <code>null</code>,
+     *                       the processor's class name is used
+     */
+    public void setResultCache(Path cacheDir, long cacheMaxBytes, String cacheNamespace) {
+        this.cacheDir = cacheDir;
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.cacheNamespace = cacheNamespace;
+    }
 
-            @Override
-            public FileVisitResult visitFile(Path path, BasicFileAttributes basicFileAttributes) throws IOException {
-                if (maxFiles > -1 && added >= maxFiles) {
-                    return FileVisitResult.TERMINATE;
-                }
-                if (path.getFileName().toString().startsWith(".")) {
-                    //skip hidden files
-                    return FileVisitResult.CONTINUE;
-                }
-                try {
-                    boolean offered = queue.offer(path, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
-                    if (offered) {
-                        added++;
-                    } else {
-                        throw new RuntimeException("file adder timed out");
-                    }
-                } catch (InterruptedException e) {
-                    //swallow
-                }
+    /**
+     * Only process the paths in this partition of the input.  Unlike
+     * {@link AbstractConfig}, this doesn't change the name of the
+     * metadata writer's output; use a separate output for each partition.
+     *
+     * @param partition may be <code>null</code> for all of the input
+     */
+    public void setPartition(Partition partition) {
+        this.partition = partition;
+    }
 
-                return FileVisitResult.CONTINUE;
-            }
+    /**
+     * @param memoryLimitBytes soft limit on the address space of each child process,
+     *                         applied with prlimit; -1 for no limit
+     */
+    public void setMemoryLimitBytes(long memoryLimitBytes) {
+        this.memoryLimitBytes = memoryLimitBytes;
+    }
 
-            @Override
-            public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
-                return FileVisitResult.CONTINUE;
-            }
+    /**
+     * Compress the output of {@link FileToFileProcessor}s and/or pack it into segments,
+     * see {@link OutputStore} and {@link SegmentedOutputStore}.
+     *
+     * @param outputCompression
+     * @param outputSegmentBytes size of the output segments, -1 for one output file per input
+     */
+    public void setOutputStore(OutputCompression outputCompression, long outputSegmentBytes) {
+        this.outputCompression = outputCompression;
+        this.outputSegmentBytes = outputSegmentBytes;
+    }
 
-            @Override
-            public FileVisitResult postVisitDirectory(Path path, IOException e) throws IOException {
-                return FileVisitResult.CONTINUE;
-            }
+    /**
+     * @param largeFileBytes files at least this large are handled by the
+     *                       large file processors; -1 to turn off the large file lane
+     * @param largeFileThreads number of large file processors
+     * @param largeFileTimeoutMillis per-file timeout for large files, -1 to keep the
+     *                               processors' timeout
+     */
+    public void setLargeFileLane(long largeFileBytes, int largeFileThreads, long largeFileTimeoutMillis) {
+        this.largeFileBytes = largeFileBytes;
+        this.largeFileThreads = largeFileThreads;
+        this.largeFileTimeoutMillis = largeFileTimeoutMillis;
+    }
+
+    /**
+     * Large file lane: if {@link #setLargeFileLane(long, int, long)} has been called,
+     * files at least largeFileBytes in size go to a separate queue that
+     * is handled by these processors so that they don't hold up the small files.
+     * <p>
+     * The default calls {@link #getProcessors(ArrayBlockingQueue, int)} for
+     * largeFileThreads processors; override this if the large files need
+     * differently configured processors.
+     *
+     * @param queue the large file queue
+     * @return the large file processors
+     */
+    protected List<AbstractFileProcessor> getLargeFileProcessors(ArrayBlockingQueue<Path> queue)
+            throws IOException {
+        return getProcessors(queue, largeFileThreads);
+    }
+
+    public abstract List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue);
+
+    /**
+     * Builds count processors, e.g. for the large file lane.  The default takes
+     * the first count processors from {@link #getProcessors(ArrayBlockingQueue)}
+     * and closes the rest; override this to build only the ones that are needed.
+     *
+     * @param queue
+     * @param count
+     * @return up to count processors
+     */
+    protected List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue, int count)
+            throws IOException {
+        List<AbstractFileProcessor> processors = getProcessors(queue);
+        int keep = Math.min(count, processors.size());
+        for (AbstractFileProcessor processor : processors.subList(keep, processors.size())) {
+            processor.close();
         }
+        return new ArrayList<>(processors.subList(0, keep));
     }
 
     public static void createParent(Path path) throws IOException {
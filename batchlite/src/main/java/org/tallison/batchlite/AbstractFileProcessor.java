@@ -17,7 +17,9 @@
 package org.tallison.batchlite;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
@@ -26,12 +28,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.metrics.BatchMetrics;
 
 public abstract class AbstractFileProcessor implements Callable<Integer> {
 
     private static final long DEFAULT_TIMEOUT_MILLIS = 30000;
     private static final int MAX_BUFFER = 10000;
 
+    private static final long[] NO_ATTEMPTS = new long[0];
+
     private static AtomicInteger THREAD_COUNT = new AtomicInteger();
 
     private static Logger LOGGER = LoggerFactory.getLogger(AbstractFileProcessor.class);
@@ -40,6 +45,22 @@ public abstract class AbstractFileProcessor implements Callable<Integer> {
     private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
 
     private long fileTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private ConcurrencyLimiter concurrencyLimiter = null;
+    private boolean holdingPermit = false;
+    private BatchMetrics metrics = null;
+    private ResultCache resultCache = null;
+    private String cacheNamespace = null;
+    private RetryLane retryLane = null;
+    private PathCrawler crawler = null;
+    private long memoryLimitBytes = -1;
+    private boolean mainDone = false;
+    //the file being processed, which attempt this is and the times of the earlier attempts
+    private Path currentPath = null;
+    private BasicFileAttributes currentAttributes = null;
+    private int attempt = 1;
+    private long[] earlierAttemptTimes = NO_ATTEMPTS;
+    //for a retry, the unscaled timeout from the processor that first tried the file
+    private long retryBaseTimeoutMillis = -1;
 
     public AbstractFileProcessor(ArrayBlockingQueue<Path> queue) {
         id = THREAD_COUNT.getAndIncrement();
@@ -48,40 +69,262 @@ public abstract class AbstractFileProcessor implements Callable<Integer> {
 
     public abstract void process(Path path) throws IOException;
 
+    /**
+     * Called once when this processor has finished its queue.  Override
+     * to release resources held across files (e.g. a worker process).
+     *
+     * @throws IOException
+     */
+    protected void close() throws IOException {
+        //no-op
+    }
+
     public void setTimeoutMillis(long timeoutMillis) {
         this.timeoutMillis = timeoutMillis;
     }
 
+    /**
+     * @return the timeout for the current file; this is scaled up for retries
+     */
     public long getFileTimeoutMillis() {
-        return fileTimeoutMillis;
+        long base = retryBaseTimeoutMillis > -1 ? retryBaseTimeoutMillis : fileTimeoutMillis;
+        if (retryLane != null) {
+            return retryLane.scaleTimeout(base, attempt);
+        }
+        return base;
     }
 
     public void setFileTimeoutMillis(long fileTimeoutMillis) {
         this.fileTimeoutMillis = fileTimeoutMillis;
     }
 
+    /**
+     * @param memoryLimitBytes soft limit on the address space of the child processes,
+     *                         applied with prlimit; -1 for no limit
+     */
+    public void setMemoryLimitBytes(long memoryLimitBytes) {
+        this.memoryLimitBytes = memoryLimitBytes;
+    }
+
+    /**
+     * Implementations that start child processes should run this commandline
+     * instead of their own, so that the configured limits are applied.
+     *
+     * @param commandline
+     * @return the commandline, wrapped in prlimit if there is a memory limit
+     */
+    protected String[] applyLimits(String[] commandline) {
+        if (memoryLimitBytes < 0) {
+            return commandline;
+        }
+        String[] limited = new String[commandline.length + 3];
+        limited[0] = "prlimit";
+        //soft limit only: "n:" leaves the hard limit as is
+        limited[1] = "--as=" + memoryLimitBytes + ":";
+        limited[2] = "--";
+        System.arraycopy(commandline, 0, limited, 3, commandline.length);
+        return limited;
+    }
+
+    /**
+     * @param concurrencyLimiter if set, a processor has to get a permit from
+     *                           this before it takes the next file off the queue
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public void setMetrics(BatchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param resultCache    cache of results by file content, may be <code>null</code>
+     * @param cacheNamespace results are only reused within a namespace; if <code>null</code>,
+     *                       this processor's class name is used
+     */
+    public void setResultCache(ResultCache resultCache, String cacheNamespace) {
+        this.resultCache = resultCache;
+        this.cacheNamespace = cacheNamespace;
+    }
+
+    protected ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    protected String getCacheNamespace() {
+        return cacheNamespace != null ? cacheNamespace : getClass().getName();
+    }
+
+    /**
+     * @param retryLane lane for retrying files that timed out, may be <code>null</code>
+     */
+    public void setRetryLane(RetryLane retryLane) {
+        this.retryLane = retryLane;
+    }
+
+    /**
+     * @param crawler the crawler feeding this processor's queue; while it's still
+     *                running, an empty poll isn't treated as a timeout
+     */
+    void setCrawler(PathCrawler crawler) {
+        this.crawler = crawler;
+    }
+
+    /**
+     * Records this attempt in the result and, if the file timed out and
+     * there are attempts left, adds the file to the retry lane.
+     *
+     * @return <code>true</code> if the file will be retried, in which case
+     * the result should not be written
+     */
+    protected boolean deferRetry(FileProcessResult result) {
+        long[] attemptTimes = new long[earlierAttemptTimes.length + 1];
+        System.arraycopy(earlierAttemptTimes, 0, attemptTimes, 0, earlierAttemptTimes.length);
+        attemptTimes[earlierAttemptTimes.length] = result.getProcessTimeMillis();
+        result.setAttempts(attempt);
+        result.setAttemptTimesMillis(attemptTimes);
+        if (retryLane != null && currentPath != null && result.isTimeout() &&
+                attempt < retryLane.getMaxAttempts()) {
+            long base = retryBaseTimeoutMillis > -1 ? retryBaseTimeoutMillis : fileTimeoutMillis;
+            retryLane.add(new RetryLane.Item(currentPath, attempt + 1, attemptTimes, base));
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public Integer call() throws IOException, TimeoutException {
+        try {
+            return processQueue();
+        } finally {
+            releasePermit();
+            if (retryLane != null && ! mainDone) {
+                //don't leave the other processors waiting on us
+                retryLane.mainDone();
+                mainDone = true;
+            }
+            close();
+        }
+    }
+
+    /**
+     * @return the attributes of the file being processed, read once before
+     * {@link #process(Path)}, or <code>null</code> if they couldn't be read
+     */
+    protected BasicFileAttributes getCurrentAttributes() {
+        return currentAttributes;
+    }
+
+    /**
+     * @return the file's attributes or <code>null</code> if they can't be read
+     */
+    protected static BasicFileAttributes readAttributes(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void acquirePermit() throws InterruptedException {
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.acquire();
+            holdingPermit = true;
+        }
+    }
+
+    private void releasePermit() {
+        if (holdingPermit) {
+            concurrencyLimiter.release();
+            holdingPermit = false;
+        }
+    }
+
+    private Integer processQueue() throws IOException, TimeoutException {
         while (true) {
             Path p = null;
             try {
+                acquirePermit();
                 long start = System.currentTimeMillis();
                 p = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
                 long elapsed = System.currentTimeMillis() - start;
                 LOGGER.debug("thread (" + id + ") from queue " + elapsed + " : " + queue.size());
+                if (metrics != null && p != null && ! p.equals(AbstractDirectoryProcessor.POISON)) {
+                    metrics.recordQueueWait(elapsed);
+                }
             } catch (InterruptedException e) {
                 return 0;
             }
             if (p == null) {
+                if (crawler != null && ! crawler.isFinished()) {
+                    //e.g. the crawler is working through files that are skipped or go to another lane
+                    LOGGER.debug("thread (" + id + ") queue empty; crawler still running");
+                    releasePermit();
+                    continue;
+                }
                 throw new TimeoutException("timed out");
             } else if (p.equals(AbstractDirectoryProcessor.POISON)) {
-                return 1;
+                //don't hold a permit while waiting for retries; the processors
+                //still on the main queue may need it to finish
+                releasePermit();
+                return retryLane == null ? 1 : processRetries();
             } else {
-                long start = System.currentTimeMillis();
-                process(p);
-                long elapsed = System.currentTimeMillis() - start;
-                LOGGER.debug("thread (" + id + ") took " + elapsed + " to process " + p.getFileName().toString());
+                processTimed(p);
+            }
+        }
+    }
+
+    private Integer processRetries() throws IOException {
+        retryLane.mainDone();
+        mainDone = true;
+        while (true) {
+            RetryLane.Item item;
+            try {
+                item = retryLane.take();
+                if (item == null) {
+                    return 1;
+                }
+            } catch (InterruptedException e) {
+                return 0;
             }
+            try {
+                acquirePermit();
+                attempt = item.getAttempt();
+                earlierAttemptTimes = item.getAttemptTimesMillis();
+                retryBaseTimeoutMillis = item.getFileTimeoutMillis();
+                LOGGER.debug("thread (" + id + ") retrying " + item.getPath() + "; attempt " + attempt);
+                processTimed(item.getPath());
+            } catch (InterruptedException e) {
+                return 0;
+            } finally {
+                attempt = 1;
+                earlierAttemptTimes = NO_ATTEMPTS;
+                retryBaseTimeoutMillis = -1;
+                retryLane.done();
+            }
+        }
+    }
+
+    void processTimed(Path p) throws IOException {
+        long start = System.currentTimeMillis();
+        currentPath = p;
+        currentAttributes = readAttributes(p);
+        long size = currentAttributes == null ? -1 : currentAttributes.size();
+        try {
+            process(p);
+        } finally {
+            currentPath = null;
+            currentAttributes = null;
+            releasePermit();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.record(elapsed);
+        }
+        if (metrics != null) {
+            metrics.recordProcess(elapsed, size);
         }
+        LOGGER.debug("thread (" + id + ") took " + elapsed + " to process " + p.getFileName().toString());
     }
 }
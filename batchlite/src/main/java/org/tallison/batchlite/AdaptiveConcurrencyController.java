@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adjusts a {@link ConcurrencyLimiter} once per interval with
+ * additive-increase/multiplicative-decrease.
+ * <p>
+ * Each interval, this measures throughput (files/sec), the mean per-file
+ * latency and the system load average per core, then:
+ * <ul>
+ *     <li>backs off (limit * {@link #setDecreaseFactor(double)}) if the load
+ *     per core is above {@link #setMaxLoadPerCore(double)}, or if latency has
+ *     climbed well above the best latency seen without throughput going up
+ *     (i.e. the tool is contending for disk or memory);</li>
+ *     <li>adds one if throughput went up, or if there are idle cores
+ *     (load per core below {@link #setIdleLoadPerCore(double)}) -- so that a
+ *     throughput plateau that is caused by the input (e.g. a stretch of
+ *     small files) can't leave cores idle -- but only while latency is within
+ *     {@link #setLatencyTolerance(double)} of the baseline.  Idle cores with
+ *     rising latency usually mean the tool is waiting on disk or memory,
+ *     and more processes would make that worse;</li>
+ *     <li>otherwise holds.</li>
+ * </ul>
+ * If the OS doesn't report a load average, only throughput and latency are used.
+ */
+public class AdaptiveConcurrencyController implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveConcurrencyController.class);
+
+    private final ConcurrencyLimiter limiter;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final int cores = Runtime.getRuntime().availableProcessors();
+
+    private double maxLoadPerCore = 1.5;
+    private double idleLoadPerCore = 0.75;
+    private double decreaseFactor = 0.75;
+    //latency this many times the baseline counts as contention
+    private double latencyTolerance = 2.0;
+    //a change in throughput smaller than this is noise
+    private double throughputTolerance = 0.05;
+
+    private long lastNanos = -1;
+    private long lastCompleted = 0;
+    private long lastLatencyMillis = 0;
+    private double lastThroughput = -1.0;
+    private double baselineLatency = -1.0;
+
+    public AdaptiveConcurrencyController(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void run() {
+        try {
+            adjust();
+        } catch (RuntimeException e) {
+            //don't let an exception cancel the scheduled task
+            LOGGER.warn("problem adjusting concurrency", e);
+        }
+    }
+
+    synchronized void adjust() {
+        long now = System.nanoTime();
+        long completed = limiter.getCompleted();
+        long latencyMillis = limiter.getTotalLatencyMillis();
+        if (lastNanos < 0) {
+            lastNanos = now;
+            lastCompleted = completed;
+            lastLatencyMillis = latencyMillis;
+            return;
+        }
+        double seconds = (now - lastNanos) / 1_000_000_000.0;
+        long files = completed - lastCompleted;
+        double throughput = seconds > 0 ? files / seconds : 0.0;
+        double latency = files > 0 ? (double) (latencyMillis - lastLatencyMillis) / files : -1.0;
+        lastNanos = now;
+        lastCompleted = completed;
+        lastLatencyMillis = latencyMillis;
+
+        double load = os.getSystemLoadAverage();
+        double loadPerCore = load < 0 ? -1.0 : load / cores;
+
+        if (latency >= 0) {
+            if (baselineLatency < 0 || latency < baselineLatency) {
+                baselineLatency = latency;
+            } else {
+                //let the baseline drift up slowly in case the mix of files changes
+                baselineLatency = 0.95 * baselineLatency + 0.05 * latency;
+            }
+        }
+
+        boolean throughputUp = lastThroughput >= 0 &&
+                throughput > lastThroughput * (1.0 + throughputTolerance);
+        boolean throughputDown = lastThroughput >= 0 &&
+                throughput < lastThroughput * (1.0 - throughputTolerance);
+        boolean overloaded = loadPerCore > maxLoadPerCore;
+        boolean latencyUp = latency >= 0 && baselineLatency > 0 &&
+                latency > baselineLatency * latencyTolerance;
+        boolean contention = latencyUp && ! throughputUp;
+        boolean idleCores = loadPerCore >= 0 && loadPerCore < idleLoadPerCore;
+
+        int oldLimit = limiter.getLimit();
+        int newLimit = oldLimit;
+        if (overloaded || (contention && throughputDown)) {
+            newLimit = (int) Math.floor(oldLimit * decreaseFactor);
+        } else if ((throughputUp || idleCores || lastThroughput < 0) && ! latencyUp) {
+            newLimit = oldLimit + 1;
+        }
+        newLimit = limiter.setLimit(newLimit);
+        lastThroughput = throughput;
+        if (newLimit != oldLimit) {
+            LOGGER.info(String.format(Locale.US,
+                    "concurrency %d -> %d (%.2f files/sec, latency %.0f ms, load/core %.2f)",
+                    oldLimit, newLimit, throughput, latency, loadPerCore));
+        } else {
+            LOGGER.debug(String.format(Locale.US,
+                    "concurrency %d (%.2f files/sec, latency %.0f ms, load/core %.2f)",
+                    oldLimit, throughput, latency, loadPerCore));
+        }
+    }
+
+    public void setMaxLoadPerCore(double maxLoadPerCore) {
+        this.maxLoadPerCore = maxLoadPerCore;
+    }
+
+    public void setIdleLoadPerCore(double idleLoadPerCore) {
+        this.idleLoadPerCore = idleLoadPerCore;
+    }
+
+    public void setDecreaseFactor(double decreaseFactor) {
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public void setThroughputTolerance(double throughputTolerance) {
+        this.throughputTolerance = throughputTolerance;
+    }
+}
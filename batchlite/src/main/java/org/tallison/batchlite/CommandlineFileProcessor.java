@@ -32,10 +32,10 @@ public abstract class CommandlineFileProcessor extends FileProcessor {
     protected void process(String relPath,
                                     Path srcPath, MetadataWriter metadataWriter) throws IOException {
         String[] commandline = getCommandLine(srcPath);
-        FileProcessResult r = ProcessExecutor.execute(new ProcessBuilder(commandline),
+        FileProcessResult r = ProcessExecutor.execute(new ProcessBuilder(applyLimits(commandline)),
                 getFileTimeoutMillis(), metadataWriter.getMaxStdoutBuffer(),
                 metadataWriter.getMaxStderrBuffer());
-        metadataWriter.write(relPath, r);
+        writeResult(relPath, r);
      }
 
     protected abstract String[] getCommandLine(Path srcPath) throws IOException;
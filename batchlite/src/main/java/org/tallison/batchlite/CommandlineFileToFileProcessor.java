@@ -31,10 +31,10 @@ public abstract class CommandlineFileToFileProcessor extends FileToFileProcessor
     protected void process(String relPath,
                                     Path srcPath, Path outputPath, MetadataWriter metadataWriter) throws IOException {
         String[] commandline = getCommandLine(srcPath, outputPath);
-        FileProcessResult r = ProcessExecutor.execute(new ProcessBuilder(commandline),
+        FileProcessResult r = ProcessExecutor.execute(new ProcessBuilder(applyLimits(commandline)),
                 getFileTimeoutMillis(), metadataWriter.getMaxStdoutBuffer(),
                 metadataWriter.getMaxStderrBuffer());
-        metadataWriter.write(relPath, r);
+        writeResult(relPath, r);
      }
 
     protected abstract String[] getCommandLine(Path srcPath, Path targPath) throws IOException;
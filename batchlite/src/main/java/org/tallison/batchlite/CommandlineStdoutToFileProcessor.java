@@ -17,6 +17,7 @@
 package org.tallison.batchlite;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.concurrent.ArrayBlockingQueue;
 
@@ -31,10 +32,20 @@ public abstract class CommandlineStdoutToFileProcessor extends FileToFileProcess
     protected void process(String relPath,
                                     Path srcPath, Path outputPath, MetadataWriter metadataWriter) throws IOException {
         String[] commandline = getCommandLine(srcPath);
-        FileProcessResult r = ProcessExecutor.execute(new ProcessBuilder(commandline),
-                getFileTimeoutMillis(), outputPath,
-                metadataWriter.getMaxStderrBuffer());
-        metadataWriter.write(relPath, r);
+        FileProcessResult r;
+        OutputStream os = openOutputStream(relPath);
+        if (os == null) {
+            r = ProcessExecutor.execute(new ProcessBuilder(applyLimits(commandline)),
+                    getFileTimeoutMillis(), outputPath,
+                    metadataWriter.getMaxStderrBuffer());
+        } else {
+            try (OutputStream stdout = os) {
+                r = ProcessExecutor.execute(new ProcessBuilder(applyLimits(commandline)),
+                        getFileTimeoutMillis(), stdout,
+                        metadataWriter.getMaxStderrBuffer());
+            }
+        }
+        writeResult(relPath, r);
      }
 
     protected abstract String[] getCommandLine(Path srcPath) throws IOException;
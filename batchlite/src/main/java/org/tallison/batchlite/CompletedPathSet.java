@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact set of relative paths that have already been processed.
+ * <p>
+ * This stores only a 64-bit fingerprint per path in an open-addressing
+ * long array so that tens of millions of paths can be held in memory
+ * during a resumed run.  The chance of a fingerprint collision (and therefore
+ * of wrongly skipping a file) is vanishingly small at those sizes, but it is
+ * not zero.
+ */
+public class CompletedPathSet {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] table = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public void add(String relPath) {
+        add(fingerprint(relPath));
+    }
+
+    public boolean contains(String relPath) {
+        long fp = fingerprint(relPath);
+        int mask = table.length - 1;
+        int i = (int) (fp & mask);
+        while (table[i] != 0) {
+            if (table[i] == fp) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void add(long fp) {
+        if ((size + 1) * 2 > table.length) {
+            resize();
+        }
+        if (insert(table, fp)) {
+            size++;
+        }
+    }
+
+    private void resize() {
+        long[] bigger = new long[table.length * 2];
+        for (long fp : table) {
+            if (fp != 0) {
+                insert(bigger, fp);
+            }
+        }
+        table = bigger;
+    }
+
+    private static boolean insert(long[] table, long fp) {
+        int mask = table.length - 1;
+        int i = (int) (fp & mask);
+        while (table[i] != 0) {
+            if (table[i] == fp) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = fp;
+        return true;
+    }
+
+    /**
+     * Stable 64-bit hash of a relative path (FNV-1a over the UTF-8 bytes
+     * followed by a final avalanche step).  This never returns 0, which is
+     * used as the empty marker in the table.
+     *
+     * @param relPath
+     * @return
+     */
+    public static long fingerprint(String relPath) {
+        long h = FNV_OFFSET;
+        for (byte b : relPath.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= FNV_PRIME;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only journal of the relative paths that the {@link MetadataWriter}
+ * has finished writing, one path per line.  On a resumed run, the
+ * journal is loaded and those paths are skipped by the crawler.
+ * <p>
+ * The writer thread appends the paths of a batch only after the batch has
+ * been written and {@link MetadataWriter#flush()} has returned, so the journal
+ * is only as durable as the writer's flush.  Percent signs, newlines and carriage
+ * returns in paths are percent-encoded, so each entry is a single line.
+ */
+public class CompletionJournal implements Closeable {
+
+    private final BufferedWriter writer;
+
+    private CompletionJournal(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @param journal path to the journal file
+     * @param append if <code>true</code>, keep the existing entries (resume);
+     *               otherwise, start a new journal
+     * @return
+     * @throws IOException
+     */
+    public static CompletionJournal open(Path journal, boolean append) throws IOException {
+        if (journal.getParent() != null && ! Files.isDirectory(journal.getParent())) {
+            Files.createDirectories(journal.getParent());
+        }
+        BufferedWriter writer;
+        if (append) {
+            writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } else {
+            writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8);
+        }
+        return new CompletionJournal(writer);
+    }
+
+    /**
+     * Loads the entries of an existing journal into the completed set.
+     * A partially written last line (e.g. after a crash) is ignored.
+     *
+     * @param journal
+     * @param completed
+     * @return number of entries read
+     * @throws IOException
+     */
+    public static int load(Path journal, CompletedPathSet completed) throws IOException {
+        if (! Files.isRegularFile(journal)) {
+            return 0;
+        }
+        boolean lastLineComplete = endsWithNewline(journal);
+        int loaded = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                if (line.length() > 0 && (next != null || lastLineComplete)) {
+                    completed.add(unescape(line));
+                    loaded++;
+                }
+                line = next;
+            }
+        }
+        return loaded;
+    }
+
+    public void append(String relPath) throws IOException {
+        writer.write(escape(relPath));
+        writer.write('\n');
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+        writer.close();
+    }
+
+    private static boolean endsWithNewline(Path journal) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(journal)) {
+            if (channel.size() == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1);
+            channel.read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Percent-encodes '%', '\n' and '\r' so that each entry is a single line.
+     * Backslashes are left alone, as they're the separator in Windows paths.
+     */
+    static String escape(String relPath) {
+        if (relPath.indexOf('%') < 0 && relPath.indexOf('\n') < 0 && relPath.indexOf('\r') < 0) {
+            return relPath;
+        }
+        StringBuilder sb = new StringBuilder(relPath.length() + 8);
+        for (int i = 0; i < relPath.length(); i++) {
+            char c = relPath.charAt(i);
+            switch (c) {
+                case '%':
+                    sb.append("%25");
+                    break;
+                case '\n':
+                    sb.append("%0A");
+                    break;
+                case '\r':
+                    sb.append("%0D");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String line) {
+        if (line.indexOf('%') < 0) {
+            return line;
+        }
+        return line.replace("%0A", "\n").replace("%0D", "\r").replace("%25", "%");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many processors may work on a file at the same time.  The limit
+ * can be changed at runtime by {@link AdaptiveConcurrencyController}; lowering
+ * it doesn't interrupt files in progress, it just keeps processors from
+ * starting new ones until enough permits have been returned.
+ * <p>
+ * This also counts completed files and their latencies for the controller.
+ */
+public class ConcurrencyLimiter {
+
+    private final ResizableSemaphore semaphore;
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalLatencyMillis = new LongAdder();
+    private int limit;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("need 1 <= min (" + minLimit +
+                    ") <= max (" + maxLimit + ")");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = clamp(initialLimit);
+        this.semaphore = new ResizableSemaphore(limit);
+    }
+
+    public void acquire() throws InterruptedException {
+        semaphore.acquire();
+    }
+
+    public void release() {
+        semaphore.release();
+    }
+
+    /**
+     * Records a completed file.
+     */
+    public void record(long latencyMillis) {
+        completed.increment();
+        totalLatencyMillis.add(latencyMillis);
+    }
+
+    long getCompleted() {
+        return completed.sum();
+    }
+
+    long getTotalLatencyMillis() {
+        return totalLatencyMillis.sum();
+    }
+
+    /**
+     * @return permits that aren't held by a processor
+     */
+    int availablePermits() {
+        return semaphore.availablePermits();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @param newLimit the new limit; this is clamped to [min, max]
+     * @return the limit that was set
+     */
+    public synchronized int setLimit(int newLimit) {
+        newLimit = clamp(newLimit);
+        int delta = newLimit - limit;
+        if (delta > 0) {
+            semaphore.release(delta);
+        } else if (delta < 0) {
+            semaphore.reducePermits(-delta);
+        }
+        limit = newLimit;
+        return limit;
+    }
+
+    private int clamp(int l) {
+        return Math.max(minLimit, Math.min(maxLimit, l));
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -27,6 +27,16 @@ public class FileProcessResult {
     long stderrLength = -1;
     boolean stderrTruncated;
     boolean stdoutTruncated;
+    long fileSize = -1;
+    long lastModified = -1;
+    boolean removed = false;
+    int attempts = 1;
+    long[] attemptTimesMillis;
+    long userCpuMillis = -1;
+    long systemCpuMillis = -1;
+    long peakRssBytes = -1;
+    long ioReadBytes = -1;
+    long ioWriteBytes = -1;
 
     public String getStderr() {
         return stderr;
@@ -64,6 +74,79 @@ public class FileProcessResult {
         return stdoutTruncated;
     }
 
+    /**
+     * @return size of the input file when it was processed, -1 if unknown
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return last modified time (epoch millis) of the input file when it
+     * was processed, -1 if unknown
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return <code>true</code> if this records that the file was deleted
+     * since a previous run
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return number of times the file was processed (more than one if it
+     * timed out and was retried)
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return time in millis of each attempt, may be <code>null</code>
+     */
+    public long[] getAttemptTimesMillis() {
+        return attemptTimesMillis;
+    }
+
+    /**
+     * @return user cpu time of the child process, -1 if unknown; see {@link ProcessStats}
+     */
+    public long getUserCpuMillis() {
+        return userCpuMillis;
+    }
+
+    /**
+     * @return system cpu time of the child process, -1 if unknown
+     */
+    public long getSystemCpuMillis() {
+        return systemCpuMillis;
+    }
+
+    /**
+     * @return peak resident set size of the child process, -1 if unknown
+     */
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    /**
+     * @return bytes the child process read, -1 if unknown
+     */
+    public long getIoReadBytes() {
+        return ioReadBytes;
+    }
+
+    /**
+     * @return bytes the child process wrote, -1 if unknown
+     */
+    public long getIoWriteBytes() {
+        return ioWriteBytes;
+    }
+
     public void setStderr(String stderr) {
         this.stderr = stderr;
     }
@@ -99,4 +182,44 @@ public class FileProcessResult {
     public void setStdoutTruncated(boolean stdoutTruncated) {
         this.stdoutTruncated = stdoutTruncated;
     }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public void setRemoved(boolean removed) {
+        this.removed = removed;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public void setAttemptTimesMillis(long[] attemptTimesMillis) {
+        this.attemptTimesMillis = attemptTimesMillis;
+    }
+
+    public void setUserCpuMillis(long userCpuMillis) {
+        this.userCpuMillis = userCpuMillis;
+    }
+
+    public void setSystemCpuMillis(long systemCpuMillis) {
+        this.systemCpuMillis = systemCpuMillis;
+    }
+
+    public void setPeakRssBytes(long peakRssBytes) {
+        this.peakRssBytes = peakRssBytes;
+    }
+
+    public void setIoReadBytes(long ioReadBytes) {
+        this.ioReadBytes = ioReadBytes;
+    }
+
+    public void setIoWriteBytes(long ioWriteBytes) {
+        this.ioWriteBytes = ioWriteBytes;
+    }
 }
@@ -18,8 +18,12 @@ package org.tallison.batchlite;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.ArrayBlockingQueue;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Extend this if the process doesn't write an output file...
  * if all you care about is the status of the process and the
@@ -30,8 +34,14 @@ import java.util.concurrent.ArrayBlockingQueue;
  */
 public abstract class FileProcessor extends AbstractFileProcessor {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileProcessor.class);
+
     private final Path srcRoot;
     private final MetadataWriter metadataWriter;
+    //attributes of the file being processed
+    private BasicFileAttributes fileAttributes = null;
+    //digest of the file being processed, if there's a result cache
+    private String digest = null;
 
     public FileProcessor(ArrayBlockingQueue<Path> queue,
                          Path srcRoot, MetadataWriter metadataWriter) {
@@ -43,7 +53,55 @@ public abstract class FileProcessor extends AbstractFileProcessor {
     @Override
     public void process(Path srcPath) throws IOException {
         String relPath = srcRoot.relativize(srcPath).toString();
-        process(relPath, srcPath, metadataWriter);
+        fileAttributes = getCurrentAttributes();
+        ResultCache cache = getResultCache();
+        if (cache != null) {
+            try {
+                digest = ResultCache.digest(srcPath);
+                ResultCache.Entry hit = cache.get(getCacheNamespace(), digest);
+                if (hit != null) {
+                    setFileAttributes(hit.getResult());
+                    metadataWriter.write(relPath, hit.getResult());
+                    return;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("couldn't check the result cache for " + srcPath, e);
+                digest = null;
+            }
+        }
+        try {
+            process(relPath, srcPath, metadataWriter);
+        } finally {
+            digest = null;
+        }
+    }
+
+    private void setFileAttributes(FileProcessResult result) {
+        if (fileAttributes != null) {
+            result.setFileSize(fileAttributes.size());
+            result.setLastModified(fileAttributes.lastModifiedTime().toMillis());
+        }
+    }
+
+    /**
+     * Writes the result to the metadata writer (unless it timed out and will
+     * be retried) and, if there is a
+     * result cache, adds it to the cache.  Implementations should call this
+     * rather than writing to the metadata writer directly.
+     */
+    protected void writeResult(String relPath, FileProcessResult result) throws IOException {
+        setFileAttributes(result);
+        if (deferRetry(result)) {
+            return;
+        }
+        metadataWriter.write(relPath, result);
+        if (digest != null && ! result.isTimeout()) {
+            try {
+                getResultCache().put(getCacheNamespace(), digest, result, null);
+            } catch (IOException e) {
+                LOGGER.warn("couldn't add " + relPath + " to the result cache", e);
+            }
+        }
     }
 
     protected abstract void process(String relPath, Path srcPath,
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Size and last-modified time of each file as of the previous run, for
+ * incremental runs.  Like {@link CompletedPathSet}, this is keyed by
+ * a 64-bit fingerprint of the relative path so that it stays compact for
+ * trees with tens of millions of files.
+ * <p>
+ * The crawl marks each path it sees.  When the crawl is done, the paths that
+ * were in the previous run but weren't seen (and weren't already marked as removed)
+ * are the deleted files.  To find those without holding every path in memory,
+ * the paths are spooled to a temp file as they're loaded.
+ */
+public class FileStateIndex implements Closeable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte REMOVED = 1;
+    private static final byte SEEN = 2;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] lastModifieds = new long[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+    private final Path pathsFile;
+    private BufferedWriter pathsWriter;
+
+    public FileStateIndex() throws IOException {
+        pathsFile = Files.createTempFile("batchlite-paths-", ".txt");
+        pathsWriter = Files.newBufferedWriter(pathsFile, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Records the state of a path from the previous run.  If a path is
+     * added more than once (e.g. an appended csv), the last one wins.
+     *
+     * @param relPath      relative path
+     * @param fileSize     size in bytes, -1 if unknown
+     * @param lastModified last modified in epoch millis, -1 if unknown
+     * @param removed      whether the previous run marked the file as removed
+     */
+    public synchronized void put(String relPath, long fileSize, long lastModified,
+                                 boolean removed) throws IOException {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        long fp = CompletedPathSet.fingerprint(relPath);
+        int i = slot(keys, fp);
+        if (keys[i] == 0) {
+            keys[i] = fp;
+            size++;
+            pathsWriter.write(relPath);
+            pathsWriter.write('\n');
+        }
+        sizes[i] = fileSize;
+        lastModifieds[i] = lastModified;
+        flags[i] = removed ? REMOVED : 0;
+    }
+
+    /**
+     * Marks the path as seen by this run's crawl.
+     *
+     * @return <code>true</code> if the previous run processed this path, and
+     * it has the same size and last modified time now
+     */
+    public synchronized boolean seen(String relPath, long fileSize, long lastModified) {
+        long fp = CompletedPathSet.fingerprint(relPath);
+        int i = slot(keys, fp);
+        if (keys[i] == 0) {
+            return false;
+        }
+        flags[i] |= SEEN;
+        return (flags[i] & REMOVED) == 0 && fileSize > -1 && lastModified > -1 &&
+                sizes[i] == fileSize && lastModifieds[i] == lastModified;
+    }
+
+    /**
+     * Calls the consumer with each path that was in the previous run,
+     * wasn't marked as removed then, and hasn't been seen by this crawl.
+     */
+    public void forEachRemoved(Consumer<String> consumer) throws IOException {
+        synchronized (this) {
+            if (pathsWriter != null) {
+                pathsWriter.close();
+                pathsWriter = null;
+            }
+        }
+        try (BufferedReader reader = Files.newBufferedReader(pathsFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                if (isRemoved(line)) {
+                    consumer.accept(line);
+                }
+                line = reader.readLine();
+            }
+        }
+    }
+
+    private synchronized boolean isRemoved(String relPath) {
+        int i = slot(keys, CompletedPathSet.fingerprint(relPath));
+        return keys[i] != 0 && flags[i] == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static int slot(long[] keys, long fp) {
+        int mask = keys.length - 1;
+        int i = (int) (fp & mask);
+        while (keys[i] != 0 && keys[i] != fp) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldSizes = sizes;
+        long[] oldLastModifieds = lastModifieds;
+        byte[] oldFlags = flags;
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        sizes = new long[capacity];
+        lastModifieds = new long[capacity];
+        flags = new byte[capacity];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = slot(keys, oldKeys[j]);
+                keys[i] = oldKeys[j];
+                sizes[i] = oldSizes[j];
+                lastModifieds[i] = oldLastModifieds[j];
+                flags[i] = oldFlags[j];
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (pathsWriter != null) {
+            pathsWriter.close();
+            pathsWriter = null;
+        }
+        Files.deleteIfExists(pathsFile);
+    }
+}
@@ -17,34 +17,219 @@
 package org.tallison.batchlite;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.ArrayBlockingQueue;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.pipeline.Emitter;
+import org.tallison.batchlite.pipeline.Pipeline;
+import org.tallison.batchlite.pipeline.Stage;
+
 /**
  * This takes an input file and runs {@link #process(String, Path, Path, MetadataWriter)}
  * on the input file, stores the metadata in targRoot/metadata
- * and the output (if there is any) in targRoot/output
+ * and the output (if there is any) in targRoot/output, optionally
+ * compressed or packed into segments, see {@link OutputStore}.
+ * <p>
+ * Besides pulling files off the directory processor's queue, a processor can run
+ * as a stage of a {@link Pipeline}, see {@link #asStage()} and {@link #finishStage()}.
+ * Then the output is finished (compressed, committed and cached) and the metadata
+ * written on the next stage's threads, so that this stage's thread can start
+ * the next file.
  */
 public abstract class FileToFileProcessor extends AbstractFileProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileToFileProcessor.class);
     private static final String OUTPUT_ROOT = "output";
 
     private final Path srcRoot;
-    private final Path outputRoot;
     private final MetadataWriter metadataWriter;
+    private OutputStore outputStore;
+    //attributes of the file being processed
+    private BasicFileAttributes fileAttributes = null;
+    //digest of the file being processed, if there's a result cache
+    private String digest = null;
+    //when running as a pipeline stage, the next stage, which finishes the output
+    private Emitter<Finish> finisher = null;
 
     public FileToFileProcessor(ArrayBlockingQueue<Path> queue,
                                Path srcRoot, Path targRoot, MetadataWriter metadataWriter) {
         super(queue);
         this.srcRoot = srcRoot.toAbsolutePath();
-        this.outputRoot = targRoot.resolve(OUTPUT_ROOT);
+        this.outputStore = new OutputStore(targRoot.resolve(OUTPUT_ROOT), OutputCompression.NONE);
         this.metadataWriter = metadataWriter;
     }
 
+    public Path getOutputRoot() {
+        return outputStore.getOutputRoot();
+    }
+
+    /**
+     * @param outputStore where to put the output, e.g. compressed or in segments;
+     *                    this may be shared by processors
+     */
+    public void setOutputStore(OutputStore outputStore) {
+        this.outputStore = outputStore;
+    }
+
     @Override
     public void process(Path srcPath) throws IOException {
         String relPath = srcRoot.relativize(srcPath).toString();
-        Path outputPath =  outputRoot.resolve(relPath+getExtension());
-        process(relPath, srcPath, outputPath, metadataWriter);
+        String key = relPath + getExtension();
+        fileAttributes = getCurrentAttributes();
+        ResultCache cache = getResultCache();
+        if (cache != null) {
+            try {
+                digest = ResultCache.digest(srcPath);
+                ResultCache.Entry hit = cache.get(getOutputCacheNamespace(), digest);
+                if (hit != null) {
+                    setFileAttributes(hit.getResult());
+                    if (hit.getOutput() != null) {
+                        Path stored = outputStore.getStoredPath(key);
+                        AbstractDirectoryProcessor.createParent(stored);
+                        Files.copy(hit.getOutput(), stored, StandardCopyOption.REPLACE_EXISTING);
+                        outputStore.commit(key, stored);
+                    }
+                    metadataWriter.write(relPath, hit.getResult());
+                    return;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("couldn't check the result cache for " + srcPath, e);
+                digest = null;
+            }
+        }
+        try {
+            process(relPath, srcPath, outputStore.getRawPath(key), metadataWriter);
+        } finally {
+            digest = null;
+        }
+    }
+
+    /**
+     * Implementations that can stream the output (e.g. a tool's stdout) should
+     * write it here, if this isn't <code>null</code>, rather than to the output path,
+     * so that it is compressed as it is written.  The stream has to be closed before
+     * {@link #writeResult(String, FileProcessResult)}.
+     *
+     * @param relPath
+     * @return a stream for the output or <code>null</code> if the output should
+     * be written directly to the output path
+     * @throws IOException
+     */
+    protected OutputStream openOutputStream(String relPath) throws IOException {
+        if (outputStore.isDirect()) {
+            return null;
+        }
+        return outputStore.openStored(relPath + getExtension());
+    }
+
+    private void setFileAttributes(FileProcessResult result) {
+        if (fileAttributes != null) {
+            result.setFileSize(fileAttributes.size());
+            result.setLastModified(fileAttributes.lastModifiedTime().toMillis());
+        }
+    }
+
+    //compressed output can't be reused for uncompressed output or vice versa
+    private String getOutputCacheNamespace() {
+        return getCacheNamespace() + outputStore.getCompression().getExtension();
+    }
+
+    /**
+     * Writes the result to the metadata writer (unless it timed out and will
+     * be retried), finishes the output (see {@link OutputStore}) and, if there is a
+     * result cache, adds it and the output file to the cache.  Implementations
+     * should call this rather than writing to the metadata writer directly.
+     */
+    protected void writeResult(String relPath, FileProcessResult result) throws IOException {
+        setFileAttributes(result);
+        if (deferRetry(result)) {
+            return;
+        }
+        Finish finish = new Finish(this, relPath, result, digest);
+        if (finisher != null) {
+            finisher.emit(finish);
+        } else {
+            finish.run();
+        }
+    }
+
+    /**
+     * Runs this processor as a pipeline stage that takes absolute paths.
+     * It has to be followed by {@link #finishStage()}.  Each thread of the
+     * stage needs its own processor, e.g.
+     * <pre>
+     *     .then("process", 4, () -&gt; new MyProcessor(null, srcRoot, targRoot, metadataWriter).asStage())
+     *     .then("finish", 2, FileToFileProcessor::finishStage)
+     * </pre>
+     * The processor's queue isn't used, so it may be <code>null</code>.
+     */
+    public Stage<Path, Finish> asStage() {
+        return new Stage<Path, Finish>() {
+            @Override
+            public void process(Path srcPath, Emitter<Finish> emitter) throws IOException {
+                finisher = emitter;
+                try {
+                    processTimed(srcPath);
+                } finally {
+                    finisher = null;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                FileToFileProcessor.this.close();
+            }
+        };
+    }
+
+    /**
+     * @return the stage that finishes the output of {@link #asStage()}
+     */
+    public static Stage<Finish, Void> finishStage() {
+        return (finish, emitter) -> finish.run();
+    }
+
+    /**
+     * The work that's left for a file once its output has been written:
+     * finishing the output, writing the metadata and adding both to the cache.
+     */
+    public static final class Finish {
+        private final FileToFileProcessor processor;
+        private final String relPath;
+        private final FileProcessResult result;
+        private final String digest;
+
+        private Finish(FileToFileProcessor processor, String relPath,
+                       FileProcessResult result, String digest) {
+            this.processor = processor;
+            this.relPath = relPath;
+            this.result = result;
+            this.digest = digest;
+        }
+
+        private void run() throws IOException {
+            OutputStore outputStore = processor.outputStore;
+            String key = relPath + processor.getExtension();
+            Path stored = outputStore.finish(key);
+            processor.metadataWriter.write(relPath, result);
+            if (digest != null && ! result.isTimeout()) {
+                try {
+                    processor.getResultCache().put(processor.getOutputCacheNamespace(),
+                            digest, result, stored);
+                } catch (IOException e) {
+                    LOGGER.warn("couldn't add " + relPath + " to the result cache", e);
+                }
+            }
+            if (stored != null) {
+                outputStore.commit(key, stored);
+            }
+        }
     }
 
     protected String getExtension() {
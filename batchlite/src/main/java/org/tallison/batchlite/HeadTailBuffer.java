@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-size capture buffer for raw process output.  This keeps the first
+ * and the last bytes of a stream (the tail of stderr is usually where the
+ * actual error is) and counts everything in between.  Nothing is decoded
+ * until {@link #toString()}.
+ * <p>
+ * If the stream is truncated, the head and tail are joined with
+ * "\n...\n"; the decoded string never has more than <code>maxLength</code>
+ * bytes' worth of content.
+ * <p>
+ * This is not thread safe.
+ */
+public class HeadTailBuffer {
+
+    private static final byte[] ELISION = "\n...\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY = new byte[0];
+
+    private final byte[] head;
+    private final byte[] tail;
+    private int headLength = 0;
+    //next write position in the tail ring
+    private int tailPos = 0;
+    //number of valid bytes in the tail ring
+    private int tailLength = 0;
+    private long length = 0;
+
+    /**
+     * @param maxLength maximum number of bytes to keep; &lt;= 0 keeps nothing
+     */
+    public HeadTailBuffer(int maxLength) {
+        if (maxLength <= 0) {
+            head = EMPTY;
+            tail = EMPTY;
+        } else if (maxLength < 4 * ELISION.length) {
+            //too small to bother with a tail
+            head = new byte[maxLength];
+            tail = EMPTY;
+        } else {
+            int budget = maxLength - ELISION.length;
+            head = new byte[budget / 2];
+            tail = new byte[budget - head.length];
+        }
+    }
+
+    public void write(byte[] bytes, int offset, int len) {
+        length += len;
+        int toHead = Math.min(len, head.length - headLength);
+        if (toHead > 0) {
+            System.arraycopy(bytes, offset, head, headLength, toHead);
+            headLength += toHead;
+            offset += toHead;
+            len -= toHead;
+        }
+        if (len == 0 || tail.length == 0) {
+            return;
+        }
+        if (len >= tail.length) {
+            System.arraycopy(bytes, offset + len - tail.length, tail, 0, tail.length);
+            tailPos = 0;
+            tailLength = tail.length;
+            return;
+        }
+        int first = Math.min(len, tail.length - tailPos);
+        System.arraycopy(bytes, offset, tail, tailPos, first);
+        if (first < len) {
+            System.arraycopy(bytes, offset + first, tail, 0, len - first);
+        }
+        tailPos = (tailPos + len) % tail.length;
+        tailLength = Math.min(tail.length, tailLength + len);
+    }
+
+    public void reset() {
+        headLength = 0;
+        tailPos = 0;
+        tailLength = 0;
+        length = 0;
+    }
+
+    /**
+     * @return total number of bytes written, including those that weren't kept
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isTruncated() {
+        return length > headLength + tailLength;
+    }
+
+    /**
+     * Decodes the kept bytes as UTF-8.  If truncated, partial
+     * characters at the cut points are dropped.
+     */
+    @Override
+    public String toString() {
+        if (length == 0) {
+            return "";
+        }
+        boolean truncated = isTruncated();
+        int headEnd = truncated ? completeUpTo(head, headLength) : headLength;
+        int tailStart = 0;
+        byte[] orderedTail = orderedTail();
+        if (truncated) {
+            while (tailStart < orderedTail.length && isContinuation(orderedTail[tailStart])) {
+                tailStart++;
+            }
+        }
+        int tailLen = orderedTail.length - tailStart;
+        byte[] bytes = new byte[headEnd + (truncated && tailLen > 0 ? ELISION.length : 0) + tailLen];
+        System.arraycopy(head, 0, bytes, 0, headEnd);
+        int pos = headEnd;
+        if (truncated && tailLen > 0) {
+            System.arraycopy(ELISION, 0, bytes, pos, ELISION.length);
+            pos += ELISION.length;
+        }
+        System.arraycopy(orderedTail, tailStart, bytes, pos, tailLen);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte[] orderedTail() {
+        byte[] ordered = new byte[tailLength];
+        if (tailLength < tail.length) {
+            System.arraycopy(tail, 0, ordered, 0, tailLength);
+        } else {
+            System.arraycopy(tail, tailPos, ordered, 0, tail.length - tailPos);
+            System.arraycopy(tail, 0, ordered, tail.length - tailPos, tailPos);
+        }
+        return ordered;
+    }
+
+    /**
+     * @return length of the prefix of bytes that doesn't end in the
+     * middle of a utf-8 sequence
+     */
+    private static int completeUpTo(byte[] bytes, int len) {
+        int i = len - 1;
+        //walk back over at most three continuation bytes to the lead byte
+        while (i >= 0 && len - i <= 4 && isContinuation(bytes[i])) {
+            i--;
+        }
+        if (i < 0) {
+            return len;
+        }
+        int lead = bytes[i] & 0xff;
+        int needed;
+        if (lead < 0x80) {
+            needed = 1;
+        } else if (lead >= 0xf0) {
+            needed = 4;
+        } else if (lead >= 0xe0) {
+            needed = 3;
+        } else if (lead >= 0xc0) {
+            needed = 2;
+        } else {
+            return len;
+        }
+        return (len - i >= needed) ? len : i;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xc0) == 0x80;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the paths to process from a manifest instead of crawling: either a
+ * UTF-8 file with one path per line (gzipped if it ends in .gz) or the first
+ * column of a jdbc query.  Relative paths are resolved against the root
+ * directory.  Blank lines are ignored, and paths that aren't under the
+ * root directory (e.g. absolute paths elsewhere or ../ entries) are
+ * skipped with a warning.
+ * <p>
+ * The files are not checked for existence here, which is the point on a slow
+ * filesystem; the processors will record an error for any that are missing.
+ */
+class ManifestCrawler extends PathCrawler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManifestCrawler.class);
+
+    private static final int FETCH_SIZE = 10000;
+
+    private final String manifest;
+    private final String query;
+    private final Path absRootDir;
+
+    /**
+     * @param manifest path to a manifest file or a jdbc connection string
+     * @param query    query to run if the manifest is a jdbc connection string
+     */
+    ManifestCrawler(Path rootDir, ArrayBlockingQueue<Path> queue,
+                    CompletedPathSet completed, int maxFiles, int numPoison,
+                    String manifest, String query) {
+        super(rootDir, queue, completed, maxFiles, numPoison);
+        this.manifest = manifest;
+        this.query = query;
+        this.absRootDir = rootDir.toAbsolutePath().normalize();
+        if (manifest.startsWith("jdbc:") && query == null) {
+            throw new IllegalArgumentException("must specify a query for a jdbc manifest");
+        }
+    }
+
+    @Override
+    protected void crawl() throws IOException, InterruptedException {
+        if (manifest.startsWith("jdbc:")) {
+            crawlJdbc();
+        } else {
+            crawlFile(Paths.get(manifest));
+        }
+    }
+
+    private void crawlFile(Path file) throws IOException, InterruptedException {
+        InputStream is = Files.newInputStream(file);
+        if (file.getFileName().toString().toLowerCase(Locale.US).endsWith(".gz")) {
+            is = new GZIPInputStream(is, 65536);
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                if (! addLine(line)) {
+                    return;
+                }
+                line = reader.readLine();
+            }
+        }
+    }
+
+    private void crawlJdbc() throws IOException, InterruptedException {
+        try (Connection connection = DriverManager.getConnection(manifest)) {
+            //postgres only streams the results with a fetch size outside of autocommit
+            connection.setAutoCommit(false);
+            try (Statement st = connection.createStatement()) {
+                st.setFetchSize(FETCH_SIZE);
+                try (ResultSet rs = st.executeQuery(query)) {
+                    while (rs.next()) {
+                        String p = rs.getString(1);
+                        if (p != null && ! addLine(p)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private boolean addLine(String line) throws InterruptedException {
+        if (line.length() == 0) {
+            return true;
+        }
+        Path path = absRootDir.resolve(line).normalize();
+        if (! path.startsWith(absRootDir)) {
+            LOGGER.warn("skipping path outside of " + absRootDir + ": " + line);
+            return true;
+        }
+        return add(rootDir.resolve(absRootDir.relativize(path)), null);
+    }
+}
@@ -18,6 +18,7 @@ package org.tallison.batchlite;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.metrics.BatchMetrics;
 import org.tallison.batchlite.writer.JDBCMetadataWriter;
 import org.tallison.batchlite.writer.PathResultPair;
 import org.tallison.batchlite.writer.WriterResult;
@@ -25,6 +26,7 @@ import org.tallison.batchlite.writer.WriterResult;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -43,15 +45,125 @@ public abstract class MetadataWriter implements Callable<Integer> {
     private static PathResultPair POISON = new PathResultPair(null, null);
     private static final long MAX_POLL_SECONDS = 600;
     private static final int MAX_BUFFER = 10000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    private static final long DEFAULT_MAX_BATCH_BYTES = 16 * 1024 * 1024;
+    private static final long DEFAULT_MAX_BATCH_LATENCY_MILLIS = 1000;
+    private static final int REPORT_EVERY = 1000;
+
     int recordsWritten = 0;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private long maxBatchLatencyMillis = DEFAULT_MAX_BATCH_LATENCY_MILLIS;
     private int maxStdoutBuffer = MAX_BUFFER;
     private int maxStderrBuffer = MAX_BUFFER;
     private final ArrayBlockingQueue<PathResultPair> rows = new ArrayBlockingQueue<>(1000);
+    private CompletionJournal completionJournal = null;
+    private BatchMetrics metrics = null;
+    private boolean incremental = false;
 
     abstract protected void write(PathResultPair pathResultPair) throws IOException;
 
+    /**
+     * Writes a batch of rows.  The batch is followed by a call to {@link #flush()},
+     * so that each batch is a single group commit.  Override this if the
+     * implementation can write a batch more efficiently than one row at a time.
+     *
+     * @param batch
+     * @throws IOException
+     */
+    protected void writeBatch(List<PathResultPair> batch) throws IOException {
+        for (PathResultPair pair : batch) {
+            write(pair);
+        }
+    }
+
     abstract protected void close() throws IOException;
 
+    /**
+     * Make everything written so far durable (e.g. flush a file or commit
+     * a transaction).  This is called by the writer thread after every batch
+     * and before the completion journal is flushed.
+     *
+     * @throws IOException
+     */
+    protected void flush() throws IOException {
+        //no-op
+    }
+
+    /**
+     * Add the relative paths that a previous run already wrote to this
+     * writer's output.  Writers that can't resume from their own output
+     * should leave this as a no-op and rely on a {@link CompletionJournal}.
+     *
+     * @param completed
+     * @throws IOException
+     */
+    public void loadCompletedPaths(CompletedPathSet completed) throws IOException {
+        //no-op
+    }
+
+    /**
+     * Add the size and last modified time of each file that a previous run
+     * wrote to this writer's output, for incremental runs.  Writers that
+     * can't read their own output should leave this as a no-op, in which
+     * case every file is processed.
+     *
+     * @param fileStates
+     * @throws IOException
+     */
+    public void loadFileStates(FileStateIndex fileStates) throws IOException {
+        //no-op
+    }
+
+    /**
+     * Callback for {@link #forEachResult(ResultConsumer)}.
+     */
+    public interface ResultConsumer {
+        void accept(String relPath, FileProcessResult result) throws IOException;
+    }
+
+    /**
+     * Reads back the results in this writer's existing output, e.g. to merge
+     * the shards of a partitioned run with {@link ShardMerger}.  For writers
+     * that overwrite their output, this has to be built with resume or incremental
+     * set, so that the existing output is kept.
+     *
+     * @param consumer
+     * @throws IOException
+     * @throws UnsupportedOperationException if this writer can't read its output
+     */
+    public void forEachResult(ResultConsumer consumer) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't read its output");
+    }
+
+    /**
+     * @param incremental if <code>true</code>, rows for paths that are already
+     *                    in the output replace the earlier rows (where the output
+     *                    supports that)
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    protected boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setCompletionJournal(CompletionJournal completionJournal) {
+        this.completionJournal = completionJournal;
+    }
+
+    public void setMetrics(BatchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return number of rows waiting to be written
+     */
+    public int getQueueDepth() {
+        return rows.size();
+    }
+
     public int getMaxStdoutBuffer() {
         return maxStdoutBuffer;
     }
@@ -69,6 +181,9 @@ public abstract class MetadataWriter implements Callable<Integer> {
     }
 
     public void write(String relPath, FileProcessResult result) throws IOException {
+        if (metrics != null) {
+            metrics.recordResult(result);
+        }
         try {
             boolean offered = rows.offer(new PathResultPair(relPath, result), MAX_POLL_SECONDS, TimeUnit.SECONDS);
             if (!offered) {
@@ -95,21 +210,137 @@ public abstract class MetadataWriter implements Callable<Integer> {
 
     @Override
     public Integer call() throws IOException, TimeoutException, InterruptedException {
+        List<PathResultPair> batch = new ArrayList<>();
+        //rows drained from the queue that haven't made it into a batch yet
+        ArrayDeque<PathResultPair> drained = new ArrayDeque<>();
         while (true) {
-            PathResultPair pair = rows.poll(MAX_POLL_SECONDS, TimeUnit.SECONDS);
+            PathResultPair pair = drained.poll();
+            if (pair == null) {
+                pair = rows.poll(MAX_POLL_SECONDS, TimeUnit.SECONDS);
+            }
             if (pair == null) {
                 throw new TimeoutException("waited longer than " + MAX_POLL_SECONDS
                         + " seconds");
             }
+            //fill the batch until it hits the max count, max bytes or max latency,
+            //whichever comes first
+            long batchStart = System.currentTimeMillis();
+            long bytes = 0;
+            while (pair != null && pair != POISON) {
+                batch.add(pair);
+                bytes += estimateBytes(pair);
+                if (batch.size() >= maxBatchSize || bytes >= maxBatchBytes) {
+                    break;
+                }
+                if (drained.isEmpty()) {
+                    rows.drainTo(drained, maxBatchSize - batch.size());
+                }
+                pair = drained.poll();
+                if (pair == null) {
+                    long wait = maxBatchLatencyMillis - (System.currentTimeMillis() - batchStart);
+                    pair = wait > 0 ? rows.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+            }
+            writeAndFlush(batch);
             if (pair == POISON) {
                 close();
+                if (completionJournal != null) {
+                    completionJournal.close();
+                }
                 return recordsWritten;
             }
-            write(pair);
-            if (++recordsWritten % 1000 == 0) {
-                System.out.println("processed " + recordsWritten + " records");
+        }
+    }
+
+    private void writeAndFlush(List<PathResultPair> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        writeBatch(batch);
+        flush();
+        if (metrics != null) {
+            metrics.recordWriterBatch(System.currentTimeMillis() - start, batch.size());
+        }
+        if (completionJournal != null) {
+            for (PathResultPair pair : batch) {
+                completionJournal.append(pair.getRelPath());
             }
+            completionJournal.flush();
         }
+        int before = recordsWritten;
+        recordsWritten += batch.size();
+        if (recordsWritten / REPORT_EVERY > before / REPORT_EVERY) {
+            System.out.println("processed " + recordsWritten + " records");
+        }
+        batch.clear();
+    }
+
+    /**
+     * @param s attempt times joined with ';'
+     * @return the attempt times or <code>null</code> if s is empty or null
+     */
+    protected static long[] splitAttemptTimes(String s) {
+        if (s == null || s.isEmpty()) {
+            return null;
+        }
+        String[] parts = s.split(";");
+        long[] times = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            times[i] = Long.parseLong(parts[i]);
+        }
+        return times;
+    }
+
+    /**
+     * @return the attempt times joined with ';', e.g. 30004;60011, or an empty string
+     */
+    protected static String joinAttemptTimes(FileProcessResult result) {
+        long[] times = result.getAttemptTimesMillis();
+        if (times == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times.length; i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            sb.append(times[i]);
+        }
+        return sb.toString();
+    }
+
+    private static long estimateBytes(PathResultPair pair) {
+        FileProcessResult result = pair.getResult();
+        long bytes = pair.getRelPath().length();
+        if (result.getStdout() != null) {
+            bytes += result.getStdout().length();
+        }
+        if (result.getStderr() != null) {
+            bytes += result.getStderr().length();
+        }
+        return bytes;
+    }
+
+    /**
+     * @param maxBatchSize maximum number of rows per batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchBytes flush a batch once its (approximate) size in bytes reaches this
+     */
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @param maxBatchLatencyMillis flush a batch no later than this long after its first row arrived
+     */
+    public void setMaxBatchLatencyMillis(long maxBatchLatencyMillis) {
+        this.maxBatchLatencyMillis = maxBatchLatencyMillis;
     }
 
     public int getRecordsWritten() {
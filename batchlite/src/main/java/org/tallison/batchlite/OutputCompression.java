@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression for the output of a {@link FileToFileProcessor}.
+ */
+public enum OutputCompression {
+
+    NONE(""),
+    GZIP(".gz"),
+    ZSTD(".zst");
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final String extension;
+
+    OutputCompression(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return file extension for compressed output, e.g. ".gz", or an empty string
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param os
+     * @return a stream that compresses what is written to it into os;
+     * closing it closes os
+     * @throws IOException
+     */
+    public OutputStream wrap(OutputStream os) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(os, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdOutputStream(os);
+            default:
+                return os;
+        }
+    }
+
+    /**
+     * @param s none, gzip or zstd (case insensitive)
+     * @return
+     */
+    public static OutputCompression parse(String s) {
+        try {
+            return valueOf(s.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("output compression must be one of none, gzip or zstd: " + s);
+        }
+    }
+}
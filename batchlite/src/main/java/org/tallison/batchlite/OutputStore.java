@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Where a {@link FileToFileProcessor} puts its output.  This default
+ * mirrors the input tree under the output root, e.g. output/a/b.pdf.json,
+ * compressing each output file if there is an {@link OutputCompression}.
+ * <p>
+ * An output goes through up to three steps, each keyed by the relative
+ * path plus the processor's extension:
+ * <ol>
+ *     <li>it is written either raw, by the tool, to {@link #getRawPath(String)},
+ *     or compressed, by streaming the tool's stdout to {@link #openStored(String)}</li>
+ *     <li>{@link #finish(String)} compresses the raw output, if there is any</li>
+ *     <li>{@link #commit(String, Path)} adds the compressed output to the store</li>
+ * </ol>
+ * When there's no compression, the tool writes straight to the final location
+ * and the last two steps do nothing.
+ */
+public class OutputStore implements Closeable {
+
+    protected final Path outputRoot;
+    protected final OutputCompression compression;
+
+    public OutputStore(Path outputRoot, OutputCompression compression) {
+        this.outputRoot = outputRoot;
+        this.compression = compression;
+    }
+
+    public Path getOutputRoot() {
+        return outputRoot;
+    }
+
+    public OutputCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return <code>true</code> if the raw output is already the final output,
+     * i.e. there is nothing to compress or move
+     */
+    public boolean isDirect() {
+        return compression == OutputCompression.NONE;
+    }
+
+    /**
+     * @param key relative path plus extension
+     * @return where a tool should write its raw output
+     */
+    public Path getRawPath(String key) {
+        return outputRoot.resolve(key);
+    }
+
+    /**
+     * @param key relative path plus extension
+     * @return where the compressed output goes before it is committed
+     */
+    public Path getStoredPath(String key) {
+        return outputRoot.resolve(key + compression.getExtension());
+    }
+
+    /**
+     * @param key relative path plus extension
+     * @return stream that compresses the raw output as it is written; it has
+     * to be closed before {@link #finish(String)}
+     * @throws IOException
+     */
+    public OutputStream openStored(String key) throws IOException {
+        Path stored = getStoredPath(key);
+        AbstractDirectoryProcessor.createParent(stored);
+        return compression.wrap(Files.newOutputStream(stored));
+    }
+
+    /**
+     * Compresses the raw output, if the tool wrote one, and deletes it.
+     *
+     * @param key relative path plus extension
+     * @return the stored output or <code>null</code> if there isn't any
+     * @throws IOException
+     */
+    public Path finish(String key) throws IOException {
+        Path raw = getRawPath(key);
+        Path stored = getStoredPath(key);
+        if (! raw.equals(stored) && Files.isRegularFile(raw)) {
+            AbstractDirectoryProcessor.createParent(stored);
+            if (compression == OutputCompression.NONE) {
+                Files.move(raw, stored, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (OutputStream os = compression.wrap(Files.newOutputStream(stored))) {
+                    Files.copy(raw, os);
+                }
+                Files.delete(raw);
+            }
+        }
+        return Files.isRegularFile(stored) ? stored : null;
+    }
+
+    /**
+     * Adds the stored output to the store.  In this implementation, it's
+     * already in place.
+     *
+     * @param key relative path plus extension
+     * @param stored the stored output from {@link #finish(String)}
+     * @throws IOException
+     */
+    public void commit(String key, Path stored) throws IOException {
+        //no-op
+    }
+
+    @Override
+    public void close() throws IOException {
+        //no-op
+    }
+}
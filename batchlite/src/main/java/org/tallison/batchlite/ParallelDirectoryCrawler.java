@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawls with a fork/join pool, one task per directory, so that
+ * listing directories on a slow (e.g. network) filesystem can
+ * happen in parallel.
+ * <p>
+ * As with {@link Files#walkFileTree}, symbolic links are not followed.
+ * Unreadable directories are skipped.
+ */
+class ParallelDirectoryCrawler extends PathCrawler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelDirectoryCrawler.class);
+
+    private final int crawlThreads;
+
+    ParallelDirectoryCrawler(Path rootDir, ArrayBlockingQueue<Path> queue,
+                             CompletedPathSet completed, int maxFiles, int numPoison,
+                             int crawlThreads) {
+        super(rootDir, queue, completed, maxFiles, numPoison);
+        this.crawlThreads = crawlThreads;
+    }
+
+    @Override
+    protected void crawl() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(crawlThreads);
+        try {
+            pool.invoke(new DirectoryTask(rootDir));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        DirectoryTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path p : stream) {
+                    if (isStopped()) {
+                        break;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(p);
+                        task.fork();
+                        subdirs.add(task);
+                    } else if (! add(p, attrs)) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("couldn't list " + dir, e);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (DirectoryTask task : subdirs) {
+                task.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.nio.file.Path;
+
+/**
+ * One of N partitions of the input, for running the same job on several
+ * machines without a coordinator.  A path belongs to partition
+ * <code>fingerprint(relPath) mod N</code>, see {@link CompletedPathSet#fingerprint(String)},
+ * which doesn't depend on the machine or the jvm.
+ * <p>
+ * Each node writes its own shard of the output, named with {@link #getSuffix()};
+ * {@link ShardMerger} combines the shards.
+ */
+public class Partition {
+
+    private final int index;
+    private final int count;
+
+    public Partition(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("partition must be i/N with 0 <= i < N: " +
+                    index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param s e.g. 2/8 for the third of eight partitions
+     * @return
+     */
+    public static Partition parse(String s) {
+        int slash = s.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("partition must be i/N: " + s);
+        }
+        try {
+            return new Partition(Integer.parseInt(s.substring(0, slash).trim()),
+                    Integer.parseInt(s.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("partition must be i/N: " + s);
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param relPath
+     * @return <code>true</code> if this partition should process relPath
+     */
+    public boolean contains(String relPath) {
+        return Long.remainderUnsigned(CompletedPathSet.fingerprint(relPath), count) == index;
+    }
+
+    /**
+     * @return suffix for this partition's outputs, e.g. -part-2-of-8
+     */
+    public String getSuffix() {
+        return "-part-" + index + "-of-" + count;
+    }
+
+    /**
+     * @param path e.g. metrics.csv
+     * @return the path with the suffix before the extension, e.g. metrics-part-2-of-8.csv
+     */
+    public Path shard(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot) + getSuffix() + name.substring(dot);
+        } else {
+            name = name + getSuffix();
+        }
+        return path.resolveSibling(name);
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for the crawlers that feed the processors' queue.  Whatever
+ * the source of the paths, {@link #add(Path, BasicFileAttributes)} applies the same rules:
+ * hidden files are skipped, paths completed by a previous run are skipped,
+ * and the crawl stops after maxFiles have been added.
+ * <p>
+ * In an incremental run, files whose size and last modified time haven't
+ * changed since the previous run are skipped, and, once a complete crawl of
+ * the directory is done, the files from the previous run that weren't found
+ * are written to the metadata writer as removed.
+ * <p>
+ * If the input is partitioned, only the paths in this node's partition are added.
+ * <p>
+ * If there is a large file lane, files of at least largeFileBytes go to
+ * the large file queue instead.  The crawler never waits on the large file
+ * queue: if it's full, the path is held until there's room, so that a
+ * backlog of large files can't starve the regular processors.  The held
+ * paths are kept in memory, which is fine as long as large files are
+ * a small part of the input.
+ * <p>
+ * When {@link #crawl()} returns, this adds POISON for each processor.
+ */
+abstract class PathCrawler implements Callable<Integer> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PathCrawler.class);
+
+    private static final long TIMEOUT_MILLIS = 720000;
+
+    protected final Path rootDir;
+    private final ArrayBlockingQueue<Path> queue;
+    private final CompletedPathSet completed;
+    private final int maxFiles;
+    private final int numPoison;
+    private ArrayBlockingQueue<Path> largeQueue = null;
+    private long largeFileBytes = -1;
+    private int numLargePoison = 0;
+    private FileStateIndex fileStates = null;
+    private MetadataWriter metadataWriter = null;
+    private Partition partition = null;
+    //large files that didn't fit in the large queue, in crawl order
+    private final ConcurrentLinkedQueue<Path> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger added = new AtomicInteger();
+    private volatile boolean stopped = false;
+    private volatile boolean finished = false;
+
+    PathCrawler(Path rootDir, ArrayBlockingQueue<Path> queue,
+                CompletedPathSet completed, int maxFiles, int numPoison) {
+        this.rootDir = rootDir;
+        this.queue = queue;
+        this.completed = completed;
+        this.maxFiles = maxFiles;
+        this.numPoison = numPoison;
+    }
+
+    /**
+     * @param largeQueue     queue for the large file processors
+     * @param largeFileBytes files at least this large go to the large queue
+     * @param numLargePoison number of large file processors
+     */
+    void setLargeFileLane(ArrayBlockingQueue<Path> largeQueue, long largeFileBytes,
+                          int numLargePoison) {
+        this.largeQueue = largeQueue;
+        this.largeFileBytes = largeFileBytes;
+        this.numLargePoison = numLargePoison;
+    }
+
+    /**
+     * @param fileStates     file states from the previous run
+     * @param metadataWriter writer for the removed files, or <code>null</code>
+     *                       if this crawler can't tell that a file has been removed
+     */
+    void setIncremental(FileStateIndex fileStates, MetadataWriter metadataWriter) {
+        this.fileStates = fileStates;
+        this.metadataWriter = metadataWriter;
+    }
+
+    /**
+     * @param partition only add the paths in this partition, may be <code>null</code>
+     */
+    void setPartition(Partition partition) {
+        this.partition = partition;
+    }
+
+    /**
+     * Calls {@link #add(Path, BasicFileAttributes)} for each candidate file until there are no
+     * more or until {@link #add(Path, BasicFileAttributes)} returns <code>false</code>.
+     */
+    protected abstract void crawl() throws Exception;
+
+    @Override
+    public Integer call() throws Exception {
+        try {
+            crawl();
+
+            if (fileStates != null && metadataWriter != null && ! stopped) {
+                writeRemoved();
+            }
+            //if the processors have all died, nothing takes from the queues, so don't wait forever
+            for (int i = 0; i < numPoison; i++) {
+                offer(queue, AbstractDirectoryProcessor.POISON);
+            }
+            Path p = deferred.poll();
+            while (p != null) {
+                offer(largeQueue, p);
+                p = deferred.poll();
+            }
+            for (int i = 0; i < numLargePoison; i++) {
+                offer(largeQueue, AbstractDirectoryProcessor.POISON);
+            }
+        } finally {
+            finished = true;
+        }
+        return 2;
+    }
+
+    /**
+     * @return <code>true</code> once this has stopped adding paths, including poison,
+     * whether it completed or failed
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    private void writeRemoved() throws IOException {
+        int[] removed = new int[1];
+        fileStates.forEachRemoved(relPath -> {
+            FileProcessResult result = new FileProcessResult();
+            result.setRemoved(true);
+            try {
+                metadataWriter.write(relPath, result);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            removed[0]++;
+        });
+        LOGGER.info("marked " + removed[0] + " files as removed");
+    }
+
+    /**
+     * This is safe to call from multiple threads.
+     *
+     * @param path absolute path to a file
+     * @param attrs the file's attributes or <code>null</code> if they haven't been read
+     * @return <code>false</code> if the crawl should stop (maxFiles has been reached)
+     * @throws InterruptedException
+     */
+    protected boolean add(Path path, BasicFileAttributes attrs) throws InterruptedException {
+        if (stopped) {
+            return false;
+        }
+        Path fileName = path.getFileName();
+        if (fileName == null || fileName.toString().startsWith(".")) {
+            //skip hidden files
+            return true;
+        }
+        String relPath = rootDir.relativize(path).toString();
+        if (partition != null && ! partition.contains(relPath)) {
+            //another node's file
+            return true;
+        }
+        //this has to come before the completed check, or a file that a
+        //resumed run skips would be marked as removed
+        if (fileStates != null) {
+            if (attrs == null) {
+                attrs = readAttributes(path);
+            }
+            long size = attrs == null ? -1 : attrs.size();
+            long lastModified = attrs == null ? -1 : attrs.lastModifiedTime().toMillis();
+            if (fileStates.seen(relPath, size, lastModified)) {
+                //unchanged since the previous run
+                return true;
+            }
+        }
+        if (! completed.isEmpty() && completed.contains(relPath)) {
+            //finished in a previous run
+            return true;
+        }
+        if (maxFiles > -1 && added.incrementAndGet() > maxFiles) {
+            stopped = true;
+            return false;
+        }
+        if (largeQueue != null) {
+            handOffDeferred();
+            if (attrs == null) {
+                attrs = readAttributes(path);
+            }
+            //if we can't read the size, let a regular processor record the problem
+            if (attrs != null && attrs.size() >= largeFileBytes) {
+                addLarge(path);
+                return true;
+            }
+        }
+        offer(queue, path);
+        return true;
+    }
+
+    private void addLarge(Path path) {
+        synchronized (deferred) {
+            handOffDeferred();
+            if (! deferred.isEmpty() || ! largeQueue.offer(path)) {
+                deferred.add(path);
+            }
+        }
+    }
+
+    /**
+     * Moves as many of the held large files to the large queue as will fit.
+     */
+    private void handOffDeferred() {
+        if (deferred.isEmpty()) {
+            return;
+        }
+        synchronized (deferred) {
+            Path p = deferred.peek();
+            while (p != null && largeQueue.offer(p)) {
+                deferred.poll();
+                p = deferred.peek();
+            }
+        }
+    }
+
+    /**
+     * Waits up to {@link #TIMEOUT_MILLIS} for room in the queue.  This may be
+     * called from a fork/join pool ({@link ParallelDirectoryCrawler}), so the
+     * wait is a managed block, which lets the pool start a spare thread
+     * instead of losing a worker to a full queue.
+     *
+     * @throws RuntimeException if the queue stays full
+     */
+    private static void offer(ArrayBlockingQueue<Path> queue, Path path) throws InterruptedException {
+        QueueOffer queueOffer = new QueueOffer(queue, path);
+        ForkJoinPool.managedBlock(queueOffer);
+        if (! queueOffer.offered) {
+            throw new RuntimeException("file adder timed out");
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    protected boolean isStopped() {
+        return stopped;
+    }
+
+    private static class QueueOffer implements ForkJoinPool.ManagedBlocker {
+        private final ArrayBlockingQueue<Path> queue;
+        private final Path path;
+        private boolean offered = false;
+        private boolean done = false;
+
+        QueueOffer(ArrayBlockingQueue<Path> queue, Path path) {
+            this.queue = queue;
+            this.path = path;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (! done) {
+                offered = queue.offer(path, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (! done && queue.offer(path)) {
+                offered = true;
+                done = true;
+            }
+            return done;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Like {@link CommandlineFileProcessor}, but each processor thread keeps
+ * a single long-lived child process and sends it one request per file.
+ * See {@link WorkerProcess} for the request/response protocol the child
+ * has to speak.
+ */
+public abstract class PooledCommandlineFileProcessor extends FileProcessor {
+
+    private static final int DEFAULT_MAX_REQUESTS_PER_WORKER = 10000;
+
+    private int maxRequestsPerWorker = DEFAULT_MAX_REQUESTS_PER_WORKER;
+    private WorkerProcess worker = null;
+
+    public PooledCommandlineFileProcessor(ArrayBlockingQueue<Path> queue,
+                                          Path srcRoot,
+                                          MetadataWriter metadataWriter) {
+        super(queue, srcRoot, metadataWriter);
+    }
+
+    @Override
+    protected void process(String relPath,
+                           Path srcPath, MetadataWriter metadataWriter) throws IOException {
+        if (worker == null) {
+            worker = new WorkerProcess(applyLimits(getWorkerCommandLine()), maxRequestsPerWorker);
+        }
+        FileProcessResult r = worker.execute(getRequest(srcPath),
+                getFileTimeoutMillis(), metadataWriter.getMaxStdoutBuffer(),
+                metadataWriter.getMaxStderrBuffer());
+        writeResult(relPath, r);
+    }
+
+    @Override
+    protected void close() throws IOException {
+        if (worker != null) {
+            worker.close();
+        }
+    }
+
+    /**
+     * @param maxRequestsPerWorker restart the child after this many requests; -1 for no limit
+     */
+    public void setMaxRequestsPerWorker(int maxRequestsPerWorker) {
+        this.maxRequestsPerWorker = maxRequestsPerWorker;
+    }
+
+    /**
+     * @return the commandline to start the long-lived child process
+     */
+    protected abstract String[] getWorkerCommandLine();
+
+    /**
+     * @param srcPath
+     * @return the single line request for this file; the absolute path by default
+     */
+    protected String getRequest(Path srcPath) {
+        return srcPath.toAbsolutePath().toString();
+    }
+}
@@ -17,14 +17,19 @@
 package org.tallison.batchlite;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class ProcessExecutor {
 
-    private static final String EMPTY = "";
+    //once the child has exited or been killed, its pipes normally close right away.
+    //If a grandchild is still holding them open, this is how long the drainers
+    //get (beyond the file's timeout) before the streams are closed.
+    private static final long ORPHANED_PIPE_GRACE_MILLIS = 1000;
 
     /**
      * This writes stdout and stderr to the FileProcessResult.
@@ -40,16 +45,14 @@ public class ProcessExecutor {
                                             long timeoutMillis,
                                             int maxStdoutBuffer, int maxStdErrBuffer) throws IOException {
         Process p = pb.start();
+        ProcessMonitor.Watch watch = ProcessMonitor.watch(p);
         long elapsed = -1;
         long start = System.currentTimeMillis();
         StreamEater outGobbler = new StreamEater(p.getInputStream(), maxStdoutBuffer);
         StreamEater errGobbler = new StreamEater(p.getErrorStream(), maxStdErrBuffer);
 
-        Thread outThread = new Thread(outGobbler);
-        outThread.start();
-
-        Thread errThread = new Thread(errGobbler);
-        errThread.start();
+        Future<?> outDrain = StreamDrainer.drain(outGobbler);
+        Future<?> errDrain = StreamDrainer.drain(errGobbler);
         int exitValue = -1;
         boolean complete = false;
         try {
@@ -57,24 +60,30 @@ public class ProcessExecutor {
             elapsed = System.currentTimeMillis() - start;
             if (complete) {
                 exitValue = p.exitValue();
-                outThread.join(1000);
-                errThread.join(1000);
             } else {
-                p.destroyForcibly();
-                outThread.join(1000);
-                errThread.join(1000);
+                p.destroyForcibly().waitFor();
             }
+            long drainDeadline = getDrainDeadline(start, timeoutMillis);
+            StreamDrainer.await(outDrain, p.getInputStream(), drainDeadline);
+            StreamDrainer.await(errDrain, p.getErrorStream(), drainDeadline);
         } catch (InterruptedException e) {
+            p.destroyForcibly();
+            StreamDrainer.cancel(outDrain, p.getInputStream());
+            StreamDrainer.cancel(errDrain, p.getErrorStream());
             exitValue = -1000;
         }
         FileProcessResult result = new FileProcessResult();
+        ProcessStats stats = watch.stop();
+        if (stats != null) {
+            stats.apply(result);
+        }
         result.processTimeMillis = elapsed;
         result.stderrLength = errGobbler.getStreamLength();
         result.stdoutLength = outGobbler.getStreamLength();
         result.isTimeout = ! complete;
         result.exitValue = exitValue;
-        result.stdout = joinWith("\n", outGobbler.getLines());
-        result.stderr = joinWith("\n", errGobbler.getLines());
+        result.stdout = outGobbler.getContent();
+        result.stderr = errGobbler.getContent();
         result.stdoutTruncated = outGobbler.getIsTruncated();
         result.stderrTruncated = errGobbler.getIsTruncated();
         return result;
@@ -100,12 +109,12 @@ public class ProcessExecutor {
 
         pb.redirectOutput(stdoutRedirect.toFile());
         Process p = pb.start();
+        ProcessMonitor.Watch watch = ProcessMonitor.watch(p);
         long elapsed = -1;
         long start = System.currentTimeMillis();
         StreamEater errGobbler = new StreamEater(p.getErrorStream(), maxStdErrBuffer);
 
-        Thread errThread = new Thread(errGobbler);
-        errThread.start();
+        Future<?> errDrain = StreamDrainer.drain(errGobbler);
         int exitValue = -1;
         boolean complete = false;
         try {
@@ -113,40 +122,157 @@ public class ProcessExecutor {
             elapsed = System.currentTimeMillis() - start;
             if (complete) {
                 exitValue = p.exitValue();
-                errThread.join(1000);
             } else {
-                p.destroyForcibly();
-                errThread.join(1000);
+                p.destroyForcibly().waitFor();
             }
+            StreamDrainer.await(errDrain, p.getErrorStream(),
+                    getDrainDeadline(start, timeoutMillis));
         } catch (InterruptedException e) {
+            p.destroyForcibly();
+            StreamDrainer.cancel(errDrain, p.getErrorStream());
             exitValue = -1000;
         }
         FileProcessResult result = new FileProcessResult();
+        ProcessStats stats = watch.stop();
+        if (stats != null) {
+            stats.apply(result);
+        }
         result.processTimeMillis = elapsed;
         result.stderrLength = errGobbler.getStreamLength();
         result.stdoutLength = Files.size(stdoutRedirect);
         result.isTimeout = ! complete;
         result.exitValue = exitValue;
         result.stdout = "";
-        result.stderr = joinWith("\n", errGobbler.getLines());
+        result.stderr = errGobbler.getContent();
+        result.stdoutTruncated = false;
+        result.stderrTruncated = errGobbler.getIsTruncated();
+        return result;
+
+    }
+
+    /**
+     * This copies stdout to a stream, e.g. to compress it as it is written.
+     * The stream is not closed, but nothing is written to it after this returns,
+     * even if a grandchild is still holding stdout open, so the caller can
+     * close it.
+     *
+     * @param pb
+     * @param timeoutMillis
+     * @param stdout
+     * @param maxStdErrBuffer
+     * @return
+     * @throws IOException if the child can't be started or if writing to stdout fails
+     */
+    public static FileProcessResult execute(ProcessBuilder pb,
+                                            long timeoutMillis,
+                                            OutputStream stdout, int maxStdErrBuffer) throws IOException {
+        Process p = pb.start();
+        ProcessMonitor.Watch watch = ProcessMonitor.watch(p);
+        long elapsed = -1;
+        long start = System.currentTimeMillis();
+        StreamCopier outCopier = new StreamCopier(p.getInputStream(), stdout);
+        StreamEater errGobbler = new StreamEater(p.getErrorStream(), maxStdErrBuffer);
+
+        Future<?> outDrain = StreamDrainer.drain(outCopier);
+        Future<?> errDrain = StreamDrainer.drain(errGobbler);
+        int exitValue = -1;
+        boolean complete = false;
+        try {
+            complete = p.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            elapsed = System.currentTimeMillis() - start;
+            if (complete) {
+                exitValue = p.exitValue();
+            } else {
+                p.destroyForcibly().waitFor();
+            }
+            long drainDeadline = getDrainDeadline(start, timeoutMillis);
+            StreamDrainer.await(outDrain, p.getInputStream(), drainDeadline);
+            StreamDrainer.await(errDrain, p.getErrorStream(), drainDeadline);
+        } catch (InterruptedException e) {
+            p.destroyForcibly();
+            StreamDrainer.cancel(outDrain, p.getInputStream());
+            StreamDrainer.cancel(errDrain, p.getErrorStream());
+            exitValue = -1000;
+        }
+        //the copier may still be reading if it didn't reach EOF by the deadline
+        outCopier.stop();
+        ProcessStats stats = watch.stop();
+        if (outCopier.exception != null) {
+            throw outCopier.exception;
+        }
+        FileProcessResult result = new FileProcessResult();
+        if (stats != null) {
+            stats.apply(result);
+        }
+        result.processTimeMillis = elapsed;
+        result.stderrLength = errGobbler.getStreamLength();
+        result.stdoutLength = outCopier.length;
+        result.isTimeout = ! complete;
+        result.exitValue = exitValue;
+        result.stdout = "";
+        result.stderr = errGobbler.getContent();
         result.stdoutTruncated = false;
         result.stderrTruncated = errGobbler.getIsTruncated();
         return result;
+    }
 
+    private static long getDrainDeadline(long start, long timeoutMillis) {
+        return Math.max(start + timeoutMillis,
+                System.currentTimeMillis() + ORPHANED_PIPE_GRACE_MILLIS);
     }
 
-    private static String joinWith(String delimiter, List<String> lines) {
-        if (lines.size() == 0) {
-            return EMPTY;
+    /**
+     * Copies a stream to another.  If writing fails or once {@link #stop()} has
+     * been called, this keeps reading so that the child doesn't block on a full pipe,
+     * but it doesn't write.
+     */
+    private static class StreamCopier implements Runnable {
+
+        private static final int READ_BUFFER_SIZE = 8192;
+
+        private final InputStream is;
+        private final OutputStream os;
+        private volatile long length = 0;
+        private volatile IOException exception = null;
+        //guarded by this
+        private boolean stopped = false;
+
+        StreamCopier(InputStream is, OutputStream os) {
+            this.is = is;
+            this.os = os;
         }
-        int i = 0;
-        StringBuilder sb = new StringBuilder();
-        for (String line : lines) {
-            if (i++ > 0) {
-                sb.append(delimiter);
+
+        @Override
+        public void run() {
+            byte[] bytes = new byte[READ_BUFFER_SIZE];
+            try (InputStream stream = is) {
+                int r = stream.read(bytes);
+                while (r > -1) {
+                    write(bytes, r);
+                    length += r;
+                    r = stream.read(bytes);
+                }
+            } catch (IOException e) {
+                //the child's end of the pipe was closed
+            }
+        }
+
+        private synchronized void write(byte[] bytes, int len) {
+            if (stopped || exception != null) {
+                return;
             }
-            sb.append(line);
+            try {
+                os.write(bytes, 0, len);
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+
+        /**
+         * Waits for a write in progress, if any; nothing is written after this returns.
+         */
+        synchronized void stop() {
+            stopped = true;
         }
-        return sb.toString();
     }
 }
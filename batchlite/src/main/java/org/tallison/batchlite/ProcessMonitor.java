@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the {@link ProcessStats} of running child processes on a single
+ * shared daemon thread.
+ * <p>
+ * Once a child has exited and been reaped, its stats are gone, so the
+ * stats for a child are from the last sample before it exited.  The cpu time
+ * and I/O of the last interval are missed, and children that exit before
+ * the first sample have no stats (-1).
+ */
+class ProcessMonitor {
+
+    private static final long SAMPLE_MILLIS = 100;
+
+    private static final Set<Watch> WATCHES = ConcurrentHashMap.newKeySet();
+
+    private static final ScheduledExecutorService SAMPLER = ProcessStats.isAvailable() ?
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "batchlite-process-monitor");
+                t.setDaemon(true);
+                return t;
+            }) : null;
+
+    static {
+        if (SAMPLER != null) {
+            SAMPLER.scheduleWithFixedDelay(() -> {
+                for (Watch watch : WATCHES) {
+                    watch.sample();
+                }
+            }, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static class Watch {
+        private final long pid;
+        private volatile ProcessStats last = null;
+
+        private Watch(long pid) {
+            this.pid = pid;
+        }
+
+        private void sample() {
+            ProcessStats stats = ProcessStats.read(pid);
+            if (stats != null) {
+                last = stats;
+            }
+        }
+
+        /**
+         * Stops sampling.
+         *
+         * @return the last sample or <code>null</code> if there wasn't one
+         */
+        ProcessStats stop() {
+            WATCHES.remove(this);
+            return last;
+        }
+    }
+
+    /**
+     * @param p a process that was just started
+     * @return a watch that has to be stopped when the process has exited
+     */
+    static Watch watch(Process p) {
+        Watch watch = new Watch(SAMPLER == null ? -1 : ProcessStats.getPid(p));
+        if (watch.pid > -1) {
+            WATCHES.add(watch);
+        }
+        return watch;
+    }
+}
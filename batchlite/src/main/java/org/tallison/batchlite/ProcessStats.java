@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU, memory and I/O usage of a child process, read from
+ * <code>/proc/&lt;pid&gt;</code> on Linux.
+ * <ul>
+ *     <li>user and system cpu time include the time of the child's children
+ *     that it has waited for (e.g. the command run by <code>sh -c</code>)</li>
+ *     <li>peak rss is the high water mark of the resident set (VmHWM)</li>
+ *     <li>bytes read and written are counted at the syscall level (rchar and wchar),
+ *     so they include reads that were served from the page cache</li>
+ * </ul>
+ * Anything that can't be read is -1; e.g. <code>/proc/&lt;pid&gt;/io</code> isn't
+ * readable if the child changed its uid, but the cpu time and rss still are.
+ */
+public class ProcessStats {
+
+    private static final Path PROC = Paths.get("/proc");
+    private static final boolean AVAILABLE = Files.isRegularFile(PROC.resolve("self").resolve("stat"));
+    //USER_HZ, if getconf can't tell us; this is 100 on all mainstream Linux builds
+    private static final long DEFAULT_CLOCK_TICKS = 100;
+    private static final long GETCONF_WAIT_MILLIS = 5000;
+
+    private final long userCpuMillis;
+    private final long systemCpuMillis;
+    private final long peakRssBytes;
+    private final long readBytes;
+    private final long writeBytes;
+
+    ProcessStats(long userCpuMillis, long systemCpuMillis, long peakRssBytes,
+                 long readBytes, long writeBytes) {
+        this.userCpuMillis = userCpuMillis;
+        this.systemCpuMillis = systemCpuMillis;
+        this.peakRssBytes = peakRssBytes;
+        this.readBytes = readBytes;
+        this.writeBytes = writeBytes;
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @param pid
+     * @return the current stats or <code>null</code> if they can't be read,
+     * e.g. the process has exited
+     */
+    public static ProcessStats read(long pid) {
+        if (! AVAILABLE || pid < 0) {
+            return null;
+        }
+        return read(PROC.resolve(Long.toString(pid)), ClockTicks.PER_SECOND);
+    }
+
+    /**
+     * @param dir /proc/&lt;pid&gt; or a copy of it
+     * @param clockTicks clock ticks per second, the unit of the cpu times in stat
+     * @return the stats or <code>null</code> if stat can't be read
+     */
+    static ProcessStats read(Path dir, long clockTicks) {
+        long[] cpuTicks;
+        try {
+            cpuTicks = parseStat(new String(Files.readAllBytes(dir.resolve("stat")),
+                    StandardCharsets.US_ASCII));
+        } catch (IOException | RuntimeException e) {
+            //e.g. the process has exited
+            return null;
+        }
+        long peakRss = -1;
+        try {
+            peakRss = parseStatus(Files.readAllLines(dir.resolve("status"), StandardCharsets.US_ASCII));
+        } catch (IOException | RuntimeException e) {
+            //fall through
+        }
+        long[] io = new long[]{-1, -1};
+        try {
+            io = parseIo(Files.readAllLines(dir.resolve("io"), StandardCharsets.US_ASCII));
+        } catch (IOException | RuntimeException e) {
+            //not readable if the child changed its uid
+        }
+        return new ProcessStats(cpuTicks[0] * 1000 / clockTicks, cpuTicks[1] * 1000 / clockTicks,
+                peakRss, io[0], io[1]);
+    }
+
+    /**
+     * @return user and system cpu time in clock ticks, each including waited-for children
+     */
+    static long[] parseStat(String stat) {
+        //the command name is in parentheses and may contain spaces
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+        //fields[0] is field 3 (state) in proc(5)
+        long user = Long.parseLong(fields[11]) + Long.parseLong(fields[13]);
+        long system = Long.parseLong(fields[12]) + Long.parseLong(fields[14]);
+        return new long[]{user, system};
+    }
+
+    /**
+     * @return peak rss in bytes or -1 if it isn't there (e.g. a zombie)
+     */
+    static long parseStatus(List<String> status) {
+        for (String line : status) {
+            if (line.startsWith("VmHWM:")) {
+                return parseKb(line);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return bytes read and written, -1 for either one if it isn't there
+     */
+    static long[] parseIo(List<String> io) {
+        long read = -1;
+        long written = -1;
+        for (String line : io) {
+            if (line.startsWith("rchar:")) {
+                read = Long.parseLong(line.substring(6).trim());
+            } else if (line.startsWith("wchar:")) {
+                written = Long.parseLong(line.substring(6).trim());
+            }
+        }
+        return new long[]{read, written};
+    }
+
+    /**
+     * Reads the clock tick rate once, on first use.
+     */
+    private static class ClockTicks {
+        private static final long PER_SECOND = getClockTicks();
+
+        private static long getClockTicks() {
+            try {
+                Process p = new ProcessBuilder("getconf", "CLK_TCK")
+                        .redirectErrorStream(true).start();
+                byte[] out = new byte[32];
+                int len = 0;
+                try (InputStream is = p.getInputStream()) {
+                    int r = is.read(out);
+                    while (r > -1 && len + r < out.length) {
+                        len += r;
+                        r = is.read(out, len, out.length - len);
+                    }
+                }
+                if (p.waitFor(GETCONF_WAIT_MILLIS, TimeUnit.MILLISECONDS) && p.exitValue() == 0) {
+                    long ticks = Long.parseLong(new String(out, 0, len, StandardCharsets.US_ASCII).trim());
+                    if (ticks > 0) {
+                        return ticks;
+                    }
+                }
+                p.destroyForcibly();
+            } catch (IOException | RuntimeException e) {
+                //fall through
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return DEFAULT_CLOCK_TICKS;
+        }
+    }
+
+    /**
+     * @param p
+     * @return the pid of the process or -1 if it can't be determined
+     */
+    public static long getPid(Process p) {
+        try {
+            //java 9+
+            Method pid = Process.class.getMethod("pid");
+            return (Long) pid.invoke(p);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //fall through
+        }
+        try {
+            //java 8 on unix
+            Field pid = p.getClass().getDeclaredField("pid");
+            pid.setAccessible(true);
+            return pid.getInt(p);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static long parseKb(String line) {
+        String v = line.substring(line.indexOf(':') + 1).trim();
+        int space = v.indexOf(' ');
+        if (space > -1) {
+            v = v.substring(0, space);
+        }
+        return Long.parseLong(v) * 1024;
+    }
+
+    /**
+     * @param before stats at the start of a request to a long-lived process
+     * @return the cpu time and I/O since before; peak rss is this process's peak
+     */
+    ProcessStats since(ProcessStats before) {
+        return new ProcessStats(userCpuMillis - before.userCpuMillis,
+                systemCpuMillis - before.systemCpuMillis, peakRssBytes,
+                readBytes < 0 || before.readBytes < 0 ? -1 : readBytes - before.readBytes,
+                writeBytes < 0 || before.writeBytes < 0 ? -1 : writeBytes - before.writeBytes);
+    }
+
+    /**
+     * Copies the stats into the result.
+     */
+    void apply(FileProcessResult result) {
+        result.userCpuMillis = userCpuMillis;
+        result.systemCpuMillis = systemCpuMillis;
+        result.peakRssBytes = peakRssBytes;
+        result.ioReadBytes = readBytes;
+        result.ioWriteBytes = writeBytes;
+    }
+
+    public long getUserCpuMillis() {
+        return userCpuMillis;
+    }
+
+    public long getSystemCpuMillis() {
+        return systemCpuMillis;
+    }
+
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    public long getWriteBytes() {
+        return writeBytes;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of results keyed by the sha-256 of a file's content, so that
+ * byte-identical files are only processed once -- within a run and across runs
+ * that share the cache directory.
+ * <p>
+ * Layout: <code>cacheDir/namespace/ab/abcdef.../result.json</code> and, for
+ * file-to-file processors, <code>.../output</code>.  The namespace should
+ * identify the tool and its options; results are only reused within a namespace.
+ * Entries are written to a temp directory and moved into place, so concurrent
+ * runs sharing a cache directory won't see partial entries.
+ * <p>
+ * The cache is evicted least-recently-used first once it is larger than maxBytes.
+ * Recency is tracked in memory and persisted as the entry directory's mtime,
+ * which is how the order is rebuilt when the cache is opened.
+ */
+public class ResultCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultCache.class);
+
+    private static final String RESULT_FILE = "result.json";
+    private static final String OUTPUT_FILE = "output";
+    private static final String TMP_PREFIX = "tmp-";
+    //a temp dir this old was left behind by a crash rather than
+    //being written by another run that shares the cache
+    private static final long TMP_MAX_AGE_MILLIS = 60L * 60 * 1000;
+    //digest the file in windows of this size so we don't map huge files at once
+    private static final long MAP_WINDOW_BYTES = 64L * 1024 * 1024;
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final Gson gson = new Gson();
+    //entry dir -> size in bytes, in access order
+    private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * Result and (optional) output file of a cache hit.
+     */
+    public static class Entry {
+        private final FileProcessResult result;
+        private final Path output;
+
+        private Entry(FileProcessResult result, Path output) {
+            this.result = result;
+            this.output = output;
+        }
+
+        public FileProcessResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return cached output file or <code>null</code> if there was none
+         */
+        public Path getOutput() {
+            return output;
+        }
+    }
+
+    public ResultCache(Path cacheDir, long maxBytes) throws IOException {
+        this.cacheDir = cacheDir.toAbsolutePath();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.cacheDir);
+        load();
+    }
+
+    /**
+     * Computes the hex sha-256 of a file's content, reading it through
+     * memory-mapped windows.
+     */
+    public static String digest(Path file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += MAP_WINDOW_BYTES) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        pos, Math.min(MAP_WINDOW_BYTES, size - pos));
+                md.update(buffer);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param namespace e.g. the tool and its options
+     * @param digest    from {@link #digest(Path)}
+     * @return the cached entry or <code>null</code>
+     */
+    public Entry get(String namespace, String digest) throws IOException {
+        Path dir = getEntryDir(namespace, digest);
+        Path resultFile = dir.resolve(RESULT_FILE);
+        if (! Files.isRegularFile(resultFile)) {
+            return null;
+        }
+        FileProcessResult result;
+        try (Reader reader = Files.newBufferedReader(resultFile, StandardCharsets.UTF_8)) {
+            result = gson.fromJson(reader, FileProcessResult.class);
+        } catch (IOException | JsonParseException e) {
+            //e.g. evicted by another run while we were reading it
+            LOGGER.warn("couldn't read cached result " + resultFile, e);
+            return null;
+        }
+        if (result == null) {
+            return null;
+        }
+        Path output = dir.resolve(OUTPUT_FILE);
+        touch(dir);
+        return new Entry(result, Files.isRegularFile(output) ? output : null);
+    }
+
+    /**
+     * @param namespace e.g. the tool and its options
+     * @param digest    from {@link #digest(Path)}
+     * @param result    the result to cache
+     * @param output    output file to cache with the result, may be <code>null</code>
+     */
+    public void put(String namespace, String digest, FileProcessResult result,
+                    Path output) throws IOException {
+        Path dir = getEntryDir(namespace, digest);
+        if (Files.isDirectory(dir)) {
+            return;
+        }
+        Files.createDirectories(dir.getParent());
+        Path tmp = Files.createTempDirectory(dir.getParent(), TMP_PREFIX);
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp.resolve(RESULT_FILE), StandardCharsets.UTF_8)) {
+                gson.toJson(result, writer);
+            }
+            if (output != null && Files.isRegularFile(output)) {
+                Files.copy(output, tmp.resolve(OUTPUT_FILE));
+            }
+            long size = sizeOf(tmp);
+            try {
+                Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                //another thread or run got here first
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, dir);
+            } catch (IOException e) {
+                //a non-empty target dir is reported as DirectoryNotEmptyException on some platforms
+                if (Files.isDirectory(dir)) {
+                    return;
+                }
+                throw e;
+            }
+            added(dir, size);
+        } finally {
+            if (Files.isDirectory(tmp)) {
+                deleteEntry(tmp);
+            }
+        }
+    }
+
+    /**
+     * @return approximate number of bytes in the cache
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private Path getEntryDir(String namespace, String digest) {
+        return cacheDir.resolve(namespace).resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    private synchronized void touch(Path dir) {
+        Long size = entries.get(dir);
+        if (size == null) {
+            //added by another run that shares the cache
+            try {
+                size = sizeOf(dir);
+            } catch (IOException e) {
+                return;
+            }
+            entries.put(dir, size);
+            totalBytes += size;
+        }
+        try {
+            Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            //only matters for the order after a restart
+        }
+    }
+
+    private void added(Path dir, long size) {
+        List<Path> evicted;
+        synchronized (this) {
+            if (entries.put(dir, size) == null) {
+                totalBytes += size;
+            }
+            evicted = evict(dir);
+        }
+        for (Path p : evicted) {
+            deleteEntry(p);
+        }
+    }
+
+    /**
+     * Removes the least recently used entries from the index until the
+     * cache fits in maxBytes.
+     *
+     * @param keep entry not to evict, may be <code>null</code>
+     * @return the entry directories to delete
+     */
+    private synchronized List<Path> evict(Path keep) {
+        List<Path> evicted = new ArrayList<>();
+        Iterator<Map.Entry<Path, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Path, Long> e = it.next();
+            if (e.getKey().equals(keep)) {
+                continue;
+            }
+            totalBytes -= e.getValue();
+            evicted.add(e.getKey());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    /**
+     * Rebuilds the index from the entry directories, oldest first.
+     */
+    private void load() throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        long tmpCutoff = System.currentTimeMillis() - TMP_MAX_AGE_MILLIS;
+        try (DirectoryStream<Path> namespaces = Files.newDirectoryStream(cacheDir, Files::isDirectory)) {
+            for (Path namespace : namespaces) {
+                try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(namespace, Files::isDirectory)) {
+                    for (Path prefix : prefixes) {
+                        try (DirectoryStream<Path> digests = Files.newDirectoryStream(prefix, Files::isDirectory)) {
+                            for (Path d : digests) {
+                                if (d.getFileName().toString().startsWith(TMP_PREFIX)) {
+                                    if (Files.getLastModifiedTime(d).toMillis() < tmpCutoff) {
+                                        LOGGER.debug("deleting stale temp dir " + d);
+                                        deleteEntry(d);
+                                    }
+                                } else {
+                                    dirs.add(d);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Map<Path, Long> mtimes = new LinkedHashMap<>();
+        for (Path d : dirs) {
+            mtimes.put(d, Files.getLastModifiedTime(d).toMillis());
+        }
+        dirs.sort(Comparator.comparing(mtimes::get));
+        for (Path d : dirs) {
+            long size = sizeOf(d);
+            entries.put(d, size);
+            totalBytes += size;
+        }
+        for (Path p : evict(null)) {
+            deleteEntry(p);
+        }
+        LOGGER.info("opened result cache with " + entries.size() + " entries, " +
+                totalBytes + " bytes");
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                size += Files.size(f);
+            }
+        }
+        return size;
+    }
+
+    private static void deleteEntry(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> {
+                try {
+                    Files.deleteIfExists(f);
+                } catch (IOException e) {
+                    LOGGER.warn("couldn't delete " + f, e);
+                }
+            });
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            LOGGER.warn("couldn't delete " + dir, e);
+        }
+    }
+}
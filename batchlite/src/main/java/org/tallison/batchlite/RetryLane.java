@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+
+/**
+ * Deferred retries for files that timed out.  During the main pass, a timed
+ * out file is added here instead of being written.  Once a processor reaches
+ * the end of the main queue, it works on the retries, each with a timeout of
+ * fileTimeoutMillis * timeoutScale^(attempt-1), until every processor has
+ * finished the main pass and there are no retries left or in progress.
+ * The fileTimeoutMillis is that of the processor that first timed out on
+ * the file (e.g. a large file processor's), whichever processor retries it.
+ * <p>
+ * A file that times out on its last attempt is written with
+ * <code>isTimeout</code> set; every attempt's time is recorded in the result.
+ */
+public class RetryLane {
+
+    static class Item {
+        private final Path path;
+        private final int attempt;
+        private final long[] attemptTimesMillis;
+        private final long fileTimeoutMillis;
+
+        Item(Path path, int attempt, long[] attemptTimesMillis, long fileTimeoutMillis) {
+            this.path = path;
+            this.attempt = attempt;
+            this.attemptTimesMillis = attemptTimesMillis;
+            this.fileTimeoutMillis = fileTimeoutMillis;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the number of this attempt, starting from 1 for the main pass
+         */
+        int getAttempt() {
+            return attempt;
+        }
+
+        /**
+         * @return times of the earlier attempts
+         */
+        long[] getAttemptTimesMillis() {
+            return attemptTimesMillis;
+        }
+
+        /**
+         * @return the unscaled timeout of the processor that first timed out on this file
+         */
+        long getFileTimeoutMillis() {
+            return fileTimeoutMillis;
+        }
+    }
+
+    private final int maxAttempts;
+    private final double timeoutScale;
+    private final ArrayDeque<Item> queue = new ArrayDeque<>();
+    //processors that are still working on the main queue
+    private int activeMain;
+    //retries that have been taken but not finished; these may be re-added
+    private int inFlight = 0;
+
+    /**
+     * @param maxAttempts  total attempts per file, including the first
+     * @param timeoutScale multiply the timeout by this for each attempt
+     * @param processors   number of processors that share this lane
+     */
+    public RetryLane(int maxAttempts, double timeoutScale, int processors) {
+        this.maxAttempts = maxAttempts;
+        this.timeoutScale = timeoutScale;
+        this.activeMain = processors;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return timeout for the given attempt
+     */
+    long scaleTimeout(long fileTimeoutMillis, int attempt) {
+        if (attempt <= 1) {
+            return fileTimeoutMillis;
+        }
+        return (long) (fileTimeoutMillis * Math.pow(timeoutScale, attempt - 1));
+    }
+
+    synchronized void add(Item item) {
+        queue.add(item);
+        notifyAll();
+    }
+
+    /**
+     * Called once by each processor when it has finished the main queue.
+     */
+    synchronized void mainDone() {
+        activeMain--;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the next retry.  Each item returned has to be followed by
+     * a call to {@link #done()}.
+     *
+     * @return the next retry or <code>null</code> if there are none left
+     * @throws InterruptedException
+     */
+    synchronized Item take() throws InterruptedException {
+        while (queue.isEmpty()) {
+            if (activeMain == 0 && inFlight == 0) {
+                return null;
+            }
+            //woken by add(), mainDone() or done()
+            wait();
+        }
+        inFlight++;
+        return queue.poll();
+    }
+
+    synchronized void done() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized int size() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Packs the outputs into rolling segment files instead of writing
+ * millions of small files: output/segments/segment-00000.gz, ... and
+ * an index, output/segments/index.csv, with the key (relative path plus
+ * extension), segment, offset and length of each output.
+ * <p>
+ * Each output is compressed on its own (a gzip member or a zstd frame), so
+ * an output can be read by decompressing length bytes from offset, and
+ * the whole segment decompresses to the concatenated outputs.
+ * <p>
+ * A new run (or a resumed run) adds new segments after the existing ones and
+ * appends to the index; if a path appears more than once, the last entry wins.
+ * <p>
+ * Processors commit concurrently: each commit reserves its range of the
+ * current segment under a lock, copies outside of it with positional writes,
+ * and is added to the index once its bytes are written, so the index lines
+ * aren't necessarily in offset order.
+ */
+public class SegmentedOutputStore extends OutputStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentedOutputStore.class);
+
+    private static final String SEGMENT_DIR = "segments";
+    private static final String TMP_DIR = "tmp";
+    private static final String INDEX_FILE = "index.csv";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment-(\\d+)(\\..*)?");
+    private static final String[] INDEX_HEADER = new String[]{"key", "segment", "offset", "length"};
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    private final Path segmentDir;
+    private final Path tmpDir;
+    private final long maxSegmentBytes;
+    private final CSVPrinter index;
+    //guarded by this
+    private int segmentNumber;
+    private Segment segment = null;
+
+    /**
+     * @param outputRoot
+     * @param compression
+     * @param maxSegmentBytes start a new segment once a segment reaches this size
+     * @throws IOException
+     */
+    public SegmentedOutputStore(Path outputRoot, OutputCompression compression,
+                                long maxSegmentBytes) throws IOException {
+        this(outputRoot, compression, maxSegmentBytes, null);
+    }
+
+    /**
+     * @param outputRoot
+     * @param compression
+     * @param maxSegmentBytes start a new segment once a segment reaches this size
+     * @param partition if not <code>null</code>, this partition's segments and index
+     *                  go in their own directory, e.g. output/segments-part-2-of-8
+     * @throws IOException
+     */
+    public SegmentedOutputStore(Path outputRoot, OutputCompression compression,
+                                long maxSegmentBytes, Partition partition) throws IOException {
+        super(outputRoot, compression);
+        this.segmentDir = outputRoot.resolve(partition == null ? SEGMENT_DIR :
+                SEGMENT_DIR + partition.getSuffix());
+        this.tmpDir = segmentDir.resolve(TMP_DIR);
+        this.maxSegmentBytes = maxSegmentBytes;
+        Files.createDirectories(tmpDir);
+        this.segmentNumber = nextSegmentNumber(segmentDir);
+        Path indexFile = segmentDir.resolve(INDEX_FILE);
+        boolean exists = Files.isRegularFile(indexFile);
+        index = new CSVPrinter(Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), CSVFormat.EXCEL);
+        if (! exists) {
+            index.printRecord((Object[]) INDEX_HEADER);
+        }
+    }
+
+    @Override
+    public boolean isDirect() {
+        return false;
+    }
+
+    /**
+     * The raw output keeps the key's extension, e.g. for tools that pick
+     * the output format from the output file's name.
+     */
+    @Override
+    public Path getRawPath(String key) {
+        return tmpDir.resolve(tmpName(key) + getExtension(key));
+    }
+
+    @Override
+    public Path getStoredPath(String key) {
+        return tmpDir.resolve(tmpName(key) + getExtension(key) + ".stored");
+    }
+
+    /**
+     * Appends the stored output to the current segment and records it in the index.
+     */
+    @Override
+    public void commit(String key, Path stored) throws IOException {
+        long length = Files.size(stored);
+        Segment target;
+        long offset;
+        synchronized (this) {
+            if (segment == null || segment.reserved >= maxSegmentBytes) {
+                nextSegment();
+            }
+            target = segment;
+            offset = target.reserved;
+            target.reserved += length;
+            target.writers++;
+        }
+        boolean written = false;
+        try {
+            copy(stored, target.channel, offset, length);
+            written = true;
+        } finally {
+            synchronized (this) {
+                if (written) {
+                    index.printRecord(key, target.name, offset, length);
+                    index.flush();
+                }
+                target.writers--;
+                if (target != segment) {
+                    target.closeIfDone();
+                }
+            }
+        }
+        Files.delete(stored);
+    }
+
+    private static void copy(Path stored, FileChannel channel, long offset, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, Math.max(1, length)));
+        long position = offset;
+        try (InputStream is = Files.newInputStream(stored)) {
+            int r = is.read(buffer.array());
+            while (r > -1) {
+                buffer.limit(r);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                buffer.clear();
+                r = is.read(buffer.array());
+            }
+        }
+        if (position - offset != length) {
+            throw new IOException(stored + " changed while it was being committed");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (segment != null) {
+            segment.channel.close();
+            segment = null;
+        }
+        index.close();
+    }
+
+    private void nextSegment() throws IOException {
+        Segment previous = segment;
+        String name = String.format(Locale.US, "%s%05d%s", SEGMENT_PREFIX, segmentNumber++,
+                compression.getExtension());
+        segment = new Segment(name, FileChannel.open(segmentDir.resolve(name),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE));
+        if (previous != null) {
+            previous.closeIfDone();
+        }
+        LOGGER.debug("starting output segment " + name);
+    }
+
+    /**
+     * A segment file and the commits that are still copying into it.
+     * Guarded by the store's lock.
+     */
+    private static class Segment {
+        private final String name;
+        private final FileChannel channel;
+        //bytes handed out to commits so far
+        private long reserved = 0;
+        private int writers = 0;
+
+        Segment(String name, FileChannel channel) {
+            this.name = name;
+            this.channel = channel;
+        }
+
+        //once a segment has been replaced, the last commit into it closes it
+        void closeIfDone() throws IOException {
+            if (writers == 0) {
+                channel.close();
+            }
+        }
+    }
+
+    private static int nextSegmentNumber(Path segmentDir) throws IOException {
+        int next = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentDir, SEGMENT_PREFIX + "*")) {
+            for (Path p : stream) {
+                Matcher m = SEGMENT_PATTERN.matcher(p.getFileName().toString());
+                if (m.matches()) {
+                    next = Math.max(next, Integer.parseInt(m.group(1)) + 1);
+                }
+            }
+        }
+        return next;
+    }
+
+    private static String tmpName(String key) {
+        return Long.toHexString(CompletedPathSet.fingerprint(key));
+    }
+
+    /**
+     * @return the extension of the key's file name, including the '.', or "" if there isn't one
+     */
+    static String getExtension(String key) {
+        int slash = Math.max(key.lastIndexOf('/'), key.lastIndexOf('\\'));
+        int dot = key.lastIndexOf('.');
+        return dot > slash + 1 ? key.substring(dot) : "";
+    }
+}
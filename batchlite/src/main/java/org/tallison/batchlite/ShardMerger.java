@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.writer.MetadataWriterFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Combines the shards of the metadata output from a partitioned run
+ * (<code>--partition i/N</code> on each node) into a single output.
+ * The output can be any kind of writer, e.g. the csv shards can be
+ * merged into a jdbc table.
+ * <p>
+ * commandline example: metadata.csv 8 jdbc:h2:file:/data/results:file_metadata
+ * <p>
+ * This reads metadata-part-0-of-8.csv ... metadata-part-7-of-8.csv.
+ * <p>
+ * A shard can have more than one row for a path, e.g. a retry or an
+ * incremental run appends a new row rather than replacing the old one.
+ * Only the last row for each path is kept (in shard order), so a file
+ * that was later marked as removed is merged as removed, and a removed
+ * file that came back is merged with its new result.  This takes two
+ * passes over the shards: the first records the row number of the last
+ * row for each path, and the second writes only those rows.
+ */
+public class ShardMerger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardMerger.class);
+
+    private static final int MAX_BUFFER = 100000;
+
+    /**
+     * @param writerString the writer string that was given to each node
+     * @param numPartitions number of partitions (N)
+     * @param outputWriterString writer string for the merged output
+     * @return number of rows merged
+     * @throws IOException
+     */
+    public static long merge(String writerString, int numPartitions,
+                             String outputWriterString) throws IOException {
+        Map<String, Long> lastRows = new HashMap<>();
+        long[] rowNumber = new long[1];
+        for (int i = 0; i < numPartitions; i++) {
+            forEachShardResult(writerString, new Partition(i, numPartitions),
+                    (relPath, result) -> lastRows.put(relPath, rowNumber[0]++));
+        }
+        if (rowNumber[0] > lastRows.size()) {
+            LOGGER.info("skipping " + (rowNumber[0] - lastRows.size()) +
+                    " rows that were replaced by a later row for the same path");
+        }
+        MetadataWriter output = MetadataWriterFactory.build(outputWriterString, MAX_BUFFER, MAX_BUFFER);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<Integer> future = executorService.submit(output);
+        long total = 0;
+        rowNumber[0] = 0;
+        try {
+            for (int i = 0; i < numPartitions; i++) {
+                long[] rows = new long[1];
+                String shard = forEachShardResult(writerString, new Partition(i, numPartitions),
+                        (relPath, result) -> {
+                            long row = rowNumber[0]++;
+                            Long lastRow = lastRows.get(relPath);
+                            if (lastRow != null && lastRow == row) {
+                                output.write(relPath, result);
+                                rows[0]++;
+                            }
+                        });
+                if (rows[0] == 0) {
+                    LOGGER.warn("no rows in " + shard);
+                } else {
+                    LOGGER.info("merged " + rows[0] + " rows from " + shard);
+                }
+                total += rows[0];
+            }
+            output.shutdown();
+            future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        return total;
+    }
+
+    /**
+     * @return the shard's writer string
+     */
+    private static String forEachShardResult(String writerString, Partition partition,
+                                             MetadataWriter.ResultConsumer consumer) throws IOException {
+        String shard = MetadataWriterFactory.shard(writerString, partition);
+        //resume so that the shard's existing output is kept and can be read
+        MetadataWriter shardWriter = MetadataWriterFactory.build(shard, MAX_BUFFER, MAX_BUFFER, true);
+        try {
+            shardWriter.forEachResult(consumer);
+        } finally {
+            shardWriter.close();
+        }
+        return shard;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("usage: ShardMerger <writerString> <numPartitions> <outputWriterString>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        long rows = merge(args[0], Integer.parseInt(args[1]), args[2]);
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println("Merged " + rows + " rows in " + elapsed + "ms");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of daemon threads for draining subprocess stdout/stderr.
+ * <p>
+ * Idle threads are reused across processes instead of starting two new
+ * threads per subprocess.  The number of threads is not bounded: if every
+ * thread is busy, a new one is started, because a drain that waited in a
+ * queue could deadlock a child that blocks on a full pipe.  Threads that
+ * have been idle for a minute go away.
+ */
+public class StreamDrainer {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final ThreadFactory THREAD_FACTORY = r -> {
+        Thread t = new Thread(r, "batchlite-drainer-" + THREAD_COUNT.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+    };
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(THREAD_FACTORY);
+
+    /**
+     * Starts draining a stream.
+     *
+     * @param drainer runnable that reads the stream until EOF
+     * @return future that completes when the drainer hits EOF
+     */
+    public static Future<?> drain(Runnable drainer) {
+        FutureTask<Void> task = new FutureTask<>(drainer, null);
+        EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for a drainer to finish.  The drainer normally finishes as soon
+     * as the child exits and its end of the pipe is closed.  If it hasn't
+     * finished by the deadline (e.g. a grandchild is holding the pipe open),
+     * the stream is closed to unblock the reader.
+     *
+     * @param drain future from {@link #drain(Runnable)}
+     * @param stream the stream that is being drained
+     * @param deadlineMillis absolute deadline in {@link System#currentTimeMillis()} time;
+     *                       if it has already passed, the stream is closed immediately
+     *                       if the drainer hasn't finished
+     * @return <code>true</code> if the drainer reached EOF on its own
+     * @throws InterruptedException
+     */
+    public static boolean await(Future<?> drain, Closeable stream,
+                                long deadlineMillis) throws InterruptedException {
+        long remaining = deadlineMillis - System.currentTimeMillis();
+        try {
+            drain.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            //fall through
+        } catch (ExecutionException | CancellationException e) {
+            return false;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            //swallow
+        }
+        //closing the stream doesn't always unblock a pending read;
+        //the reader will finish whenever the last writer closes the pipe
+        drain.cancel(true);
+        return false;
+    }
+
+    /**
+     * Stops waiting for a drainer, e.g. if the caller was interrupted:
+     * closes the stream and cancels the drainer.
+     *
+     * @param drain future from {@link #drain(Runnable)}
+     * @param stream the stream that is being drained
+     */
+    public static void cancel(Future<?> drain, Closeable stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            //swallow
+        }
+        drain.cancel(true);
+    }
+}
@@ -16,65 +16,62 @@
  */
 package org.tallison.batchlite;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * Drains a stream, keeping at most <code>maxBufferLength</code> bytes
+ * of its head and tail in a {@link HeadTailBuffer}.
+ */
 public class StreamEater implements Runnable {
 
+    private static final int READ_BUFFER_SIZE = 8192;
 
     private final InputStream is;
-    private final int maxBufferLength;
-    List<String> lines = new ArrayList<>();
-    long streamLength = 0;
-    boolean isTruncated = false;
+    private final HeadTailBuffer buffer;
 
     public StreamEater(InputStream is, int maxBufferLength) {
         this.is = is;
-        this.maxBufferLength = maxBufferLength;
+        this.buffer = new HeadTailBuffer(maxBufferLength);
     }
 
 
     @Override
     public void run() {
-
-        try (BufferedReader r = new BufferedReader(
-                new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            String line = r.readLine();
-            while (line != null) {
-                if (maxBufferLength >= 0) {
-                    if (streamLength + line.length() > maxBufferLength) {
-                        int len = maxBufferLength - (int) streamLength;
-                        if (len > 0) {
-                            isTruncated = true;
-                            String truncatedLine = line.substring(0, Math.min(line.length(), len));
-                            lines.add(truncatedLine);
-                        }
-                    } else {
-                        lines.add(line);
-                    }
-                }
-                streamLength += line.length();
-                line = r.readLine();
+        byte[] bytes = new byte[READ_BUFFER_SIZE];
+        try (InputStream stream = is) {
+            int r = stream.read(bytes);
+            while (r > -1) {
+                buffer.write(bytes, 0, r);
+                r = stream.read(bytes);
             }
         } catch (IOException e) {
             return;
         }
     }
 
-    public List<String> getLines() {
-        return lines;
+    /**
+     * @return the captured content, decoded as UTF-8, without
+     * the final line terminator
+     */
+    public String getContent() {
+        String s = buffer.toString();
+        if (s.endsWith("\r\n")) {
+            return s.substring(0, s.length() - 2);
+        } else if (s.endsWith("\n")) {
+            return s.substring(0, s.length() - 1);
+        }
+        return s;
     }
 
+    /**
+     * @return number of bytes read from the stream
+     */
     public long getStreamLength() {
-        return streamLength;
+        return buffer.getLength();
     }
 
     public boolean getIsTruncated() {
-        return isTruncated;
+        return buffer.isTruncated();
     }
 }
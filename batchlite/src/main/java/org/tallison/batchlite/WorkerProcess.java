@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A long-lived child process that handles one request at a time over
+ * stdin/stdout.  This avoids the fork/exec and interpreter startup costs
+ * of {@link ProcessExecutor} for tools that are fast relative to their startup.
+ * <p>
+ * Protocol:
+ * <ul>
+ *     <li>request: the parent writes a single line (UTF-8, '\n' terminated) to the
+ *     child's stdin -- typically the absolute path of the file to process</li>
+ *     <li>response: the child writes a header line <code>&lt;exitValue&gt; &lt;length&gt;</code>
+ *     to stdout followed by exactly <code>length</code> bytes of output for that request</li>
+ * </ul>
+ * Anything the child writes to stderr while a request is in flight is
+ * captured as that request's stderr.  The child's stderr goes to a temporary
+ * file that is truncated when a request is sent and read when the request
+ * ends, so stderr the child writes after its response and before the next
+ * request is discarded rather than blamed on the next request.  (Stderr for
+ * a request that the child writes after it has already read the next request
+ * can't be told apart and ends up with the next request.)
+ * <p>
+ * If the child doesn't respond within the timeout, crashes or writes a malformed
+ * response, it is killed and a new child is started for the next request.
+ * After <code>maxRequests</code> requests, the child is recycled.
+ * <p>
+ * This is not thread safe; each {@link AbstractFileProcessor} should own its own worker.
+ */
+public class WorkerProcess implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerProcess.class);
+
+    private static final int MAX_HEADER_LENGTH = 100;
+    private static final long SHUTDOWN_WAIT_MILLIS = 1000;
+
+    private final String[] commandline;
+    private final int maxRequests;
+
+    private Process process = null;
+    private long pid = -1;
+    private OutputStream stdin;
+    private InputStream stdout;
+    private Path stderrFile = null;
+    private ExecutorService reader;
+    private int requests = 0;
+    private int restarts = 0;
+
+    /**
+     * @param commandline commandline to start the child
+     * @param maxRequests recycle the child after this many requests; -1 for no limit
+     */
+    public WorkerProcess(String[] commandline, int maxRequests) {
+        this.commandline = commandline;
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * Sends a request to the child and waits for its response.
+     *
+     * @param request single line request, must not contain a newline
+     * @param timeoutMillis
+     * @param maxStdoutBuffer
+     * @param maxStderrBuffer
+     * @return
+     * @throws IOException if the child can't be started
+     */
+    public FileProcessResult execute(String request, long timeoutMillis,
+                                     int maxStdoutBuffer, int maxStderrBuffer) throws IOException {
+        if (request.indexOf('\n') > -1 || request.indexOf('\r') > -1) {
+            throw new IllegalArgumentException("request must not contain a newline: " + request);
+        }
+        if (process == null || ! process.isAlive()) {
+            start();
+        }
+        requests++;
+        //fence: drop anything the child wrote to stderr since the last request
+        truncateStderr();
+
+        FileProcessResult result = new FileProcessResult();
+        result.exitValue = -1;
+        //the child is long-lived, so this request's usage is the difference
+        ProcessStats before = ProcessStats.read(pid);
+        long start = System.currentTimeMillis();
+        boolean healthy = false;
+        Future<Response> response = null;
+        try {
+            //read on the child's reader thread so that a hung child
+            //(or a grandchild holding stdout open) can't block this thread.
+            //The reader fills its own Response, which is handed back through the
+            //future, so a reader that outlives a timeout never touches the result
+            response = reader.submit(() -> readResponse(maxStdoutBuffer));
+            stdin.write(request.getBytes(StandardCharsets.UTF_8));
+            stdin.write('\n');
+            stdin.flush();
+            Response r = response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            result.exitValue = r.exitValue;
+            result.stdout = r.stdout;
+            result.stdoutLength = r.stdoutLength;
+            result.stdoutTruncated = r.stdoutTruncated;
+            healthy = true;
+        } catch (TimeoutException e) {
+            result.isTimeout = true;
+        } catch (IOException | ExecutionException e) {
+            LOGGER.warn("worker failed on request " + request, e);
+        } catch (InterruptedException e) {
+            result.exitValue = -1000;
+        }
+        result.processTimeMillis = System.currentTimeMillis() - start;
+        ProcessStats after = healthy ? ProcessStats.read(pid) : null;
+        if (before != null && after != null) {
+            after.since(before).apply(result);
+        }
+        if (! healthy) {
+            if (response != null) {
+                response.cancel(true);
+            }
+            if (! result.isTimeout && result.exitValue != -1000) {
+                result.exitValue = crashExitValue();
+            }
+            stop();
+            result.stdout = "";
+            result.stdoutLength = 0;
+            result.stdoutTruncated = false;
+        } else if (maxRequests > -1 && requests >= maxRequests) {
+            stop();
+        }
+        //if the child was stopped, it can't write any more, so this is all of its stderr
+        HeadTailBuffer stderr = readStderr(maxStderrBuffer);
+        result.stderr = stderr.toString();
+        result.stderrLength = stderr.getLength();
+        result.stderrTruncated = stderr.isTruncated();
+        return result;
+    }
+
+    private Response readResponse(int maxStdoutBuffer) throws IOException {
+        String header = readHeader();
+        String[] parts = header.trim().split(" ");
+        if (parts.length != 2) {
+            throw new IOException("malformed response header: " + header);
+        }
+        Response response = new Response();
+        try {
+            response.exitValue = Integer.parseInt(parts[0]);
+            response.stdoutLength = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed response header: " + header);
+        }
+        response.stdout = readBody(response.stdoutLength, maxStdoutBuffer, response);
+        return response;
+    }
+
+    private void truncateStderr() throws IOException {
+        //the child appends, so its next write goes to the new end of the file
+        try (FileChannel channel = FileChannel.open(stderrFile, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+        }
+    }
+
+    private HeadTailBuffer readStderr(int maxStderrBuffer) {
+        HeadTailBuffer buffer = new HeadTailBuffer(maxStderrBuffer);
+        try (InputStream is = Files.newInputStream(stderrFile)) {
+            byte[] bytes = new byte[4096];
+            int r = is.read(bytes);
+            while (r > -1) {
+                buffer.write(bytes, 0, r);
+                r = is.read(bytes);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("couldn't read worker stderr", e);
+        }
+        return buffer;
+    }
+
+    private int crashExitValue() {
+        try {
+            if (process.waitFor(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return process.exitValue();
+            }
+        } catch (InterruptedException e) {
+            //swallow
+        }
+        return -1;
+    }
+
+    private void start() throws IOException {
+        if (process != null) {
+            stop();
+            restarts++;
+            LOGGER.debug("restarting worker: " + restarts);
+        }
+        deleteStderrFile();
+        stderrFile = Files.createTempFile("batchlite-worker-", ".stderr");
+        process = new ProcessBuilder(commandline)
+                .redirectError(ProcessBuilder.Redirect.appendTo(stderrFile.toFile()))
+                .start();
+        pid = ProcessStats.getPid(process);
+        stdin = process.getOutputStream();
+        stdout = new BufferedInputStream(process.getInputStream());
+        reader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "batchlite-worker-stdout");
+            t.setDaemon(true);
+            return t;
+        });
+        requests = 0;
+    }
+
+    private String readHeader() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c = stdout.read();
+        while (c != '\n') {
+            if (c == -1) {
+                throw new EOFException("worker closed stdout");
+            }
+            if (sb.length() > MAX_HEADER_LENGTH) {
+                throw new IOException("response header too long: " + sb);
+            }
+            sb.append((char) c);
+            c = stdout.read();
+        }
+        return sb.toString();
+    }
+
+    private String readBody(long length, int maxStdoutBuffer,
+                            Response response) throws IOException {
+        int keep = (int) Math.min(length, Math.max(0, maxStdoutBuffer));
+        byte[] kept = new byte[keep];
+        int read = 0;
+        while (read < keep) {
+            int r = stdout.read(kept, read, keep - read);
+            if (r < 0) {
+                throw new EOFException("worker closed stdout");
+            }
+            read += r;
+        }
+        long toSkip = length - keep;
+        byte[] skipBuffer = new byte[8192];
+        while (toSkip > 0) {
+            int r = stdout.read(skipBuffer, 0, (int) Math.min(skipBuffer.length, toSkip));
+            if (r < 0) {
+                throw new EOFException("worker closed stdout");
+            }
+            toSkip -= r;
+        }
+        response.stdoutTruncated = keep < length;
+        return new String(kept, StandardCharsets.UTF_8);
+    }
+
+    private void stop() {
+        if (process == null) {
+            return;
+        }
+        //a reader blocked on a pipe held open by a grandchild
+        //will finish on its own once the pipe closes
+        reader.shutdownNow();
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            //swallow
+        }
+        try {
+            if (! process.waitFor(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                process.waitFor(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * @return number of times the child has been restarted after a crash,
+     * timeout or recycle
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    private void deleteStderrFile() {
+        if (stderrFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(stderrFile);
+        } catch (IOException e) {
+            LOGGER.warn("couldn't delete " + stderrFile, e);
+        }
+        stderrFile = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        deleteStderrFile();
+        process = null;
+    }
+
+    /**
+     * The parsed response to a single request
+     */
+    private static class Response {
+        int exitValue;
+        String stdout;
+        long stdoutLength;
+        boolean stdoutTruncated;
+    }
+}
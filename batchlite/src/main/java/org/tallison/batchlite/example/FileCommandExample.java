@@ -38,14 +38,19 @@ public class FileCommandExample extends AbstractDirectoryProcessor {
     private final int numThreads;
 
     public FileCommandExample(ConfigSrc config) {
-        super(config.getSrcRoot(), config.getMetadataWriter());
+        super(config);
         this.numThreads = config.getNumThreads();
     }
 
     @Override
     public List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue) {
+        return getProcessors(queue, numThreads);
+    }
+
+    @Override
+    protected List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue, int count) {
         List<AbstractFileProcessor> processors = new ArrayList<>();
-        for (int i = 0; i < numThreads; i++) {
+        for (int i = 0; i < count; i++) {
             processors.add(new FileCommandProcessor(queue, getRootDir(), metadataWriter));
         }
         return processors;
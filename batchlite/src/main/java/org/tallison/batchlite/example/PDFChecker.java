@@ -55,8 +55,13 @@ public class PDFChecker extends AbstractDirectoryProcessor {
 
     @Override
     public List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue) {
+        return getProcessors(queue, numThreads);
+    }
+
+    @Override
+    protected List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue, int count) {
         List<AbstractFileProcessor> processors = new ArrayList<>();
-        for (int i = 0; i < numThreads; i++) {
+        for (int i = 0; i < count; i++) {
             processors.add(new FileToFileProcessor(queue, getRootDir(), targRoot, metadataWriter));
         }
         return processors;
@@ -47,7 +47,7 @@ public class PDFStdoutChecker extends AbstractDirectoryProcessor {
     private final int numThreads;
 
     public PDFStdoutChecker(String pdfcheckerRoot, ConfigSrcTarg config) {
-        super(config.getSrcRoot(), config.getMetadataWriter());
+        super(config);
         this.pdfcheckerRoot = pdfcheckerRoot;
         this.targRoot = config.getTargRoot();
         this.numThreads = config.getNumThreads();
@@ -55,8 +55,13 @@ public class PDFStdoutChecker extends AbstractDirectoryProcessor {
 
     @Override
     public List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue) {
+        return getProcessors(queue, numThreads);
+    }
+
+    @Override
+    protected List<AbstractFileProcessor> getProcessors(ArrayBlockingQueue<Path> queue, int count) {
         List<AbstractFileProcessor> processors = new ArrayList<>();
-        for (int i = 0; i < numThreads; i++) {
+        for (int i = 0; i < count; i++) {
             processors.add(new FileToFileProcessor(queue, getRootDir(), targRoot, metadataWriter));
         }
         return processors;
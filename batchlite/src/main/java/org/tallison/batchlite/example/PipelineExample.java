@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.example;
+
+import org.apache.tika.utils.ProcessUtils;
+import org.tallison.batchlite.AbstractDirectoryProcessor;
+import org.tallison.batchlite.CommandlineFileToFileProcessor;
+import org.tallison.batchlite.ConfigSrcTarg;
+import org.tallison.batchlite.FileToFileProcessor;
+import org.tallison.batchlite.MetadataWriter;
+import org.tallison.batchlite.pipeline.Emitter;
+import org.tallison.batchlite.pipeline.Pipeline;
+import org.tallison.batchlite.pipeline.Stage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * This is an example of a {@link Pipeline} that runs pdftotext on the PDFs
+ * in a directory: crawl -&gt; detect -&gt; filter -&gt; process -&gt; finish.
+ * Reading the file headers is I/O-bound and gets twice as many threads
+ * as running pdftotext.  The process and finish stages are a
+ * {@link FileToFileProcessor}, so the output of one file is finished and its
+ * metadata written while pdftotext runs on the next.
+ * <p>
+ * commandline example: input output metadata.csv 6
+ */
+public class PipelineExample {
+
+    private static final int MAX_BUFFER = 10000;
+    private static final long TIMEOUT_MILLIS = 60000;
+    private static final byte[] PDF_MAGIC = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+
+    private static class Job {
+        private final Path srcPath;
+        private boolean isPDF = false;
+
+        private Job(Path srcPath) {
+            this.srcPath = srcPath;
+        }
+    }
+
+    private static class DetectStage implements Stage<Job, Job> {
+        private final byte[] header = new byte[PDF_MAGIC.length];
+
+        @Override
+        public void process(Job job, Emitter<Job> emitter) throws IOException {
+            try (InputStream is = Files.newInputStream(job.srcPath)) {
+                int read = 0;
+                int r = 0;
+                while (read < header.length && (r = is.read(header, read, header.length - read)) > -1) {
+                    read += r;
+                }
+                job.isPDF = read == header.length && Arrays.equals(header, PDF_MAGIC);
+            }
+            emitter.emit(job);
+        }
+    }
+
+    private static class PDFToTextProcessor extends CommandlineFileToFileProcessor {
+        private PDFToTextProcessor(Path srcRoot, Path targRoot, MetadataWriter metadataWriter) {
+            //the queue isn't used in a pipeline
+            super(null, srcRoot, targRoot, metadataWriter);
+            setFileTimeoutMillis(TIMEOUT_MILLIS);
+        }
+
+        @Override
+        protected String getExtension() {
+            return ".txt";
+        }
+
+        @Override
+        protected String[] getCommandLine(Path srcPath, Path targPath) throws IOException {
+            AbstractDirectoryProcessor.createParent(targPath);
+            return new String[]{
+                    "pdftotext",
+                    ProcessUtils.escapeCommandLine(srcPath.toAbsolutePath().toString()),
+                    ProcessUtils.escapeCommandLine(targPath.toAbsolutePath().toString())
+            };
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConfigSrcTarg config = ConfigSrcTarg.build(args, MAX_BUFFER, MAX_BUFFER);
+        Path srcRoot = config.getSrcRoot().toAbsolutePath();
+        Path targRoot = config.getTargRoot();
+        MetadataWriter metadataWriter = config.getMetadataWriter();
+        int numThreads = config.getNumThreads();
+
+        ExecutorService writerService = Executors.newSingleThreadExecutor();
+        Future<Integer> writer = writerService.submit(metadataWriter);
+        long start = System.currentTimeMillis();
+        try {
+            Pipeline.<Job>from("crawl", emitter -> {
+                try (Stream<Path> paths = Files.walk(srcRoot)) {
+                    for (Path p : (Iterable<Path>) paths::iterator) {
+                        if (Files.isRegularFile(p)) {
+                            emitter.emit(new Job(p));
+                        }
+                    }
+                }
+            })
+                    .then("detect", numThreads * 2, DetectStage::new)
+                    .<Path>then("filter", 1, () -> (job, emitter) -> {
+                        if (job.isPDF) {
+                            emitter.emit(job.srcPath);
+                        }
+                    })
+                    .then("process", numThreads, () ->
+                            new PDFToTextProcessor(srcRoot, targRoot, metadataWriter).asStage())
+                    .then("finish", 1, FileToFileProcessor::finishStage)
+                    .run();
+        } finally {
+            metadataWriter.shutdown();
+            try {
+                writer.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                writerService.shutdownNow();
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println("Processed " + metadataWriter.getRecordsWritten() + " records in " + elapsed + "ms");
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.FileProcessResult;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics for one run of an {@link org.tallison.batchlite.AbstractDirectoryProcessor}:
+ * per-stage latency histograms (waiting for a path, processing a file, writing
+ * a batch), throughput counters, queue depth gauges and counts of timeouts
+ * and exit values.
+ * <p>
+ * The processors and the metadata writer record into this from their own
+ * threads; everything here is thread-safe and cheap enough to leave on.
+ */
+public class BatchMetrics implements BatchMetricsMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchMetrics.class);
+
+    private static final String JMX_DOMAIN = "org.tallison.batchlite";
+    private static final AtomicInteger RUN_COUNTER = new AtomicInteger();
+
+    private final long startNanos = System.nanoTime();
+    private final Histogram queueWaitMillis = new Histogram();
+    private final Histogram processMillis = new Histogram();
+    private final Histogram writerBatchMillis = new Histogram();
+    private final LongAdder filesProcessed = new LongAdder();
+    private final LongAdder bytesProcessed = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Map<Integer, LongAdder> exitValues = new ConcurrentHashMap<>();
+    private final Map<String, IntSupplier> gauges = new ConcurrentSkipListMap<>();
+    private ObjectName objectName = null;
+
+    public void recordQueueWait(long millis) {
+        queueWaitMillis.record(millis);
+    }
+
+    /**
+     * @param millis time to process the file
+     * @param bytes  size of the file or -1 if unknown
+     */
+    public void recordProcess(long millis, long bytes) {
+        processMillis.record(millis);
+        filesProcessed.increment();
+        if (bytes > 0) {
+            bytesProcessed.add(bytes);
+        }
+    }
+
+    public void recordResult(FileProcessResult result) {
+        if (result.isTimeout()) {
+            timeouts.increment();
+        }
+        exitValues.computeIfAbsent(result.getExitValue(), k -> new LongAdder()).increment();
+    }
+
+    public void recordWriterBatch(long millis, int rows) {
+        writerBatchMillis.record(millis);
+        rowsWritten.add(rows);
+    }
+
+    /**
+     * @param name  name of the queue
+     * @param depth supplies the current number of items in the queue
+     */
+    public void addQueueGauge(String name, IntSupplier depth) {
+        gauges.put(name, depth);
+    }
+
+    /**
+     * Registers this with the platform MBean server, e.g. for jconsole
+     * or VisualVM.  Failures are logged, not thrown.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=BatchMetrics,run=" +
+                    RUN_COUNTER.getAndIncrement());
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            LOGGER.warn("couldn't register metrics with jmx", e);
+        }
+    }
+
+    public void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("couldn't unregister metrics from jmx", e);
+        }
+        objectName = null;
+    }
+
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1_000_000_000.0;
+    }
+
+    @Override
+    public long getFilesProcessed() {
+        return filesProcessed.sum();
+    }
+
+    @Override
+    public long getBytesProcessed() {
+        return bytesProcessed.sum();
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return rate(getFilesProcessed());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return rate(getBytesProcessed());
+    }
+
+    private double rate(long n) {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? n / seconds : 0.0;
+    }
+
+    @Override
+    public Map<String, Long> getExitValueCounts() {
+        Map<Integer, Long> sorted = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> e : exitValues.entrySet()) {
+            sorted.put(e.getKey(), e.getValue().sum());
+        }
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> e : sorted.entrySet()) {
+            counts.put(Integer.toString(e.getKey()), e.getValue());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (Map.Entry<String, IntSupplier> e : gauges.entrySet()) {
+            depths.put(e.getKey(), e.getValue().getAsInt());
+        }
+        return depths;
+    }
+
+    @Override
+    public HistogramSnapshot getQueueWaitMillis() {
+        return queueWaitMillis.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getProcessMillis() {
+        return processMillis.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getWriterBatchMillis() {
+        return writerBatchMillis.snapshot();
+    }
+}
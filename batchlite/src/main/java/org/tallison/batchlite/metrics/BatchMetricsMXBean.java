@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link BatchMetrics}.  Latencies are in milliseconds and
+ * rates are averages since the start of the run.
+ */
+public interface BatchMetricsMXBean {
+
+    long getFilesProcessed();
+
+    long getBytesProcessed();
+
+    long getRowsWritten();
+
+    long getTimeouts();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * @return exit value -> number of files
+     */
+    Map<String, Long> getExitValueCounts();
+
+    /**
+     * @return queue name -> number of items in the queue
+     */
+    Map<String, Integer> getQueueDepths();
+
+    /**
+     * @return how long processors waited for the next path
+     */
+    HistogramSnapshot getQueueWaitMillis();
+
+    /**
+     * @return how long processors took per file
+     */
+    HistogramSnapshot getProcessMillis();
+
+    /**
+     * @return how long the metadata writer took per batch (write + flush)
+     */
+    HistogramSnapshot getWriterBatchMillis();
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes a snapshot of {@link BatchMetrics} to a file each time it is run
+ * (e.g. from a scheduled executor) and a final one on {@link #close()}.
+ * Files ending in .csv get one row per snapshot; anything else gets one
+ * json object per line.
+ * <p>
+ * Alongside the cumulative counts, each snapshot has the files/sec and
+ * bytes/sec since the previous snapshot, so a stall shows up as it happens.
+ */
+public class MetricsReporter implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private static final String[] STAGES = {"queue_wait_ms", "process_ms", "writer_batch_ms"};
+
+    private final BatchMetrics metrics;
+    private final boolean csv;
+    private final Writer writer;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private CSVPrinter printer = null;
+    private List<String> queueNames = null;
+    private double lastSeconds = 0.0;
+    private long lastFiles = 0;
+    private long lastBytes = 0;
+
+    public MetricsReporter(BatchMetrics metrics, Path file) throws IOException {
+        this.metrics = metrics;
+        this.csv = file.getFileName().toString().toLowerCase(Locale.US).endsWith(".csv");
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        this.writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void run() {
+        try {
+            report();
+        } catch (IOException | RuntimeException e) {
+            //don't let an exception cancel the scheduled task
+            LOGGER.warn("couldn't write metrics", e);
+        }
+    }
+
+    synchronized void report() throws IOException {
+        Map<String, Object> snapshot = snapshot();
+        if (csv) {
+            writeCsv(snapshot);
+        } else {
+            writer.write(gson.toJson(snapshot));
+            writer.write("\n");
+        }
+        writer.flush();
+    }
+
+    private Map<String, Object> snapshot() {
+        double seconds = metrics.getElapsedSeconds();
+        long files = metrics.getFilesProcessed();
+        long bytes = metrics.getBytesProcessed();
+        double interval = seconds - lastSeconds;
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("timestamp", Instant.now().toString());
+        snapshot.put("elapsed_secs", round(seconds));
+        snapshot.put("files", files);
+        snapshot.put("bytes", bytes);
+        snapshot.put("files_per_sec", round(interval > 0 ? (files - lastFiles) / interval : 0.0));
+        snapshot.put("bytes_per_sec", round(interval > 0 ? (bytes - lastBytes) / interval : 0.0));
+        snapshot.put("rows_written", metrics.getRowsWritten());
+        snapshot.put("timeouts", metrics.getTimeouts());
+        snapshot.put("queue_depths", metrics.getQueueDepths());
+        snapshot.put(STAGES[0], histogram(metrics.getQueueWaitMillis()));
+        snapshot.put(STAGES[1], histogram(metrics.getProcessMillis()));
+        snapshot.put(STAGES[2], histogram(metrics.getWriterBatchMillis()));
+        snapshot.put("exit_values", metrics.getExitValueCounts());
+        lastSeconds = seconds;
+        lastFiles = files;
+        lastBytes = bytes;
+        return snapshot;
+    }
+
+    private static Map<String, Object> histogram(HistogramSnapshot h) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("count", h.getCount());
+        m.put("mean", round(h.getMean()));
+        m.put("p50", h.getP50());
+        m.put("p90", h.getP90());
+        m.put("p99", h.getP99());
+        m.put("max", h.getMax());
+        return m;
+    }
+
+    private static double round(double d) {
+        return Math.round(d * 100.0) / 100.0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeCsv(Map<String, Object> snapshot) throws IOException {
+        Map<String, Integer> depths = (Map<String, Integer>) snapshot.get("queue_depths");
+        if (printer == null) {
+            //the queues are all registered before the first report
+            queueNames = new ArrayList<>(depths.keySet());
+            List<String> header = new ArrayList<>();
+            for (Map.Entry<String, Object> e : snapshot.entrySet()) {
+                if (e.getKey().equals("queue_depths")) {
+                    for (String q : queueNames) {
+                        header.add("queue_depth_" + q);
+                    }
+                } else if (e.getValue() instanceof Map && ! e.getKey().equals("exit_values")) {
+                    for (String k : ((Map<String, Object>) e.getValue()).keySet()) {
+                        header.add(e.getKey() + "_" + k);
+                    }
+                } else {
+                    header.add(e.getKey());
+                }
+            }
+            printer = new CSVPrinter(writer, CSVFormat.EXCEL.withHeader(header.toArray(new String[0])));
+        }
+        List<Object> row = new ArrayList<>();
+        for (Map.Entry<String, Object> e : snapshot.entrySet()) {
+            if (e.getKey().equals("queue_depths")) {
+                for (String q : queueNames) {
+                    row.add(depths.get(q));
+                }
+            } else if (e.getKey().equals("exit_values")) {
+                //e.g. 0:1032;1:7
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, Long> ev : ((Map<String, Long>) e.getValue()).entrySet()) {
+                    if (sb.length() > 0) {
+                        sb.append(";");
+                    }
+                    sb.append(ev.getKey()).append(":").append(ev.getValue());
+                }
+                row.add(sb.toString());
+            } else if (e.getValue() instanceof Map) {
+                row.addAll(((Map<String, Object>) e.getValue()).values());
+            } else {
+                row.add(e.getValue());
+            }
+        }
+        printer.printRecord(row);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            report();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.metrics.BatchMetrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Typed multi-stage pipeline: a {@link Source} followed by any number of
+ * {@link Stage}s, each with its own number of threads and a bounded queue
+ * in front of it, e.g.
+ * <pre>
+ *     Pipeline.from("crawl", crawler)
+ *             .then("detect", 8, DetectStage::new)
+ *             .then("filter", 1, FilterStage::new)
+ *             .then("process", 4, ProcessStage::new)
+ *             .then("write", 1, () -&gt; writeStage)
+ *             .run();
+ * </pre>
+ * This lets I/O-bound and CPU-bound steps overlap with different amounts
+ * of parallelism, rather than doing everything for a file in one call.
+ * <p>
+ * Completion propagates down the pipeline: when the source returns, the
+ * first stage's threads drain their queue, close their stages and exit;
+ * when the last of them exits, the second stage does the same, and so on.
+ * If the source or any stage throws an exception, every other thread is
+ * interrupted and {@link #run()} throws the first exception.
+ * <p>
+ * The items that the last stage emits are dropped.
+ */
+public class Pipeline<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Pipeline.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static final AtomicInteger PIPELINE_COUNT = new AtomicInteger();
+
+    private static class StageSpec {
+        private final String name;
+        private final int threads;
+        private final int queueSize;
+        private final Supplier<? extends Stage<Object, Object>> factory;
+
+        private StageSpec(String name, int threads, int queueSize,
+                          Supplier<? extends Stage<Object, Object>> factory) {
+            this.name = name;
+            this.threads = threads;
+            this.queueSize = queueSize;
+            this.factory = factory;
+        }
+    }
+
+    private final String sourceName;
+    private final Source<Object> source;
+    //shared by every view of this pipeline
+    private final List<StageSpec> stages;
+    //number of stages when this view was created
+    private final int depth;
+    private BatchMetrics metrics = null;
+
+    private Pipeline(String sourceName, Source<Object> source, List<StageSpec> stages) {
+        this.sourceName = sourceName;
+        this.source = source;
+        this.stages = stages;
+        this.depth = stages.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> Pipeline<T> from(String name, Source<T> source) {
+        return new Pipeline<>(name, (Source<Object>) source, new ArrayList<>());
+    }
+
+    /**
+     * Adds a stage with a queue of {@link #DEFAULT_QUEUE_SIZE} in front of it.
+     */
+    public <O> Pipeline<O> then(String name, int threads,
+                                Supplier<? extends Stage<? super T, O>> factory) {
+        return then(name, threads, DEFAULT_QUEUE_SIZE, factory);
+    }
+
+    /**
+     * @param name      name of the stage, used for thread names and queue gauges
+     * @param threads   number of threads, each with its own instance of the stage
+     * @param queueSize capacity of the queue in front of this stage
+     * @param factory   creates an instance of the stage for each thread
+     * @return the pipeline, typed by this stage's output
+     */
+    @SuppressWarnings("unchecked")
+    public <O> Pipeline<O> then(String name, int threads, int queueSize,
+                                Supplier<? extends Stage<? super T, O>> factory) {
+        if (stages.size() != depth) {
+            throw new IllegalStateException("a stage has already been added after this one");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be > 0: " + threads);
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize must be > 0: " + queueSize);
+        }
+        stages.add(new StageSpec(name, threads, queueSize,
+                (Supplier<? extends Stage<Object, Object>>) (Supplier<?>) factory));
+        Pipeline<O> next = new Pipeline<>(sourceName, source, stages);
+        next.metrics = metrics;
+        return next;
+    }
+
+    /**
+     * @param metrics if not <code>null</code>, the depth of each stage's
+     *                queue is added as a gauge
+     * @return this
+     */
+    public Pipeline<T> setMetrics(BatchMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Runs the pipeline and waits for it to complete.
+     *
+     * @throws IOException the first exception thrown by the source or a stage
+     */
+    public void run() throws IOException {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("a pipeline needs at least one stage");
+        }
+        List<StageQueue<Object>> queues = new ArrayList<>();
+        int numThreads = 1;
+        for (int i = 0; i < stages.size(); i++) {
+            StageSpec spec = stages.get(i);
+            int producers = i == 0 ? 1 : stages.get(i - 1).threads;
+            StageQueue<Object> queue = new StageQueue<>(spec.queueSize, producers);
+            queues.add(queue);
+            if (metrics != null) {
+                metrics.addQueueGauge(spec.name, queue::size);
+            }
+            numThreads += spec.threads;
+        }
+
+        int pipelineId = PIPELINE_COUNT.getAndIncrement();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "batchlite-pipeline-" + pipelineId + "-" +
+                    threadCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorCompletionService<Integer> executorCompletionService =
+                new ExecutorCompletionService<>(executorService);
+
+        long start = System.currentTimeMillis();
+        executorCompletionService.submit(() -> runSource(queues.get(0)));
+        for (int i = 0; i < stages.size(); i++) {
+            StageQueue<Object> in = queues.get(i);
+            StageQueue<Object> out = i < stages.size() - 1 ? queues.get(i + 1) : null;
+            StageSpec spec = stages.get(i);
+            for (int t = 0; t < spec.threads; t++) {
+                executorCompletionService.submit(() -> runStage(spec, in, out));
+            }
+        }
+
+        try {
+            for (int completed = 0; completed < numThreads; completed++) {
+                Future<Integer> future = executorCompletionService.take();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for the pipeline");
+        } finally {
+            executorService.shutdownNow();
+        }
+        LOGGER.debug("pipeline finished in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private Integer runSource(StageQueue<Object> out) throws IOException {
+        try {
+            source.produce(emitter(out));
+        } finally {
+            out.producerDone();
+        }
+        LOGGER.debug(sourceName + " finished");
+        return 1;
+    }
+
+    private Integer runStage(StageSpec spec, StageQueue<Object> in,
+                             StageQueue<Object> out) throws IOException {
+        Emitter<Object> emitter = out == null ? item -> {} : emitter(out);
+        try {
+            Stage<Object, Object> stage = spec.factory.get();
+            try {
+                while (true) {
+                    Object item;
+                    try {
+                        item = in.take();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException(spec.name + " interrupted");
+                    }
+                    if (item == null) {
+                        break;
+                    }
+                    stage.process(item, emitter);
+                }
+            } finally {
+                stage.close();
+            }
+        } finally {
+            if (out != null) {
+                out.producerDone();
+            }
+        }
+        return 1;
+    }
+
+    private static Emitter<Object> emitter(StageQueue<Object> queue) {
+        return item -> {
+            if (item == null) {
+                throw new NullPointerException("can't emit null");
+            }
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while emitting");
+            }
+        };
+    }
+}
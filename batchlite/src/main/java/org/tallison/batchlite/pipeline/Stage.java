@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.pipeline;
+
+import java.io.IOException;
+
+/**
+ * One step of a {@link Pipeline}.  Each thread of a stage gets its own
+ * instance, so implementations don't have to worry about thread safety.
+ * <p>
+ * A stage may emit any number of items for each input: none to filter
+ * it out, one to transform it, or several to split it.
+ */
+@FunctionalInterface
+public interface Stage<I, O> {
+
+    void process(I item, Emitter<O> emitter) throws IOException;
+
+    /**
+     * Called once, on the stage's thread, after the last item.
+     *
+     * @throws IOException
+     */
+    default void close() throws IOException {
+        //no-op
+    }
+}
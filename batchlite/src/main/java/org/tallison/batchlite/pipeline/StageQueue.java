@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue between two stages that knows how many producers are
+ * still writing to it.  Once the last producer is done and the queue
+ * has been drained, {@link #take()} returns <code>null</code>, so
+ * consumers never need a poison item.
+ */
+class StageQueue<T> {
+
+    private final ArrayDeque<T> items;
+    private final int capacity;
+    private int openProducers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    StageQueue(int capacity, int producers) {
+        this.items = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.openProducers = producers;
+    }
+
+    void put(T item) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                notFull.await();
+            }
+            items.add(item);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the next item, or <code>null</code> if all producers are done
+     * and there's nothing left
+     * @throws InterruptedException
+     */
+    T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                if (openProducers == 0) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            T item = items.poll();
+            notFull.signal();
+            return item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called once by each producer when it won't add anything else.
+     */
+    void producerDone() {
+        lock.lock();
+        try {
+            if (--openProducers == 0) {
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
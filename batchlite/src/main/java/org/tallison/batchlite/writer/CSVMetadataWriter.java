@@ -17,32 +17,275 @@
 package org.tallison.batchlite.writer;
 
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.CompletedPathSet;
 import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.FileStateIndex;
 import org.tallison.batchlite.MetadataWriter;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class CSVMetadataWriter extends MetadataWriter {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(CSVMetadataWriter.class);
+
     private static String[] HEADER = new String[]{
             "path", "exitValue", "isTimeout", "processTimeMillis",
             "stderr", "stderrLength", "stderrTruncated",
-            "stdout", "stdoutLength", "stdoutTruncated"
+            "stdout", "stdoutLength", "stdoutTruncated",
+            "fileSize", "lastModified", "removed",
+            "attempts", "attemptTimesMillis",
+            "userCpuMillis", "systemCpuMillis", "peakRssBytes", "ioReadBytes", "ioWriteBytes"
     };
 
+    private final Path csvFile;
+    private final boolean resume;
     private final CSVPrinter printer;
 
     CSVMetadataWriter(Path csvFile) throws IOException {
-        printer = new CSVPrinter(
-                Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8),
-                CSVFormat.EXCEL);
-        printer.printRecord(HEADER);
+        this(csvFile, false);
+    }
+
+    /**
+     * @param csvFile
+     * @param resume if <code>true</code> and the csv file exists, append to it
+     *               rather than overwriting it.  A csv written by an older version
+     *               with fewer columns, or one that ends in a partial row after a
+     *               crash, is first rewritten with the current header and without
+     *               the partial row.
+     * @throws IOException
+     */
+    CSVMetadataWriter(Path csvFile, boolean resume) throws IOException {
+        this.csvFile = csvFile;
+        this.resume = resume && Files.isRegularFile(csvFile);
+        if (this.resume) {
+            repair(csvFile);
+            printer = new CSVPrinter(
+                    Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8,
+                            StandardOpenOption.APPEND),
+                    CSVFormat.EXCEL);
+        } else {
+            printer = new CSVPrinter(
+                    Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8),
+                    CSVFormat.EXCEL);
+            printer.printRecord((Object[]) HEADER);
+        }
+    }
+
+    /**
+     * Rows with the current columns can't be appended under an older, shorter
+     * header (they'd be dropped as inconsistent when the file is read), so
+     * rewrite the file with the current header, leaving the new columns empty.
+     * <p>
+     * Nor can they be appended after a partial last row: the first new row would
+     * end up on the same line, and an unclosed quote would swallow every row after
+     * it.  If the file doesn't end with a record separator, the last row is partial
+     * and is dropped, as are any other inconsistent rows.
+     */
+    private static void repair(Path csvFile) throws IOException {
+        List<String> columns = Arrays.asList(HEADER);
+        Path tmp = csvFile.resolveSibling(csvFile.getFileName() + ".tmp");
+        boolean complete = endsWithRecordSeparator(csvFile);
+        try (Reader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withFirstRecordAsHeader())) {
+            List<String> header = parser.getHeaderNames();
+            if (header.equals(columns) && complete) {
+                return;
+            }
+            for (String column : header) {
+                if (! columns.contains(column)) {
+                    throw new IOException("can't resume " + csvFile + ": unexpected column '" +
+                            column + "'; use a new file or run without resume");
+                }
+            }
+            if (! header.isEmpty() && ! header.contains("path")) {
+                throw new IOException("can't resume " + csvFile +
+                        ": it has no path column; use a new file or run without resume");
+            }
+            if (! header.equals(columns)) {
+                LOGGER.info("adding the new columns to " + csvFile);
+            }
+            if (! complete) {
+                LOGGER.warn("dropping the partial last row of " + csvFile);
+            }
+            try (CSVPrinter repaired = new CSVPrinter(
+                    Files.newBufferedWriter(tmp, StandardCharsets.UTF_8), CSVFormat.EXCEL)) {
+                repaired.printRecord(columns);
+                //held back until we know it isn't the partial last row
+                CSVRecord last = null;
+                try {
+                    for (CSVRecord record : parser) {
+                        if (last != null) {
+                            printRecord(last, columns, repaired);
+                        }
+                        last = record;
+                    }
+                    if (complete && last != null) {
+                        printRecord(last, columns, repaired);
+                    }
+                } catch (IllegalStateException e) {
+                    //e.g. an unclosed quote in the partial last row;
+                    //the row before it is complete
+                    if (last != null) {
+                        printRecord(last, columns, repaired);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, csvFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void printRecord(CSVRecord record, List<String> columns,
+                                    CSVPrinter printer) throws IOException {
+        if (! record.isConsistent()) {
+            return;
+        }
+        List<String> values = new ArrayList<>();
+        for (String column : columns) {
+            values.add(record.isMapped(column) ? record.get(column) : "");
+        }
+        printer.printRecord(values);
+    }
+
+    /**
+     * @return <code>true</code> if the file ends with the record separator,
+     * i.e. the last row was written completely
+     */
+    private static boolean endsWithRecordSeparator(Path csvFile) throws IOException {
+        byte[] separator = CSVFormat.EXCEL.getRecordSeparator().getBytes(StandardCharsets.US_ASCII);
+        try (SeekableByteChannel channel = Files.newByteChannel(csvFile)) {
+            if (channel.size() < separator.length) {
+                return false;
+            }
+            channel.position(channel.size() - separator.length);
+            ByteBuffer end = ByteBuffer.allocate(separator.length);
+            while (end.hasRemaining()) {
+                if (channel.read(end) < 0) {
+                    return false;
+                }
+            }
+            return Arrays.equals(end.array(), separator);
+        }
+    }
+
+    @Override
+    public void loadCompletedPaths(CompletedPathSet completed) throws IOException {
+        if (! resume) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withFirstRecordAsHeader())) {
+            for (CSVRecord record : parser) {
+                if (! record.isConsistent()) {
+                    //e.g. a partial row left by an older version
+                    continue;
+                }
+                completed.add(record.get("path"));
+            }
+        }
+    }
+
+    /**
+     * In incremental runs, rows for changed files are appended, so
+     * the last row for a path is the current one.
+     */
+    @Override
+    public void loadFileStates(FileStateIndex fileStates) throws IOException {
+        if (! resume) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withFirstRecordAsHeader())) {
+            if (! parser.getHeaderMap().containsKey("lastModified")) {
+                //written before the file state columns were added
+                return;
+            }
+            for (CSVRecord record : parser) {
+                if (! record.isConsistent()) {
+                    //e.g. a partial last row after a crash
+                    continue;
+                }
+                fileStates.put(record.get("path"), parseLong(record.get("fileSize")),
+                        parseLong(record.get("lastModified")),
+                        Boolean.parseBoolean(record.get("removed")));
+            }
+        }
+    }
+
+    @Override
+    public void forEachResult(ResultConsumer consumer) throws IOException {
+        if (! resume) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withFirstRecordAsHeader())) {
+            for (CSVRecord record : parser) {
+                if (! record.isConsistent()) {
+                    continue;
+                }
+                consumer.accept(record.get("path"), toResult(record));
+            }
+        }
+    }
+
+    //columns that were added later may be missing from older files
+    private static FileProcessResult toResult(CSVRecord record) {
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue((int) parseLong(get(record, "exitValue")));
+        result.setTimeout(Boolean.parseBoolean(get(record, "isTimeout")));
+        result.setProcessTimeMillis(parseLong(get(record, "processTimeMillis")));
+        result.setStderr(get(record, "stderr"));
+        result.setStderrLength(parseLong(get(record, "stderrLength")));
+        result.setStderrTruncated(Boolean.parseBoolean(get(record, "stderrTruncated")));
+        result.setStdout(get(record, "stdout"));
+        result.setStdoutLength(parseLong(get(record, "stdoutLength")));
+        result.setStdoutTruncated(Boolean.parseBoolean(get(record, "stdoutTruncated")));
+        result.setFileSize(parseLong(get(record, "fileSize")));
+        result.setLastModified(parseLong(get(record, "lastModified")));
+        result.setRemoved(Boolean.parseBoolean(get(record, "removed")));
+        long attempts = parseLong(get(record, "attempts"));
+        if (attempts > 0) {
+            result.setAttempts((int) attempts);
+        }
+        result.setAttemptTimesMillis(splitAttemptTimes(get(record, "attemptTimesMillis")));
+        result.setUserCpuMillis(parseLong(get(record, "userCpuMillis")));
+        result.setSystemCpuMillis(parseLong(get(record, "systemCpuMillis")));
+        result.setPeakRssBytes(parseLong(get(record, "peakRssBytes")));
+        result.setIoReadBytes(parseLong(get(record, "ioReadBytes")));
+        result.setIoWriteBytes(parseLong(get(record, "ioWriteBytes")));
+        return result;
+    }
+
+    private static String get(CSVRecord record, String column) {
+        return record.isMapped(column) ? record.get(column) : null;
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        printer.flush();
     }
 
     @Override
@@ -65,6 +308,16 @@ public class CSVMetadataWriter extends MetadataWriter {
         cols.add(result.getStdout());
         cols.add(Long.toString(result.getStdoutLength()));
         cols.add(Boolean.toString(result.isStdoutTruncated()));
+        cols.add(Long.toString(result.getFileSize()));
+        cols.add(Long.toString(result.getLastModified()));
+        cols.add(Boolean.toString(result.isRemoved()));
+        cols.add(Integer.toString(result.getAttempts()));
+        cols.add(joinAttemptTimes(result));
+        cols.add(Long.toString(result.getUserCpuMillis()));
+        cols.add(Long.toString(result.getSystemCpuMillis()));
+        cols.add(Long.toString(result.getPeakRssBytes()));
+        cols.add(Long.toString(result.getIoReadBytes()));
+        cols.add(Long.toString(result.getIoWriteBytes()));
         printer.printRecord(cols);
     }
 }
@@ -16,92 +16,503 @@
  */
 package org.tallison.batchlite.writer;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.CompletedPathSet;
 import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.FileStateIndex;
 import org.tallison.batchlite.MetadataWriter;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 //e.g. /data/docs output jdbc:h2:file:/home/tallison/Desktop/h2_results:file_metadata 10
 
+/**
+ * Writes results to a jdbc table.
+ * <p>
+ * With Postgres, each batch is streamed to the server with
+ * <code>COPY ... FROM STDIN</code> (text format).  With H2 and SQLite, rows
+ * are inserted with multi-row <code>VALUES</code> statements.  Anything else
+ * falls back to a single-row insert with jdbc batching.
+ * <p>
+ * On resume, columns that were added after the table was created are added to it.
+ */
 public class JDBCMetadataWriter extends MetadataWriter {
 
     private static Logger LOGGER = LoggerFactory.getLogger(JDBCMetadataWriter.class);
 
     private static final int MAX_PATH_LENGTH = 500;
+    private static final int MAX_ATTEMPT_TIMES_LENGTH = 200;
+
+    private static final String[] COLUMNS = new String[]{
+            "path", "exit_value", "timeout", "process_time_ms",
+            "stdout", "stdout_length", "stdout_truncated",
+            "stderr", "stderr_length", "stderr_truncated",
+            "file_size", "last_modified", "removed",
+            "attempts", "attempt_times_ms",
+            "user_cpu_ms", "system_cpu_ms", "peak_rss_bytes", "io_read_bytes", "io_write_bytes"
+    };
+
+    //stay under SQLite's default limit of 999 bound parameters per statement
+    private static final int MAX_PARAMETERS_PER_STATEMENT = 900;
+    private static final int ROWS_PER_INSERT = Math.max(1, MAX_PARAMETERS_PER_STATEMENT / COLUMNS.length);
+    private static final int COPY_BUFFER_SIZE = 65536;
+
     private final boolean isPostgres;
+    private final boolean useMultiRowInsert;
+    private final boolean resume;
+    private final String table;
     private final Connection connection;
     private final PreparedStatement insert;
+    private final PreparedStatement multiRowInsert;
+    private final PreparedStatement delete;
+    private final String copySql;
 
 
     JDBCMetadataWriter(String jdbcString, int maxStdout, int maxStderr) throws IOException {
+        this(jdbcString, maxStdout, maxStderr, false);
+    }
+
+    /**
+     * @param jdbcString
+     * @param maxStdout
+     * @param maxStderr
+     * @param resume if <code>true</code>, keep the existing table and its rows
+     *               instead of dropping it
+     * @throws IOException
+     */
+    JDBCMetadataWriter(String jdbcString, int maxStdout, int maxStderr, boolean resume) throws IOException {
         int tableIndex = jdbcString.lastIndexOf(":");
         if (tableIndex < 0) {
             throw new RuntimeException("must specify table name after :");
         }
         isPostgres = jdbcString.startsWith("jdbc:postgresql");
-        String table = jdbcString.substring(tableIndex+1);
+        boolean isSqlite = jdbcString.startsWith("jdbc:sqlite");
+        useMultiRowInsert = isSqlite || jdbcString.startsWith("jdbc:h2");
+        this.resume = resume;
+        table = jdbcString.substring(tableIndex+1);
         jdbcString = jdbcString.substring(0, tableIndex);
-        String sql = "insert into "+table+" values (?,?,?,?,?," +
-                "?,?,?,?,?);";
+        String columns = String.join(",", COLUMNS);
+        copySql = "COPY " + table + " (" + columns + ") FROM STDIN";
         try {
             connection = DriverManager.getConnection(jdbcString);
+            if (isSqlite) {
+                //these have to be set outside of a transaction
+                setSqliteBulkLoadPragmas(connection);
+            }
             connection.setAutoCommit(false);
-            createTable(connection, table, maxStdout, maxStderr);
-            insert = connection.prepareStatement(sql);
+            createTable(connection, table, maxStdout, maxStderr, resume);
+            insert = connection.prepareStatement(
+                    "insert into " + table + " (" + columns + ") values " + placeholders(1));
+            delete = connection.prepareStatement("delete from " + table + " where path = ?");
+            multiRowInsert = useMultiRowInsert ? connection.prepareStatement(
+                    "insert into " + table + " (" + columns + ") values " +
+                            placeholders(ROWS_PER_INSERT)) : null;
         } catch (SQLException e) {
             LOGGER.warn("problem with connection string: >"+jdbcString+"<");
             throw new IOException(e);
         }
     }
 
+    private static String placeholders(int rows) {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) {
+                sb.append(",");
+            }
+            sb.append("(");
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (c > 0) {
+                    sb.append(",");
+                }
+                sb.append("?");
+            }
+            sb.append(")");
+        }
+        return sb.toString();
+    }
+
+    private static void setSqliteBulkLoadPragmas(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute("PRAGMA journal_mode=WAL");
+            //WAL + NORMAL is still safe against the jvm crashing
+            st.execute("PRAGMA synchronous=NORMAL");
+            st.execute("PRAGMA temp_store=MEMORY");
+            st.execute("PRAGMA cache_size=-65536");
+        }
+    }
+
     private static void createTable(Connection connection, String table,
-                                    int maxStdout, int maxStderr) throws SQLException {
-        String sql = "drop table if exists "+table;
-        connection.createStatement().execute(sql);
-
-        sql = "create table "+table+" ("+
-                "path varchar("+MAX_PATH_LENGTH+") primary key,"+
-                "exit_value integer," +
-                "timeout boolean,"+
-                "process_time_ms BIGINT,"+
-                "stdout varchar("+maxStdout+"),"+
-                "stdout_length bigint,"+
-                "stdout_truncated boolean," +
-                "stderr varchar("+maxStderr+"),"+
-                "stderr_length bigint,"+
-                "stderr_truncated boolean)";
-        connection.createStatement().execute(sql);
+                                    int maxStdout, int maxStderr, boolean resume) throws SQLException {
+        String sql;
+        if (! resume) {
+            sql = "drop table if exists " + table;
+            connection.createStatement().execute(sql);
+        }
+
+        String[] types = getColumnTypes(maxStdout, maxStderr);
+        StringBuilder sb = new StringBuilder();
+        sb.append("create table if not exists ").append(table).append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(COLUMNS[i]).append(" ").append(types[i]);
+            if (i == 0) {
+                sb.append(" primary key");
+            }
+        }
+        sb.append(")");
+        connection.createStatement().execute(sb.toString());
+        if (resume) {
+            addMissingColumns(connection, table, types);
+        }
         connection.commit();
     }
 
+    private static String[] getColumnTypes(int maxStdout, int maxStderr) {
+        return new String[]{
+                "varchar(" + MAX_PATH_LENGTH + ")",
+                "integer",
+                "boolean",
+                "bigint",
+                "varchar(" + maxStdout + ")",
+                "bigint",
+                "boolean",
+                "varchar(" + maxStderr + ")",
+                "bigint",
+                "boolean",
+                "bigint",
+                "bigint",
+                "boolean",
+                "integer",
+                "varchar(" + MAX_ATTEMPT_TIMES_LENGTH + ")",
+                "bigint",
+                "bigint",
+                "bigint",
+                "bigint",
+                "bigint"
+        };
+    }
+
+    /**
+     * A table from an older version won't have the columns that were added since,
+     * and "create table if not exists" leaves it as is, so add them.  The old rows
+     * get nulls, which are read back as unknown (-1).
+     */
+    private static void addMissingColumns(Connection connection, String table,
+                                          String[] types) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("select * from " + table + " where 1=0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                existing.add(metaData.getColumnName(i).toLowerCase(Locale.US));
+            }
+        }
+        if (! existing.contains(COLUMNS[0])) {
+            throw new SQLException("can't resume into " + table +
+                    ": it has no path column; use a new table or run without resume");
+        }
+        for (int i = 1; i < COLUMNS.length; i++) {
+            if (! existing.contains(COLUMNS[i])) {
+                LOGGER.info("adding column " + COLUMNS[i] + " to " + table);
+                try (Statement st = connection.createStatement()) {
+                    st.execute("alter table " + table + " add column " + COLUMNS[i] + " " + types[i]);
+                }
+            }
+        }
+    }
+
 
     @Override
     protected void write(PathResultPair pair) throws IOException {
-        int i = 0;
         try {
-            FileProcessResult result = pair.getResult();
-
-            insert.setString(++i, clean(pair.getRelPath(), MAX_PATH_LENGTH));
-            insert.setInt(++i, result.getExitValue());
-            insert.setBoolean(++i, result.isTimeout());
-            insert.setLong(++i, result.getProcessTimeMillis());
-            insert.setString(++i, clean(result.getStdout(), getMaxStdoutBuffer()));
-            insert.setLong(++i, result.getStdoutLength());
-            insert.setBoolean(++i, result.isStdoutTruncated());
-            insert.setString(++i, clean(result.getStderr(), getMaxStderrBuffer()));
-            insert.setLong(++i, result.getStderrLength());
-            insert.setBoolean(++i, result.isStderrTruncated());
+            setRow(insert, 0, pair);
             insert.addBatch();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
 
-            if (getRecordsWritten() % 1000 == 0) {
+    /**
+     * Sets the parameters for one row, starting after <code>offset</code>.
+     *
+     * @return the offset of the last parameter set
+     */
+    private int setRow(PreparedStatement ps, int offset, PathResultPair pair) throws SQLException {
+        int i = offset;
+        FileProcessResult result = pair.getResult();
+        ps.setString(++i, clean(pair.getRelPath(), MAX_PATH_LENGTH));
+        ps.setInt(++i, result.getExitValue());
+        ps.setBoolean(++i, result.isTimeout());
+        ps.setLong(++i, result.getProcessTimeMillis());
+        ps.setString(++i, clean(result.getStdout(), getMaxStdoutBuffer()));
+        ps.setLong(++i, result.getStdoutLength());
+        ps.setBoolean(++i, result.isStdoutTruncated());
+        ps.setString(++i, clean(result.getStderr(), getMaxStderrBuffer()));
+        ps.setLong(++i, result.getStderrLength());
+        ps.setBoolean(++i, result.isStderrTruncated());
+        ps.setLong(++i, result.getFileSize());
+        ps.setLong(++i, result.getLastModified());
+        ps.setBoolean(++i, result.isRemoved());
+        ps.setInt(++i, result.getAttempts());
+        ps.setString(++i, clean(joinAttemptTimes(result), MAX_ATTEMPT_TIMES_LENGTH));
+        ps.setLong(++i, result.getUserCpuMillis());
+        ps.setLong(++i, result.getSystemCpuMillis());
+        ps.setLong(++i, result.getPeakRssBytes());
+        ps.setLong(++i, result.getIoReadBytes());
+        ps.setLong(++i, result.getIoWriteBytes());
+        return i;
+    }
+
+    @Override
+    protected void writeBatch(List<PathResultPair> batch) throws IOException {
+        try {
+            if (isIncremental()) {
+                deleteExisting(batch);
+            }
+            if (isPostgres) {
+                copyBatch(batch);
+            } else if (useMultiRowInsert) {
+                multiRowInsertBatch(batch);
+            } else {
+                for (PathResultPair pair : batch) {
+                    write(pair);
+                }
                 insert.executeBatch();
-                connection.commit();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * In incremental runs, changed and removed files already have a row;
+     * delete those rows in the same transaction as the insert.
+     */
+    private void deleteExisting(List<PathResultPair> batch) throws SQLException {
+        for (PathResultPair pair : batch) {
+            delete.setString(1, clean(pair.getRelPath(), MAX_PATH_LENGTH));
+            delete.addBatch();
+        }
+        delete.executeBatch();
+    }
+
+    private void multiRowInsertBatch(List<PathResultPair> batch) throws SQLException, IOException {
+        int i = 0;
+        for (; i + ROWS_PER_INSERT <= batch.size(); i += ROWS_PER_INSERT) {
+            int offset = 0;
+            for (int j = i; j < i + ROWS_PER_INSERT; j++) {
+                offset = setRow(multiRowInsert, offset, batch.get(j));
+            }
+            multiRowInsert.addBatch();
+        }
+        multiRowInsert.executeBatch();
+        for (; i < batch.size(); i++) {
+            write(batch.get(i));
+        }
+        insert.executeBatch();
+    }
+
+    private void copyBatch(List<PathResultPair> batch) throws SQLException, IOException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new PGCopyOutputStream(pgConnection, copySql, COPY_BUFFER_SIZE),
+                StandardCharsets.UTF_8))) {
+            for (PathResultPair pair : batch) {
+                writeCopyRow(writer, pair, getMaxStdoutBuffer(), getMaxStderrBuffer());
+            }
+        }
+    }
+
+    /**
+     * Writes one row in COPY's text format: tab separated columns, newline terminated.
+     */
+    static void writeCopyRow(Writer writer, PathResultPair pair,
+                             int maxStdout, int maxStderr) throws IOException {
+        FileProcessResult result = pair.getResult();
+        writeCopyText(writer, clean(pair.getRelPath(), MAX_PATH_LENGTH, true));
+        writer.write('\t');
+        writer.write(Integer.toString(result.getExitValue()));
+        writer.write('\t');
+        writeCopyBoolean(writer, result.isTimeout());
+        writer.write('\t');
+        writer.write(Long.toString(result.getProcessTimeMillis()));
+        writer.write('\t');
+        writeCopyText(writer, clean(result.getStdout(), maxStdout, true));
+        writer.write('\t');
+        writer.write(Long.toString(result.getStdoutLength()));
+        writer.write('\t');
+        writeCopyBoolean(writer, result.isStdoutTruncated());
+        writer.write('\t');
+        writeCopyText(writer, clean(result.getStderr(), maxStderr, true));
+        writer.write('\t');
+        writer.write(Long.toString(result.getStderrLength()));
+        writer.write('\t');
+        writeCopyBoolean(writer, result.isStderrTruncated());
+        writer.write('\t');
+        writer.write(Long.toString(result.getFileSize()));
+        writer.write('\t');
+        writer.write(Long.toString(result.getLastModified()));
+        writer.write('\t');
+        writeCopyBoolean(writer, result.isRemoved());
+        writer.write('\t');
+        writer.write(Integer.toString(result.getAttempts()));
+        writer.write('\t');
+        writeCopyText(writer, clean(joinAttemptTimes(result), MAX_ATTEMPT_TIMES_LENGTH, true));
+        writer.write('\t');
+        writer.write(Long.toString(result.getUserCpuMillis()));
+        writer.write('\t');
+        writer.write(Long.toString(result.getSystemCpuMillis()));
+        writer.write('\t');
+        writer.write(Long.toString(result.getPeakRssBytes()));
+        writer.write('\t');
+        writer.write(Long.toString(result.getIoReadBytes()));
+        writer.write('\t');
+        writer.write(Long.toString(result.getIoWriteBytes()));
+        writer.write('\n');
+    }
+
+    private static void writeCopyBoolean(Writer writer, boolean b) throws IOException {
+        writer.write(b ? 't' : 'f');
+    }
+
+    /**
+     * Escapes a value for COPY's text format.  The value has to have been
+     * cleaned already, so it has no NULs.
+     */
+    private static void writeCopyText(Writer writer, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void loadFileStates(FileStateIndex fileStates) throws IOException {
+        if (! resume) {
+            return;
+        }
+        try (Statement st = connection.createStatement()) {
+            st.setFetchSize(10000);
+            try (ResultSet rs = st.executeQuery(
+                    "select path, file_size, last_modified, removed from " + table)) {
+                while (rs.next()) {
+                    long fileSize = rs.getLong(2);
+                    if (rs.wasNull()) {
+                        fileSize = -1;
+                    }
+                    long lastModified = rs.getLong(3);
+                    if (rs.wasNull()) {
+                        lastModified = -1;
+                    }
+                    fileStates.put(rs.getString(1), fileSize, lastModified, rs.getBoolean(4));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void forEachResult(ResultConsumer consumer) throws IOException {
+        if (! resume) {
+            return;
+        }
+        try (Statement st = connection.createStatement()) {
+            st.setFetchSize(10000);
+            try (ResultSet rs = st.executeQuery(
+                    "select " + String.join(",", COLUMNS) + " from " + table)) {
+                while (rs.next()) {
+                    int i = 0;
+                    String relPath = rs.getString(++i);
+                    FileProcessResult result = new FileProcessResult();
+                    result.setExitValue(rs.getInt(++i));
+                    result.setTimeout(rs.getBoolean(++i));
+                    result.setProcessTimeMillis(getLong(rs, ++i));
+                    result.setStdout(rs.getString(++i));
+                    result.setStdoutLength(getLong(rs, ++i));
+                    result.setStdoutTruncated(rs.getBoolean(++i));
+                    result.setStderr(rs.getString(++i));
+                    result.setStderrLength(getLong(rs, ++i));
+                    result.setStderrTruncated(rs.getBoolean(++i));
+                    result.setFileSize(getLong(rs, ++i));
+                    result.setLastModified(getLong(rs, ++i));
+                    result.setRemoved(rs.getBoolean(++i));
+                    int attempts = rs.getInt(++i);
+                    if (attempts > 0) {
+                        result.setAttempts(attempts);
+                    }
+                    result.setAttemptTimesMillis(splitAttemptTimes(rs.getString(++i)));
+                    result.setUserCpuMillis(getLong(rs, ++i));
+                    result.setSystemCpuMillis(getLong(rs, ++i));
+                    result.setPeakRssBytes(getLong(rs, ++i));
+                    result.setIoReadBytes(getLong(rs, ++i));
+                    result.setIoWriteBytes(getLong(rs, ++i));
+                    consumer.accept(relPath, result);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static long getLong(ResultSet rs, int i) throws SQLException {
+        long v = rs.getLong(i);
+        return rs.wasNull() ? -1 : v;
+    }
+
+    @Override
+    public void loadCompletedPaths(CompletedPathSet completed) throws IOException {
+        if (! resume) {
+            return;
+        }
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("select path from " + table)) {
+            while (rs.next()) {
+                completed.add(rs.getString(1));
             }
         } catch (SQLException e) {
             throw new IOException(e);
@@ -109,14 +520,26 @@ public class JDBCMetadataWriter extends MetadataWriter {
     }
 
     private String clean(String s, int maxLength) {
+        return clean(s, maxLength, isPostgres);
+    }
+
+    /**
+     * @param replaceNul Postgres can't store NUL in text columns, so replace them with spaces
+     * @return the string truncated to at most maxLength chars, without splitting a surrogate pair
+     */
+    static String clean(String s, int maxLength, boolean replaceNul) {
         if (s == null) {
             return "";
         }
-        if (isPostgres) {
-            s = s.replaceAll("\u0000", " ");
+        if (replaceNul && s.indexOf('\u0000') > -1) {
+            s = s.replace('\u0000', ' ');
         }
         if (s.length() > maxLength) {
-            s = s.substring(0, maxLength);
+            int end = maxLength;
+            if (end > 0 && Character.isHighSurrogate(s.charAt(end - 1))) {
+                end--;
+            }
+            s = s.substring(0, end);
         }
         return s;
     }
@@ -126,6 +549,10 @@ public class JDBCMetadataWriter extends MetadataWriter {
         try {
             insert.executeBatch();
             insert.close();
+            delete.close();
+            if (multiRowInsert != null) {
+                multiRowInsert.close();
+            }
             connection.commit();
             connection.close();
         } catch (SQLException e) {
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.writer;
+
+import com.google.gson.JsonObject;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.CompletedPathSet;
+import org.tallison.batchlite.FileProcessResult;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Looks up single results in the output of a {@link JSONLMetadataWriter}
+ * by relative path.
+ * <p>
+ * The index csv isn't held in memory.  Instead, it is turned into an on-disk
+ * open-addressing table keyed by the 64-bit fingerprint of the path
+ * ({@link CompletedPathSet#fingerprint(String)}), e.g. metadata-index.bin next to
+ * metadata-index.csv.  The table is rebuilt when the csv has changed since it was built
+ * (e.g. after a resumed run) and is written to a temp file if the output directory
+ * isn't writable.  Each lookup reads a few slots of the table and then one line
+ * (or, with gzip, decompresses the start of one block), which also confirms the path,
+ * so a fingerprint collision can't return the wrong result.
+ * <p>
+ * Lookups use positional reads, so this is thread safe.
+ */
+public class JSONLIndexReader implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JSONLIndexReader.class);
+
+    //"batchlt1"
+    private static final long MAGIC = 0x62617463686c7431L;
+    //magic, length of the csv it was built from, number of slots, number of paths
+    private static final int HEADER_BYTES = 32;
+    //fingerprint, block offset, offset, segment number, row (1-based; 0 is an empty slot)
+    private static final int SLOT_BYTES = 32;
+    private static final long MIN_SLOTS = 16;
+
+    /**
+     * Callback for {@link #forEachEntry(Path, EntryConsumer)}.
+     */
+    public interface EntryConsumer {
+        void accept(String relPath, String segment, long blockOffset, long offset) throws IOException;
+    }
+
+    private static class Slot {
+        private long fingerprint;
+        private long blockOffset;
+        private long offset;
+        private int segment;
+        private int row;
+    }
+
+    private final Path dir;
+    private final String baseName;
+    private final boolean gzip;
+    private final Path tableFile;
+    private final boolean tempTable;
+    private final FileChannel table;
+    private final long slots;
+    private final long size;
+
+    /**
+     * @param jsonlFile the path the writer was given, e.g. metadata.jsonl.gz
+     * @throws IOException
+     */
+    public JSONLIndexReader(Path jsonlFile) throws IOException {
+        Path abs = jsonlFile.toAbsolutePath();
+        this.dir = abs.getParent();
+        this.gzip = JSONLMetadataWriter.isGzip(abs);
+        this.baseName = JSONLMetadataWriter.getBaseName(abs);
+        Path indexFile = JSONLMetadataWriter.getIndexFile(abs);
+        long indexLength = Files.isRegularFile(indexFile) ? Files.size(indexFile) : 0;
+        Path lookupFile = JSONLMetadataWriter.getLookupFile(abs);
+        Path t = lookupFile;
+        boolean temp = false;
+        if (! isCurrent(lookupFile, indexLength)) {
+            Path tmp;
+            try {
+                tmp = Files.createTempFile(dir, lookupFile.getFileName().toString(), ".tmp");
+            } catch (IOException e) {
+                LOGGER.warn("can't write the lookup table next to " + indexFile +
+                        "; building it in a temp file", e);
+                tmp = Files.createTempFile("batchlite-jsonl-index-", ".bin");
+                temp = true;
+            }
+            build(indexFile, indexLength, tmp);
+            if (temp) {
+                t = tmp;
+            } else {
+                Files.move(tmp, lookupFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        this.tableFile = t;
+        this.tempTable = temp;
+        this.table = FileChannel.open(t, StandardOpenOption.READ);
+        ByteBuffer header = read(table, 0, HEADER_BYTES);
+        header.getLong();
+        header.getLong();
+        this.slots = header.getLong();
+        this.size = header.getLong();
+    }
+
+    /**
+     * @return number of paths in the index
+     */
+    public int size() {
+        return (int) size;
+    }
+
+    /**
+     * @param relPath
+     * @return the result for this path or <code>null</code> if it isn't in the index
+     * @throws IOException
+     */
+    public FileProcessResult get(String relPath) throws IOException {
+        long fp = CompletedPathSet.fingerprint(relPath);
+        //the same path written more than once, or (rarely) other paths with this fingerprint
+        List<Slot> candidates = new ArrayList<>();
+        long i = fp & (slots - 1);
+        Slot slot = readSlot(i);
+        while (slot.row != 0) {
+            if (slot.fingerprint == fp) {
+                candidates.add(slot);
+            }
+            i = (i + 1) & (slots - 1);
+            slot = readSlot(i);
+        }
+        //the last one written wins
+        candidates.sort((a, b) -> Integer.compare(b.row, a.row));
+        for (Slot candidate : candidates) {
+            JsonObject obj = readLine(candidate);
+            if (obj != null && obj.has("path") && relPath.equals(obj.get("path").getAsString())) {
+                return JSONLMetadataWriter.toResult(obj);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        table.close();
+        if (tempTable) {
+            Files.deleteIfExists(tableFile);
+        }
+    }
+
+    private JsonObject readLine(Slot slot) throws IOException {
+        String segment = JSONLMetadataWriter.getSegmentName(baseName, slot.segment, gzip);
+        try (SeekableByteChannel channel = Files.newByteChannel(dir.resolve(segment))) {
+            channel.position(slot.blockOffset);
+            InputStream is = Channels.newInputStream(channel);
+            if (gzip) {
+                is = new GZIPInputStream(is);
+            }
+            long skipped = 0;
+            while (skipped < slot.offset) {
+                long s = is.skip(slot.offset - skipped);
+                if (s <= 0) {
+                    throw new IOException("segment " + segment + " is shorter than the index says");
+                }
+                skipped += s;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            return JSONLMetadataWriter.parseLine(reader.readLine());
+        }
+    }
+
+    private Slot readSlot(long i) throws IOException {
+        return readSlot(table, i);
+    }
+
+    private static Slot readSlot(FileChannel channel, long i) throws IOException {
+        ByteBuffer bytes = read(channel, HEADER_BYTES + i * SLOT_BYTES, SLOT_BYTES);
+        Slot slot = new Slot();
+        slot.fingerprint = bytes.getLong();
+        slot.blockOffset = bytes.getLong();
+        slot.offset = bytes.getLong();
+        slot.segment = bytes.getInt();
+        slot.row = bytes.getInt();
+        return slot;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) {
+                throw new IOException("lookup table is truncated");
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private static void write(FileChannel channel, long position, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, position + bytes.position());
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the lookup table was built from the index csv as it is now
+     */
+    private static boolean isCurrent(Path lookupFile, long indexLength) throws IOException {
+        if (! Files.isRegularFile(lookupFile) || Files.size(lookupFile) < HEADER_BYTES) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lookupFile, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            return header.getLong() == MAGIC && header.getLong() == indexLength;
+        }
+    }
+
+    private void build(Path indexFile, long indexLength, Path tableFile) throws IOException {
+        long[] rows = new long[1];
+        forEachEntry(indexFile, (relPath, segment, blockOffset, offset) -> rows[0]++);
+        if (rows[0] > Integer.MAX_VALUE) {
+            throw new IOException("too many rows in " + indexFile);
+        }
+        //at most half full
+        long slotCount = MIN_SLOTS;
+        while (slotCount < rows[0] * 2) {
+            slotCount *= 2;
+        }
+        long mask = slotCount - 1;
+        Pattern segmentPattern = JSONLMetadataWriter.getSegmentPattern(baseName, gzip);
+        long[] paths = new long[1];
+        int[] row = new int[1];
+        try (FileChannel channel = FileChannel.open(tableFile, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            //zero-filled
+            channel.truncate(0);
+            write(channel, HEADER_BYTES + slotCount * SLOT_BYTES - 1, ByteBuffer.allocate(1));
+            forEachEntry(indexFile, (relPath, segment, blockOffset, offset) -> {
+                if (row[0] >= rows[0]) {
+                    //appended by a writer since the rows were counted;
+                    //the csv's length has changed, so the next reader will rebuild
+                    return;
+                }
+                Matcher m = segmentPattern.matcher(segment);
+                if (! m.matches()) {
+                    throw new IOException("unexpected segment name in " + indexFile + ": " + segment);
+                }
+                long fp = CompletedPathSet.fingerprint(relPath);
+                boolean seen = false;
+                long i = fp & mask;
+                Slot slot = readSlot(channel, i);
+                while (slot.row != 0) {
+                    seen |= slot.fingerprint == fp;
+                    i = (i + 1) & mask;
+                    slot = readSlot(channel, i);
+                }
+                if (! seen) {
+                    paths[0]++;
+                }
+                ByteBuffer bytes = ByteBuffer.allocate(SLOT_BYTES);
+                bytes.putLong(fp).putLong(blockOffset).putLong(offset)
+                        .putInt(Integer.parseInt(m.group(1))).putInt(++row[0]);
+                bytes.flip();
+                write(channel, HEADER_BYTES + i * SLOT_BYTES, bytes);
+            });
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putLong(MAGIC).putLong(indexLength).putLong(slotCount).putLong(paths[0]);
+            header.flip();
+            write(channel, 0, header);
+        }
+    }
+
+    /**
+     * Reads the index in the order it was written.
+     *
+     * @param indexFile
+     * @param consumer
+     * @throws IOException
+     */
+    public static void forEachEntry(Path indexFile, EntryConsumer consumer) throws IOException {
+        if (! Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withFirstRecordAsHeader())) {
+            for (CSVRecord record : parser) {
+                if (! record.isConsistent()) {
+                    //e.g. a partial last row after a crash
+                    continue;
+                }
+                consumer.accept(record.get("path"), record.get("segment"),
+                        Long.parseLong(record.get("blockOffset")),
+                        Long.parseLong(record.get("offset")));
+            }
+        }
+    }
+}
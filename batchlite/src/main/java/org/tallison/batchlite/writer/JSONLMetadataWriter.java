@@ -0,0 +1,447 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.writer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.CompletedPathSet;
+import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.FileStateIndex;
+import org.tallison.batchlite.MetadataWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Writes one JSON object per line, with the relative path in "path" and the
+ * result's fields, to rolling segment files.  For metadata.jsonl (or
+ * metadata.jsonl.gz), the segments are metadata-00000.jsonl, metadata-00001.jsonl, ...
+ * next to it, and metadata-index.csv records the segment and offset of each path,
+ * so that single results can be read with {@link JSONLIndexReader}
+ * without scanning the segments.
+ * <p>
+ * Each batch is written as a block; with .gz, each block is its own gzip member,
+ * so a segment is still a valid gzip file.  The index records the block's byte
+ * offset in the segment and the line's offset within the (uncompressed) block;
+ * without compression, the line's offset is always 0.
+ * <p>
+ * Resumed and incremental runs start a new segment and append to the index;
+ * if a path appears more than once, the last line wins.  After a crash, a gzip
+ * segment may end in a truncated block; reading stops at the last complete block.
+ */
+public class JSONLMetadataWriter extends MetadataWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JSONLMetadataWriter.class);
+
+    private static final Gson GSON = new Gson();
+    static final String JSONL = ".jsonl";
+    static final String GZ = ".gz";
+    static final String[] INDEX_HEADER = new String[]{"path", "segment", "blockOffset", "offset"};
+    private static final long DEFAULT_MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+    private static final int GZIP_HEADER_BYTES = 10;
+    private static final int GZIP_TRAILER_BYTES = 8;
+    private static final int GZIP_READ_BUFFER = 8192;
+
+    private final Path dir;
+    private final String baseName;
+    private final boolean gzip;
+    private final boolean resume;
+    private final Path indexFile;
+    private final CSVPrinter index;
+    private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+    private int segmentNumber;
+    private String segmentName = null;
+    private OutputStream segment = null;
+    private long segmentOffset = 0;
+
+    /**
+     * @param jsonlFile e.g. metadata.jsonl or metadata.jsonl.gz; this names the
+     *                  segments and the index, it isn't written itself
+     * @param resume if <code>true</code>, keep the existing segments and index and
+     *               add to them; otherwise they're deleted
+     * @throws IOException
+     */
+    JSONLMetadataWriter(Path jsonlFile, boolean resume) throws IOException {
+        Path abs = jsonlFile.toAbsolutePath();
+        this.dir = abs.getParent();
+        this.gzip = isGzip(abs);
+        this.baseName = getBaseName(abs);
+        this.indexFile = getIndexFile(abs);
+        Files.createDirectories(dir);
+        this.resume = resume && Files.isRegularFile(indexFile);
+        if (! this.resume) {
+            for (Path p : listSegments()) {
+                Files.delete(p);
+            }
+            Files.deleteIfExists(indexFile);
+            Files.deleteIfExists(getLookupFile(abs));
+        }
+        segmentNumber = nextSegmentNumber();
+        boolean exists = Files.isRegularFile(indexFile);
+        index = new CSVPrinter(Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), CSVFormat.EXCEL);
+        if (! exists) {
+            index.printRecord((Object[]) INDEX_HEADER);
+        }
+    }
+
+    /**
+     * @param maxSegmentBytes start a new segment once a segment reaches this size
+     */
+    public void setMaxSegmentBytes(long maxSegmentBytes) {
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    @Override
+    protected void write(PathResultPair pair) throws IOException {
+        writeBatch(Collections.singletonList(pair));
+    }
+
+    @Override
+    protected void writeBatch(List<PathResultPair> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (segment == null || segmentOffset >= maxSegmentBytes) {
+            nextSegment();
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        List<Long> lineOffsets = new ArrayList<>();
+        for (PathResultPair pair : batch) {
+            lineOffsets.add((long) block.size());
+            block.write(toJson(pair.getRelPath(), pair.getResult()).getBytes(StandardCharsets.UTF_8));
+            block.write('\n');
+        }
+        byte[] bytes = block.toByteArray();
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gz = new GZIPOutputStream(compressed)) {
+                gz.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+        }
+        segment.write(bytes);
+        for (int i = 0; i < batch.size(); i++) {
+            if (gzip) {
+                index.printRecord(batch.get(i).getRelPath(), segmentName, segmentOffset,
+                        lineOffsets.get(i));
+            } else {
+                index.printRecord(batch.get(i).getRelPath(), segmentName,
+                        segmentOffset + lineOffsets.get(i), 0);
+            }
+        }
+        segmentOffset += bytes.length;
+    }
+
+    /**
+     * Flushes the segment before the index, so that the index never points
+     * past the end of a segment.
+     */
+    @Override
+    protected void flush() throws IOException {
+        if (segment != null) {
+            segment.flush();
+        }
+        index.flush();
+    }
+
+    @Override
+    public void loadCompletedPaths(CompletedPathSet completed) throws IOException {
+        if (! resume) {
+            return;
+        }
+        JSONLIndexReader.forEachEntry(indexFile, (relPath, segment, blockOffset, offset) ->
+                completed.add(relPath));
+    }
+
+    @Override
+    public void loadFileStates(FileStateIndex fileStates) throws IOException {
+        if (! resume) {
+            return;
+        }
+        forEachResult((relPath, result) -> fileStates.put(relPath,
+                result.getFileSize(), result.getLastModified(), result.isRemoved()));
+    }
+
+    /**
+     * Reads the segments in order, so for a path that appears more than once,
+     * the last result is the current one.
+     */
+    @Override
+    public void forEachResult(ResultConsumer consumer) throws IOException {
+        if (! resume) {
+            return;
+        }
+        for (Path p : listSegments()) {
+            if (gzip) {
+                forEachGzipBlock(p, consumer);
+            } else {
+                try (InputStream is = Files.newInputStream(p)) {
+                    forEachLine(is, consumer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one gzip member (block) at a time, so that a block that was
+     * truncated by a crash is dropped as a whole.
+     */
+    private void forEachGzipBlock(Path segmentFile, ResultConsumer consumer) throws IOException {
+        try (PushbackInputStream is = new PushbackInputStream(
+                new BufferedInputStream(Files.newInputStream(segmentFile)), GZIP_READ_BUFFER)) {
+            byte[] block = readGzipMember(is);
+            while (block != null) {
+                forEachLine(new ByteArrayInputStream(block), consumer);
+                block = readGzipMember(is);
+            }
+        } catch (EOFException e) {
+            LOGGER.warn("skipping the truncated last block of " + segmentFile);
+        }
+    }
+
+    private static void forEachLine(InputStream is, ResultConsumer consumer) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        while (line != null) {
+            JsonObject obj = parseLine(line);
+            if (obj != null && obj.has("path")) {
+                consumer.accept(obj.get("path").getAsString(), toResult(obj));
+            }
+            line = reader.readLine();
+        }
+    }
+
+    /**
+     * Reads a single gzip member as written by {@link GZIPOutputStream}.
+     *
+     * @return the uncompressed bytes or <code>null</code> at the end of the stream
+     * @throws EOFException if the member is truncated
+     * @throws IOException if the member is corrupt
+     */
+    static byte[] readGzipMember(PushbackInputStream is) throws IOException {
+        byte[] header = new byte[GZIP_HEADER_BYTES];
+        int first = is.read();
+        if (first < 0) {
+            return null;
+        }
+        header[0] = (byte) first;
+        readFully(is, header, 1, header.length - 1);
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != Deflater.DEFLATED) {
+            throw new IOException("not a gzip member");
+        }
+        if (header[3] != 0) {
+            //GZIPOutputStream doesn't write a file name, comment or extra field
+            throw new IOException("unexpected gzip header flags: " + header[3]);
+        }
+        Inflater inflater = new Inflater(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+        try {
+            byte[] in = new byte[GZIP_READ_BUFFER];
+            byte[] buffer = new byte[GZIP_READ_BUFFER];
+            int r = 0;
+            while (! inflater.finished()) {
+                if (inflater.needsInput()) {
+                    r = is.read(in);
+                    if (r < 0) {
+                        throw new EOFException("truncated gzip member");
+                    }
+                    inflater.setInput(in, 0, r);
+                }
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new IOException("unexpected deflate dictionary");
+                }
+                out.write(buffer, 0, n);
+                crc.update(buffer, 0, n);
+            }
+            //what was read past the end of this member belongs to the next one
+            int remaining = inflater.getRemaining();
+            if (remaining > 0) {
+                is.unread(in, r - remaining, remaining);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt gzip member", e);
+        } finally {
+            inflater.end();
+        }
+        byte[] trailer = new byte[GZIP_TRAILER_BYTES];
+        readFully(is, trailer, 0, trailer.length);
+        ByteBuffer le = ByteBuffer.wrap(trailer).order(ByteOrder.LITTLE_ENDIAN);
+        if ((le.getInt() & 0xffffffffL) != crc.getValue() || le.getInt() != out.size()) {
+            throw new IOException("gzip member failed its crc or length check");
+        }
+        return out.toByteArray();
+    }
+
+    private static void readFully(InputStream is, byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int r = is.read(bytes, offset, length);
+            if (r < 0) {
+                throw new EOFException("truncated gzip member");
+            }
+            offset += r;
+            length -= r;
+        }
+    }
+
+    @Override
+    protected void close() throws IOException {
+        flush();
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+        index.close();
+    }
+
+    private void nextSegment() throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segmentName = getSegmentName(baseName, segmentNumber++, gzip);
+        segment = Files.newOutputStream(dir.resolve(segmentName));
+        segmentOffset = 0;
+        LOGGER.debug("starting metadata segment " + segmentName);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        TreeMap<Integer, Path> segments = new TreeMap<>();
+        Pattern pattern = getSegmentPattern(baseName, gzip);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, baseName + "-*")) {
+            for (Path p : stream) {
+                Matcher m = pattern.matcher(p.getFileName().toString());
+                if (m.matches()) {
+                    segments.put(Integer.parseInt(m.group(1)), p);
+                }
+            }
+        }
+        //in the order they were written
+        return new ArrayList<>(segments.values());
+    }
+
+    private int nextSegmentNumber() throws IOException {
+        List<Path> segments = listSegments();
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Matcher m = getSegmentPattern(baseName, gzip).matcher(
+                segments.get(segments.size() - 1).getFileName().toString());
+        m.matches();
+        return Integer.parseInt(m.group(1)) + 1;
+    }
+
+    static String toJson(String relPath, FileProcessResult result) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("path", relPath);
+        GSON.toJsonTree(result).getAsJsonObject().entrySet()
+                .forEach(e -> obj.add(e.getKey(), e.getValue()));
+        return GSON.toJson(obj);
+    }
+
+    static JsonObject parseLine(String line) {
+        if (line == null) {
+            return null;
+        }
+        try {
+            return JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            //e.g. a partial last line after a crash
+            return null;
+        }
+    }
+
+    static FileProcessResult toResult(JsonObject obj) {
+        return GSON.fromJson(obj, FileProcessResult.class);
+    }
+
+    /**
+     * @param path
+     * @return <code>true</code> if this names a jsonl writer, e.g. metadata.jsonl or metadata.jsonl.gz
+     */
+    static boolean isJSONL(String path) {
+        String lc = path.toLowerCase(Locale.US);
+        return lc.endsWith(JSONL) || lc.endsWith(JSONL + GZ);
+    }
+
+    static boolean isGzip(Path jsonlFile) {
+        return jsonlFile.getFileName().toString().toLowerCase(Locale.US).endsWith(GZ);
+    }
+
+    /**
+     * @return the file name without .jsonl or .jsonl.gz
+     */
+    static String getBaseName(Path jsonlFile) {
+        String name = jsonlFile.getFileName().toString();
+        int i = name.toLowerCase(Locale.US).lastIndexOf(JSONL);
+        return name.substring(0, i);
+    }
+
+    static Path getIndexFile(Path jsonlFile) {
+        return jsonlFile.resolveSibling(getBaseName(jsonlFile) + "-index.csv");
+    }
+
+    /**
+     * @return the on-disk lookup table that {@link JSONLIndexReader} builds from the index
+     */
+    static Path getLookupFile(Path jsonlFile) {
+        return jsonlFile.resolveSibling(getBaseName(jsonlFile) + "-index.bin");
+    }
+
+    static String getSegmentName(String baseName, int number, boolean gzip) {
+        return String.format(Locale.US, "%s-%05d%s%s", baseName, number, JSONL, gzip ? GZ : "");
+    }
+
+    static Pattern getSegmentPattern(String baseName, boolean gzip) {
+        return Pattern.compile(Pattern.quote(baseName) + "-(\\d{5,})" +
+                Pattern.quote(JSONL + (gzip ? GZ : "")));
+    }
+}
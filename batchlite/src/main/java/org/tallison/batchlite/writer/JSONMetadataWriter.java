@@ -17,12 +17,18 @@
 package org.tallison.batchlite.writer;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.FileStateIndex;
 import org.tallison.batchlite.MetadataWriter;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 public class JSONMetadataWriter extends MetadataWriter {
 
@@ -43,6 +49,38 @@ public class JSONMetadataWriter extends MetadataWriter {
         Files.write(target, GSON.toJson(pair.getResult()).getBytes(StandardCharsets.UTF_8));
     }
 
+    @Override
+    public void loadFileStates(FileStateIndex fileStates) throws IOException {
+        forEachResult((relPath, result) -> fileStates.put(relPath,
+                result.getFileSize(), result.getLastModified(), result.isRemoved()));
+    }
+
+    @Override
+    public void forEachResult(ResultConsumer consumer) throws IOException {
+        if (! Files.isDirectory(metadataRootDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(metadataRootDir)) {
+            Iterator<Path> it = paths.iterator();
+            while (it.hasNext()) {
+                Path p = it.next();
+                String relPath = metadataRootDir.relativize(p).toString();
+                if (! relPath.endsWith(".json") || ! Files.isRegularFile(p)) {
+                    continue;
+                }
+                FileProcessResult result;
+                try (Reader reader = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                    result = GSON.fromJson(reader, FileProcessResult.class);
+                } catch (JsonParseException e) {
+                    continue;
+                }
+                if (result != null) {
+                    consumer.accept(relPath.substring(0, relPath.length() - 5), result);
+                }
+            }
+        }
+    }
+
     @Override
     public void close() throws IOException {
         //no-op
@@ -17,19 +17,62 @@
 package org.tallison.batchlite.writer;
 
 import org.tallison.batchlite.MetadataWriter;
+import org.tallison.batchlite.Partition;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Locale;
 
 public class MetadataWriterFactory {
 
     public static MetadataWriter build(String writerString, int maxStdout, int maxStderr) throws IOException {
+        return build(writerString, maxStdout, maxStderr, false);
+    }
+
+    /**
+     * @param writerString
+     * @param maxStdout
+     * @param maxStderr
+     * @param resume whether to keep and append to the output of a previous run
+     * @return
+     * @throws IOException
+     */
+    public static MetadataWriter build(String writerString, int maxStdout, int maxStderr,
+                                       boolean resume) throws IOException {
         if (writerString.startsWith("jdbc:")) {
-            return new JDBCMetadataWriter(writerString, maxStdout, maxStderr);
+            return new JDBCMetadataWriter(writerString, maxStdout, maxStderr, resume);
         } else if (writerString.endsWith(".csv") || writerString.endsWith(".tsv")) {
-            return new CSVMetadataWriter(Paths.get(writerString));
+            return new CSVMetadataWriter(Paths.get(writerString), resume);
+        } else if (writerString.endsWith(".parquet")) {
+            return new ParquetMetadataWriter(Paths.get(writerString), resume);
+        } else if (JSONLMetadataWriter.isJSONL(writerString)) {
+            return new JSONLMetadataWriter(Paths.get(writerString), resume);
         } else {
             return new JSONMetadataWriter(Paths.get(writerString));
         }
     }
+
+    /**
+     * @param writerString
+     * @param partition
+     * @return the writer string for this partition's shard of the output: for jdbc,
+     * the table name gets a suffix, e.g. file_metadata_part_2_of_8; for files and
+     * directories, the name does, e.g. metadata-part-2-of-8.csv
+     */
+    public static String shard(String writerString, Partition partition) {
+        if (writerString.startsWith("jdbc:")) {
+            return writerString + partition.getSuffix().replace('-', '_');
+        }
+        String lc = writerString.toLowerCase(Locale.US);
+        if (lc.endsWith(".csv") || lc.endsWith(".tsv") || lc.endsWith(".parquet")) {
+            return partition.shard(Paths.get(writerString)).toString();
+        }
+        if (JSONLMetadataWriter.isJSONL(writerString)) {
+            //before .jsonl(.gz), e.g. metadata-part-2-of-8.jsonl.gz
+            int i = lc.lastIndexOf(JSONLMetadataWriter.JSONL);
+            return writerString.substring(0, i) + partition.getSuffix() + writerString.substring(i);
+        }
+        //json writes a directory of files, which may have a dot in its name
+        return writerString + partition.getSuffix();
+    }
 }
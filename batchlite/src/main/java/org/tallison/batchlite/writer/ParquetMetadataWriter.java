@@ -0,0 +1,523 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.writer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.InitContext;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.DelegatingSeekableInputStream;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.SeekableInputStream;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tallison.batchlite.CompletedPathSet;
+import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.FileStateIndex;
+import org.tallison.batchlite.MetadataWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Writes results to local parquet files: results.parquet is written as
+ * results-00000.parquet, results-00001.parquet, ... rolling over to a
+ * new file once a file reaches {@link #setMaxFileBytes(long)}.
+ * <p>
+ * Columns are dictionary encoded (stderr is often the same handful of
+ * messages) and pages are compressed.  This only uses the hadoop
+ * client libraries for configuration; no cluster or hadoop filesystem is needed.
+ * <p>
+ * Resumed and incremental runs keep the existing files and continue the
+ * numbering after the highest one; otherwise, the existing files are deleted.
+ * <p>
+ * NOTE: a parquet file can't be read until it has been closed, so if the
+ * run dies, the rows in the file that was open are lost.  On resume, a file
+ * that can't be read (e.g. it has no footer) is renamed to *.parquet.corrupt
+ * with a warning, and the paths in it are processed again.
+ */
+public class ParquetMetadataWriter extends MetadataWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParquetMetadataWriter.class);
+
+    private static final long DEFAULT_MAX_FILE_BYTES = 512L * 1024 * 1024;
+    private static final int DEFAULT_ROW_GROUP_BYTES = 64 * 1024 * 1024;
+    private static final String EXTENSION = ".parquet";
+    private static final String CORRUPT_EXTENSION = ".corrupt";
+
+    private static final MessageType SCHEMA = Types.buildMessage()
+            .required(PrimitiveType.PrimitiveTypeName.BINARY)
+                .as(LogicalTypeAnnotation.stringType()).named("path")
+            .required(PrimitiveType.PrimitiveTypeName.INT32).named("exit_value")
+            .required(PrimitiveType.PrimitiveTypeName.BOOLEAN).named("timeout")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("process_time_ms")
+            .optional(PrimitiveType.PrimitiveTypeName.BINARY)
+                .as(LogicalTypeAnnotation.stringType()).named("stdout")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("stdout_length")
+            .required(PrimitiveType.PrimitiveTypeName.BOOLEAN).named("stdout_truncated")
+            .optional(PrimitiveType.PrimitiveTypeName.BINARY)
+                .as(LogicalTypeAnnotation.stringType()).named("stderr")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("stderr_length")
+            .required(PrimitiveType.PrimitiveTypeName.BOOLEAN).named("stderr_truncated")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("file_size")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("last_modified")
+            .required(PrimitiveType.PrimitiveTypeName.BOOLEAN).named("removed")
+            .required(PrimitiveType.PrimitiveTypeName.INT32).named("attempts")
+            .repeated(PrimitiveType.PrimitiveTypeName.INT64).named("attempt_times_ms")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("user_cpu_ms")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("system_cpu_ms")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("peak_rss_bytes")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("io_read_bytes")
+            .required(PrimitiveType.PrimitiveTypeName.INT64).named("io_write_bytes")
+            .named("file_metadata");
+
+    private final SimpleGroupFactory groupFactory = new SimpleGroupFactory(SCHEMA);
+    private final Path dir;
+    private final String baseName;
+    private final Configuration conf = new Configuration();
+    private long maxFileBytes = DEFAULT_MAX_FILE_BYTES;
+    private int rowGroupBytes = DEFAULT_ROW_GROUP_BYTES;
+    private CompressionCodecName codec = CompressionCodecName.SNAPPY;
+    private final boolean resume;
+    private ParquetWriter<Group> writer = null;
+    private int fileIndex = 0;
+
+    ParquetMetadataWriter(Path parquetFile) throws IOException {
+        this(parquetFile, false);
+    }
+
+    /**
+     * @param parquetFile e.g. results.parquet; this names the files, it isn't written itself
+     * @param resume if <code>true</code>, keep the existing files and add new ones
+     *               after them; otherwise they're deleted
+     * @throws IOException
+     */
+    ParquetMetadataWriter(Path parquetFile, boolean resume) throws IOException {
+        Path absolute = parquetFile.toAbsolutePath();
+        this.dir = absolute.getParent();
+        String name = absolute.getFileName().toString();
+        if (name.toLowerCase(Locale.US).endsWith(EXTENSION)) {
+            name = name.substring(0, name.length() - EXTENSION.length());
+        }
+        this.baseName = name;
+        this.resume = resume;
+        if (! Files.isDirectory(dir)) {
+            Files.createDirectories(dir);
+        }
+        List<Path> existing = listFiles();
+        if (resume) {
+            if (existing.size() > 0) {
+                fileIndex = getFileIndex(existing.get(existing.size() - 1)) + 1;
+            }
+            for (Path p : existing) {
+                if (! isReadable(p)) {
+                    //the number can be reused after a file is moved aside,
+                    //so don't overwrite an earlier one
+                    Path aside = p.resolveSibling(p.getFileName() + CORRUPT_EXTENSION);
+                    for (int i = 1; Files.exists(aside); i++) {
+                        aside = p.resolveSibling(p.getFileName() + CORRUPT_EXTENSION + "-" + i);
+                    }
+                    LOGGER.warn("can't read " + p + ", probably because the run that was " +
+                            "writing it died; moving it to " + aside +
+                            ". The files in it will be processed again.");
+                    Files.move(p, aside);
+                }
+            }
+        } else {
+            for (Path p : existing) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Override
+    protected void write(PathResultPair pair) throws IOException {
+        if (writer == null) {
+            writer = openNext();
+        }
+        FileProcessResult result = pair.getResult();
+        Group g = groupFactory.newGroup()
+                .append("path", pair.getRelPath())
+                .append("exit_value", result.getExitValue())
+                .append("timeout", result.isTimeout())
+                .append("process_time_ms", result.getProcessTimeMillis());
+        if (result.getStdout() != null) {
+            g.append("stdout", result.getStdout());
+        }
+        g.append("stdout_length", result.getStdoutLength())
+                .append("stdout_truncated", result.isStdoutTruncated());
+        if (result.getStderr() != null) {
+            g.append("stderr", result.getStderr());
+        }
+        g.append("stderr_length", result.getStderrLength())
+                .append("stderr_truncated", result.isStderrTruncated())
+                .append("file_size", result.getFileSize())
+                .append("last_modified", result.getLastModified())
+                .append("removed", result.isRemoved())
+                .append("attempts", result.getAttempts());
+        if (result.getAttemptTimesMillis() != null) {
+            for (long t : result.getAttemptTimesMillis()) {
+                g.append("attempt_times_ms", t);
+            }
+        }
+        g.append("user_cpu_ms", result.getUserCpuMillis())
+                .append("system_cpu_ms", result.getSystemCpuMillis())
+                .append("peak_rss_bytes", result.getPeakRssBytes())
+                .append("io_read_bytes", result.getIoReadBytes())
+                .append("io_write_bytes", result.getIoWriteBytes());
+        writer.write(g);
+        if (writer.getDataSize() >= maxFileBytes) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Reads the rows from the existing files for this writer's base name,
+     * e.g. results-00000.parquet, results-00001.parquet, ...
+     */
+    @Override
+    public void forEachResult(ResultConsumer consumer) throws IOException {
+        if (! resume) {
+            return;
+        }
+        forEachGroup(null, g -> consumer.accept(g.getString("path", 0), toResult(g)));
+    }
+
+    @Override
+    public void loadCompletedPaths(CompletedPathSet completed) throws IOException {
+        if (! resume) {
+            return;
+        }
+        forEachGroup(Collections.singleton("path"), g -> completed.add(g.getString("path", 0)));
+    }
+
+    @Override
+    public void loadFileStates(FileStateIndex fileStates) throws IOException {
+        if (! resume) {
+            return;
+        }
+        Set<String> columns = new HashSet<>(Arrays.asList("path", "file_size", "last_modified", "removed"));
+        forEachGroup(columns, g -> {
+            if (has(g, "file_size")) {
+                fileStates.put(g.getString("path", 0), g.getLong("file_size", 0),
+                        g.getLong("last_modified", 0), g.getBoolean("removed", 0));
+            } else {
+                fileStates.put(g.getString("path", 0), -1, -1, false);
+            }
+        });
+    }
+
+    private interface GroupConsumer {
+        void accept(Group g) throws IOException;
+    }
+
+    /**
+     * @param columns columns to read, or <code>null</code> for all of them; columns
+     *                that aren't in a file are skipped
+     */
+    private void forEachGroup(Set<String> columns, GroupConsumer consumer) throws IOException {
+        for (Path file : listFiles()) {
+            try (ParquetReader<Group> reader = new ParquetReader.Builder<Group>(new LocalInputFile(file)) {
+                @Override
+                protected ReadSupport<Group> getReadSupport() {
+                    return columns == null ? new GroupReadSupport() : new ProjectedReadSupport(columns);
+                }
+            }.withConf(conf).build()) {
+                Group g = reader.read();
+                while (g != null) {
+                    consumer.accept(g);
+                    g = reader.read();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the file's footer can't be read
+     */
+    private static boolean isReadable(Path file) {
+        try (ParquetFileReader reader = ParquetFileReader.open(new LocalInputFile(file))) {
+            return reader.getFooter() != null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("can't read " + file, e);
+            return false;
+        }
+    }
+
+    private static int getFileIndex(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(name.lastIndexOf('-') + 1,
+                name.length() - EXTENSION.length()));
+    }
+
+    private List<Path> listFiles() throws IOException {
+        Pattern pattern = Pattern.compile(Pattern.quote(baseName) + "-\\d+" + Pattern.quote(EXTENSION));
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                if (pattern.matcher(p.getFileName().toString()).matches()) {
+                    files.add(p);
+                }
+            }
+        }
+        files.sort(Comparator.comparingInt(ParquetMetadataWriter::getFileIndex));
+        return files;
+    }
+
+    //columns that were added later may be missing from older files
+    private static FileProcessResult toResult(Group g) {
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue(g.getInteger("exit_value", 0));
+        result.setTimeout(g.getBoolean("timeout", 0));
+        result.setProcessTimeMillis(g.getLong("process_time_ms", 0));
+        if (has(g, "stdout")) {
+            result.setStdout(g.getString("stdout", 0));
+        }
+        result.setStdoutLength(g.getLong("stdout_length", 0));
+        result.setStdoutTruncated(g.getBoolean("stdout_truncated", 0));
+        if (has(g, "stderr")) {
+            result.setStderr(g.getString("stderr", 0));
+        }
+        result.setStderrLength(g.getLong("stderr_length", 0));
+        result.setStderrTruncated(g.getBoolean("stderr_truncated", 0));
+        if (has(g, "file_size")) {
+            result.setFileSize(g.getLong("file_size", 0));
+            result.setLastModified(g.getLong("last_modified", 0));
+            result.setRemoved(g.getBoolean("removed", 0));
+        }
+        if (has(g, "attempts")) {
+            result.setAttempts(g.getInteger("attempts", 0));
+        }
+        if (has(g, "attempt_times_ms")) {
+            long[] times = new long[g.getFieldRepetitionCount("attempt_times_ms")];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = g.getLong("attempt_times_ms", i);
+            }
+            result.setAttemptTimesMillis(times);
+        }
+        if (has(g, "user_cpu_ms")) {
+            result.setUserCpuMillis(g.getLong("user_cpu_ms", 0));
+            result.setSystemCpuMillis(g.getLong("system_cpu_ms", 0));
+            result.setPeakRssBytes(g.getLong("peak_rss_bytes", 0));
+            result.setIoReadBytes(g.getLong("io_read_bytes", 0));
+            result.setIoWriteBytes(g.getLong("io_write_bytes", 0));
+        }
+        return result;
+    }
+
+    private static boolean has(Group g, String field) {
+        return g.getType().containsField(field) && g.getFieldRepetitionCount(field) > 0;
+    }
+
+    private ParquetWriter<Group> openNext() throws IOException {
+        Path file = dir.resolve(String.format(Locale.US, "%s-%05d%s",
+                baseName, fileIndex++, EXTENSION));
+        LOGGER.debug("opening " + file);
+        return ExampleParquetWriter.builder(new LocalOutputFile(file))
+                .withConf(conf)
+                .withType(SCHEMA)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .withCompressionCodec(codec)
+                .withDictionaryEncoding(true)
+                .withRowGroupSize((long) rowGroupBytes)
+                .withWriterVersion(ParquetProperties.WriterVersion.PARQUET_1_0)
+                .build();
+    }
+
+    @Override
+    protected void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * @param maxFileBytes roll over to a new file once the current one reaches
+     *                     (approximately) this many bytes
+     */
+    public void setMaxFileBytes(long maxFileBytes) {
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * @param rowGroupBytes target size of a row group before it is flushed
+     */
+    public void setRowGroupBytes(int rowGroupBytes) {
+        this.rowGroupBytes = rowGroupBytes;
+    }
+
+    /**
+     * @param codec page compression, e.g. SNAPPY (default), GZIP or ZSTD
+     */
+    public void setCompressionCodec(CompressionCodecName codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Parquet's {@link OutputFile} over a local file, so that we don't
+     * need a hadoop filesystem.
+     */
+    private static class LocalOutputFile implements OutputFile {
+        private final Path path;
+
+        LocalOutputFile(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public PositionOutputStream create(long blockSizeHint) throws IOException {
+            if (Files.exists(path)) {
+                throw new IOException(path + " already exists");
+            }
+            return createOrOverwrite(blockSizeHint);
+        }
+
+        @Override
+        public PositionOutputStream createOrOverwrite(long blockSizeHint) throws IOException {
+            OutputStream os = new BufferedOutputStream(Files.newOutputStream(path));
+            return new PositionOutputStream() {
+                private long pos = 0;
+
+                @Override
+                public long getPos() {
+                    return pos;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    os.write(b);
+                    pos++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    os.write(b, off, len);
+                    pos += len;
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    os.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    os.close();
+                }
+            };
+        }
+
+        @Override
+        public boolean supportsBlockSize() {
+            return false;
+        }
+
+        @Override
+        public long defaultBlockSize() {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads only the requested columns that are in the file's schema.
+     */
+    private static class ProjectedReadSupport extends GroupReadSupport {
+        private final Set<String> columns;
+
+        ProjectedReadSupport(Set<String> columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public ReadContext init(InitContext context) {
+            MessageType fileSchema = context.getFileSchema();
+            List<Type> fields = new ArrayList<>();
+            for (Type field : fileSchema.getFields()) {
+                if (columns.contains(field.getName())) {
+                    fields.add(field);
+                }
+            }
+            return new ReadContext(new MessageType(fileSchema.getName(), fields));
+        }
+    }
+
+    /**
+     * Parquet's {@link InputFile} over a local file.
+     */
+    private static class LocalInputFile implements InputFile {
+        private final Path path;
+
+        LocalInputFile(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return Files.size(path);
+        }
+
+        @Override
+        public SeekableInputStream newStream() throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            return new DelegatingSeekableInputStream(Channels.newInputStream(channel)) {
+                @Override
+                public long getPos() throws IOException {
+                    return channel.position();
+                }
+
+                @Override
+                public void seek(long newPos) throws IOException {
+                    channel.position(newPos);
+                }
+            };
+        }
+    }
+}
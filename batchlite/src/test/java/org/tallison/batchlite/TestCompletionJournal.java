@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCompletionJournal {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path path = tmp.getRoot().toPath().resolve("journal.txt");
+        String[] relPaths = {"a.pdf", "dir\\b.pdf", "new\nline.pdf", "cr\r.pdf", "100%.pdf", "%0A.pdf"};
+        try (CompletionJournal journal = CompletionJournal.open(path, false)) {
+            for (String relPath : relPaths) {
+                journal.append(relPath);
+            }
+        }
+        assertEquals(relPaths.length, Files.readAllLines(path, StandardCharsets.UTF_8).size());
+        CompletedPathSet completed = new CompletedPathSet();
+        assertEquals(relPaths.length, CompletionJournal.load(path, completed));
+        for (String relPath : relPaths) {
+            assertTrue(relPath, completed.contains(relPath));
+        }
+        assertFalse(completed.contains("new"));
+        assertFalse(completed.contains("line.pdf"));
+    }
+
+    @Test
+    public void testPartialLastLine() throws Exception {
+        Path path = tmp.getRoot().toPath().resolve("journal.txt");
+        try (CompletionJournal journal = CompletionJournal.open(path, false)) {
+            journal.append("a.pdf");
+            journal.append("b.pdf");
+        }
+        //as if the process died while writing the next entry
+        Files.write(path, "c.p".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        CompletedPathSet completed = new CompletedPathSet();
+        assertEquals(2, CompletionJournal.load(path, completed));
+        assertTrue(completed.contains("b.pdf"));
+        assertFalse(completed.contains("c.p"));
+    }
+
+    @Test
+    public void testAppendOnResume() throws Exception {
+        Path path = tmp.getRoot().toPath().resolve("journal.txt");
+        try (CompletionJournal journal = CompletionJournal.open(path, false)) {
+            journal.append("a.pdf");
+        }
+        try (CompletionJournal journal = CompletionJournal.open(path, true)) {
+            journal.append("b.pdf");
+        }
+        CompletedPathSet completed = new CompletedPathSet();
+        assertEquals(2, CompletionJournal.load(path, completed));
+        assertEquals(0, CompletionJournal.load(path.resolveSibling("missing.txt"), completed));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tallison.batchlite.pipeline.Pipeline;
+import org.tallison.batchlite.writer.PathResultPair;
+
+public class TestFileToFileProcessor {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void testAsStage() throws Exception {
+        Path srcRoot = tmp.newFolder("src").toPath();
+        Path targRoot = tmp.newFolder("targ").toPath();
+        for (int i = 0; i < 20; i++) {
+            Files.write(srcRoot.resolve(i + ".txt"), ("file " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, FileProcessResult> written = new ConcurrentHashMap<>();
+        Map<String, String> writerThreads = new ConcurrentHashMap<>();
+        MetadataWriter metadataWriter = new MetadataWriter() {
+            @Override
+            protected void write(PathResultPair pair) {
+                written.put(pair.getRelPath(), pair.getResult());
+            }
+
+            @Override
+            protected void close() {
+            }
+        };
+        Map<String, String> processThreads = new ConcurrentHashMap<>();
+        Pipeline.<Path>from("crawl", emitter -> {
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(srcRoot)) {
+                for (Path p : paths) {
+                    emitter.emit(p);
+                }
+            }
+        })
+                .then("process", 2, () -> new FileToFileProcessor(null, srcRoot, targRoot, metadataWriter) {
+                    @Override
+                    protected String getExtension() {
+                        return ".upper";
+                    }
+
+                    @Override
+                    protected void process(String relPath, Path srcPath, Path outputPath,
+                                           MetadataWriter metadataWriter) throws IOException {
+                        AbstractDirectoryProcessor.createParent(outputPath);
+                        String content = new String(Files.readAllBytes(srcPath), StandardCharsets.UTF_8);
+                        Files.write(outputPath, content.toUpperCase().getBytes(StandardCharsets.UTF_8));
+                        processThreads.put(relPath, Thread.currentThread().getName());
+                        FileProcessResult result = new FileProcessResult();
+                        result.setExitValue(0);
+                        writeResult(relPath, result);
+                    }
+                }.asStage())
+                .<Void>then("finish", 1, () -> (finish, emitter) -> {
+                    writerThreads.put("finish", Thread.currentThread().getName());
+                    FileToFileProcessor.finishStage().process(finish, emitter);
+                })
+                .run();
+        metadataWriter.shutdown();
+        metadataWriter.call();
+
+        assertEquals(20, written.size());
+        assertEquals(6, written.get("9.txt").getFileSize());
+        assertEquals("FILE 7", new String(Files.readAllBytes(
+                targRoot.resolve("output").resolve("7.txt.upper")), StandardCharsets.UTF_8));
+        //the output is finished and the metadata written off the processors' threads
+        assertNotEquals(processThreads.get("7.txt"), writerThreads.get("finish"));
+    }
+}
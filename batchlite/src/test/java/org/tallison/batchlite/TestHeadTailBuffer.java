@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestHeadTailBuffer {
+
+    @Test
+    public void testFits() {
+        HeadTailBuffer buffer = new HeadTailBuffer(100);
+        write(buffer, "hello ");
+        write(buffer, "world");
+        assertEquals("hello world", buffer.toString());
+        assertEquals(11, buffer.getLength());
+        assertFalse(buffer.isTruncated());
+    }
+
+    @Test
+    public void testHeadAndTail() {
+        HeadTailBuffer buffer = new HeadTailBuffer(25);
+        //one write at a time and one big write should give the same result
+        HeadTailBuffer bulk = new HeadTailBuffer(25);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String s = Integer.toString(i % 10);
+            write(buffer, s);
+            sb.append(s);
+        }
+        write(bulk, sb.toString());
+        //budget of 20 bytes: 10 head, 10 tail
+        String expected = "0123456789\n...\n0123456789";
+        assertEquals(expected, buffer.toString());
+        assertEquals(expected, bulk.toString());
+        assertEquals(100, buffer.getLength());
+        assertTrue(buffer.isTruncated());
+    }
+
+    @Test
+    public void testTailWraps() {
+        HeadTailBuffer buffer = new HeadTailBuffer(25);
+        write(buffer, "abcdefghij");
+        write(buffer, "0123456");
+        write(buffer, "789xyz");
+        assertEquals("abcdefghij\n...\n3456789xyz", buffer.toString());
+    }
+
+    @Test
+    public void testDoesNotSplitCharacters() {
+        HeadTailBuffer buffer = new HeadTailBuffer(25);
+        //each e-acute is two bytes, so the head and the tail cut
+        //through a character
+        StringBuilder sb = new StringBuilder("a");
+        for (int i = 0; i < 20; i++) {
+            sb.append('\u00e9');
+        }
+        write(buffer, sb.toString());
+        String s = buffer.toString();
+        assertFalse(s, s.contains("\ufffd"));
+        assertTrue(s, s.startsWith("a\u00e9\u00e9\u00e9\u00e9\n...\n"));
+        assertTrue(s, s.endsWith("\u00e9\u00e9\u00e9\u00e9\u00e9"));
+    }
+
+    @Test
+    public void testSmallAndEmpty() {
+        HeadTailBuffer none = new HeadTailBuffer(0);
+        write(none, "abc");
+        assertEquals("", none.toString());
+        assertEquals(3, none.getLength());
+        assertTrue(none.isTruncated());
+
+        //too small for a tail, so only the head is kept
+        HeadTailBuffer small = new HeadTailBuffer(5);
+        write(small, "abcdefgh");
+        assertEquals("abcde", small.toString());
+        assertTrue(small.isTruncated());
+
+        small.reset();
+        assertEquals("", small.toString());
+        assertEquals(0, small.getLength());
+        write(small, "xy");
+        assertEquals("xy", small.toString());
+    }
+
+    private static void write(HeadTailBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestManifestCrawler {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPathsOutsideRoot() throws Exception {
+        Path root = tmp.newFolder("root").toPath();
+        Path manifest = tmp.getRoot().toPath().resolve("manifest.txt");
+        List<String> lines = Arrays.asList(
+                "a.pdf",
+                "",
+                "sub/../b.pdf",
+                "../outside.pdf",
+                "sub/../../outside.pdf",
+                tmp.getRoot().toPath().resolve("outside.pdf").toAbsolutePath().toString(),
+                root.resolve("sub/c.pdf").toAbsolutePath().toString());
+        Files.write(manifest, lines, StandardCharsets.UTF_8);
+
+        ArrayBlockingQueue<Path> queue = new ArrayBlockingQueue<>(20);
+        ManifestCrawler crawler = new ManifestCrawler(root, queue, new CompletedPathSet(),
+                -1, 1, manifest.toString(), null);
+        crawler.call();
+
+        List<String> relPaths = new ArrayList<>();
+        for (Path p : queue) {
+            if (! p.equals(AbstractDirectoryProcessor.POISON)) {
+                relPaths.add(root.relativize(p).toString().replace('\\', '/'));
+            }
+        }
+        assertEquals(Arrays.asList("a.pdf", "b.pdf", "sub/c.pdf"), relPaths);
+    }
+}
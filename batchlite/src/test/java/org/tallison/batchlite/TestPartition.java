@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Paths;
+
+import org.junit.Test;
+import org.tallison.batchlite.writer.MetadataWriterFactory;
+
+public class TestPartition {
+
+    @Test
+    public void testParse() {
+        Partition partition = Partition.parse(" 2 / 8 ");
+        assertEquals(2, partition.getIndex());
+        assertEquals(8, partition.getCount());
+        assertEquals("2/8", partition.toString());
+        for (String bad : new String[]{"2", "8/8", "-1/8", "0/0", "a/8", "1/b"}) {
+            try {
+                Partition.parse(bad);
+                fail("should have rejected " + bad);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testEachPathInOnePartition() {
+        int count = 8;
+        int[] sizes = new int[count];
+        for (int i = 0; i < 8000; i++) {
+            String relPath = "dir" + (i % 10) + "/file" + i + ".pdf";
+            int found = 0;
+            for (int p = 0; p < count; p++) {
+                if (new Partition(p, count).contains(relPath)) {
+                    found++;
+                    sizes[p]++;
+                }
+            }
+            assertEquals(relPath, 1, found);
+        }
+        //roughly even
+        for (int size : sizes) {
+            assertTrue("partition size " + size, size > 800 && size < 1200);
+        }
+    }
+
+    @Test
+    public void testSinglePartition() {
+        Partition partition = new Partition(0, 1);
+        assertTrue(partition.contains("a.pdf"));
+        assertTrue(partition.contains(""));
+    }
+
+    @Test
+    public void testShard() {
+        Partition partition = new Partition(2, 8);
+        assertEquals("-part-2-of-8", partition.getSuffix());
+        assertEquals(Paths.get("out", "metrics-part-2-of-8.csv"),
+                partition.shard(Paths.get("out", "metrics.csv")));
+        assertEquals(Paths.get("journal-part-2-of-8"), partition.shard(Paths.get("journal")));
+        assertEquals(".hidden-part-2-of-8", partition.shard(Paths.get(".hidden")).toString());
+
+        assertEquals("jdbc:h2:file:/data/db:results_part_2_of_8",
+                MetadataWriterFactory.shard("jdbc:h2:file:/data/db:results", partition));
+        assertEquals("metadata-part-2-of-8.jsonl.gz",
+                MetadataWriterFactory.shard("metadata.jsonl.gz", partition));
+        assertEquals("results-part-2-of-8.parquet",
+                MetadataWriterFactory.shard("results.parquet", partition));
+        assertEquals("json.dir-part-2-of-8",
+                MetadataWriterFactory.shard("json.dir", partition));
+    }
+}
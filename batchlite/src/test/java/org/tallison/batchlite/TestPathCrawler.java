@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tallison.batchlite.writer.PathResultPair;
+
+public class TestPathCrawler {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void testFullLargeQueueDoesNotBlock() throws Exception {
+        Path root = tmp.getRoot().toPath();
+        for (int i = 0; i < 3; i++) {
+            Files.write(root.resolve("large" + i), new byte[10]);
+            Files.write(root.resolve("small" + i), new byte[1]);
+        }
+        ArrayBlockingQueue<Path> queue = new ArrayBlockingQueue<>(10);
+        ArrayBlockingQueue<Path> largeQueue = new ArrayBlockingQueue<>(1);
+        DirectoryCrawler crawler = new DirectoryCrawler(root, queue, new CompletedPathSet(), -1, 1);
+        crawler.setLargeFileLane(largeQueue, 5, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> future = executor.submit(crawler);
+            //nothing takes from the large queue, but the small files all get through
+            Set<String> small = new HashSet<>();
+            Path p = queue.poll(10, TimeUnit.SECONDS);
+            while (p != null && ! p.equals(AbstractDirectoryProcessor.POISON)) {
+                small.add(p.getFileName().toString());
+                p = queue.poll(10, TimeUnit.SECONDS);
+            }
+            assertEquals(AbstractDirectoryProcessor.POISON, p);
+            assertEquals(3, small.size());
+            assertFalse(crawler.isFinished());
+
+            Set<String> large = new HashSet<>();
+            p = largeQueue.poll(10, TimeUnit.SECONDS);
+            while (p != null && ! p.equals(AbstractDirectoryProcessor.POISON)) {
+                large.add(p.getFileName().toString());
+                p = largeQueue.poll(10, TimeUnit.SECONDS);
+            }
+            assertEquals(AbstractDirectoryProcessor.POISON, p);
+            assertEquals(3, large.size());
+            assertEquals(2, (int) future.get());
+            assertTrue(crawler.isFinished());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResumeIncremental() throws Exception {
+        Path root = tmp.getRoot().toPath();
+        Path done = Files.write(root.resolve("done.txt"), new byte[1]);
+        Path changed = Files.write(root.resolve("changed.txt"), new byte[2]);
+        Files.write(root.resolve("new.txt"), new byte[3]);
+        //done.txt was finished earlier in the interrupted run; changed.txt and gone.txt
+        //are from the run before that
+        CompletedPathSet completed = new CompletedPathSet();
+        completed.add("done.txt");
+        List<String> written = new ArrayList<>();
+        try (FileStateIndex fileStates = new FileStateIndex()) {
+            fileStates.put("done.txt", 1, Files.getLastModifiedTime(done).toMillis(), false);
+            fileStates.put("changed.txt", 1, Files.getLastModifiedTime(changed).toMillis(), false);
+            fileStates.put("gone.txt", 1, 1000, false);
+            MetadataWriter metadataWriter = new MetadataWriter() {
+                @Override
+                protected void write(PathResultPair pair) {
+                    assertTrue(pair.getResult().isRemoved());
+                    written.add(pair.getRelPath());
+                }
+
+                @Override
+                protected void close() {
+                }
+            };
+            ArrayBlockingQueue<Path> queue = new ArrayBlockingQueue<>(10);
+            DirectoryCrawler crawler = new DirectoryCrawler(root, queue, completed, -1, 1);
+            crawler.setIncremental(fileStates, metadataWriter);
+            crawler.call();
+            metadataWriter.shutdown();
+            metadataWriter.call();
+
+            Set<String> queued = new HashSet<>();
+            for (Path p : queue) {
+                if (! p.equals(AbstractDirectoryProcessor.POISON)) {
+                    queued.add(p.getFileName().toString());
+                }
+            }
+            assertEquals(2, queued.size());
+            assertTrue(queued.contains("changed.txt"));
+            assertTrue(queued.contains("new.txt"));
+        }
+        assertEquals(1, written.size());
+        assertEquals("gone.txt", written.get(0));
+    }
+}
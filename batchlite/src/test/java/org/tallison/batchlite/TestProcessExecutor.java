@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestProcessExecutor {
+
+    @Test(timeout = 30000)
+    public void testCopyStdout() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FileProcessResult result = ProcessExecutor.execute(
+                new ProcessBuilder("bash", "-c", "echo hello; echo oops >&2"), 10000, bos, 100);
+        assertEquals("hello\n", new String(bos.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(6, result.getStdoutLength());
+        assertEquals("oops", result.getStderr().trim());
+        assertEquals(0, result.getExitValue());
+        assertFalse(result.isTimeout());
+    }
+
+    @Test(timeout = 30000)
+    public void testNoWritesAfterReturn() throws Exception {
+        SlowStream slow = new SlowStream();
+        //the grandchild holds stdout open past the drain deadline, and the
+        //first write takes longer than that
+        ProcessExecutor.execute(new ProcessBuilder("bash", "-c",
+                "echo first; (sleep 4; echo late) &"), 100, slow, 100);
+        slow.closed = true;
+        assertFalse(slow.inWrite);
+        //give the grandchild time to write
+        Thread.sleep(5000);
+        assertFalse(slow.writeAfterClose);
+        assertTrue(slow.writes > 0);
+    }
+
+    /**
+     * A stream whose writes take 2 seconds and can't be interrupted
+     */
+    private static class SlowStream extends OutputStream {
+        private volatile boolean closed = false;
+        private volatile boolean inWrite = false;
+        private volatile boolean writeAfterClose = false;
+        private volatile int writes = 0;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (closed) {
+                writeAfterClose = true;
+            }
+            inWrite = true;
+            long end = System.currentTimeMillis() + 2000;
+            while (System.currentTimeMillis() < end) {
+                //busy wait, so an interrupt doesn't end it early
+            }
+            writes++;
+            inWrite = false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestProcessStats {
+
+    //utime=100 stime=20 cutime=3 cstime=4; the command name has spaces and a ')'
+    private static final String STAT = "1234 (my (odd) cmd) S 1 1234 1234 0 -1 4194560 " +
+            "100 0 0 0 100 20 3 4 20 0 1 0 5000 10000000 500 18446744073709551615\n";
+
+    private static final String STATUS = "Name:\tcmd\nVmPeak:\t  20000 kB\nVmHWM:\t    1024 kB\n" +
+            "VmRSS:\t     512 kB\n";
+
+    private static final String IO = "rchar: 4096\nwchar: 2048\nsyscr: 10\nsyscw: 5\n" +
+            "read_bytes: 0\nwrite_bytes: 0\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.newFolder("proc").toPath();
+    }
+
+    @Test
+    public void testParseStat() {
+        assertArrayEquals(new long[]{103, 24}, ProcessStats.parseStat(STAT));
+    }
+
+    @Test
+    public void testParseStatus() {
+        assertEquals(1024 * 1024, ProcessStats.parseStatus(lines(STATUS)));
+        //zombies have no VmHWM
+        assertEquals(-1, ProcessStats.parseStatus(Collections.singletonList("Name:\tcmd")));
+    }
+
+    @Test
+    public void testParseIo() {
+        assertArrayEquals(new long[]{4096, 2048}, ProcessStats.parseIo(lines(IO)));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        write("stat", STAT);
+        write("status", STATUS);
+        write("io", IO);
+        ProcessStats stats = ProcessStats.read(dir, 250);
+        assertEquals(103 * 4, stats.getUserCpuMillis());
+        assertEquals(24 * 4, stats.getSystemCpuMillis());
+        assertEquals(1024 * 1024, stats.getPeakRssBytes());
+        assertEquals(4096, stats.getReadBytes());
+        assertEquals(2048, stats.getWriteBytes());
+    }
+
+    @Test
+    public void testUnreadableIo() throws Exception {
+        write("stat", STAT);
+        write("status", STATUS);
+        ProcessStats stats = ProcessStats.read(dir, 100);
+        assertEquals(1030, stats.getUserCpuMillis());
+        assertEquals(240, stats.getSystemCpuMillis());
+        assertEquals(1024 * 1024, stats.getPeakRssBytes());
+        assertEquals(-1, stats.getReadBytes());
+        assertEquals(-1, stats.getWriteBytes());
+
+        ProcessStats diff = stats.since(stats);
+        assertEquals(0, diff.getUserCpuMillis());
+        assertEquals(-1, diff.getReadBytes());
+    }
+
+    @Test
+    public void testNoStat() throws Exception {
+        write("status", STATUS);
+        write("io", IO);
+        assertNull(ProcessStats.read(dir, 100));
+    }
+
+    @Test
+    public void testSelf() throws Exception {
+        assumeTrue(ProcessStats.isAvailable());
+        Process p = new ProcessBuilder("sleep", "5").start();
+        try {
+            ProcessStats stats = ProcessStats.read(ProcessStats.getPid(p));
+            assertNotNull(stats);
+            assertTrue(stats.getUserCpuMillis() >= 0);
+            assertTrue(stats.getPeakRssBytes() > 0);
+        } finally {
+            p.destroyForcibly().waitFor();
+        }
+    }
+
+    private void write(String name, String content) throws Exception {
+        Files.write(dir.resolve(name), content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static List<String> lines(String s) {
+        return Arrays.asList(s.split("\n"));
+    }
+}
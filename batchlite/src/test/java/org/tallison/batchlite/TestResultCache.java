@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestResultCache {
+
+    private static final String NS = "tool";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        Path dir = tmp.newFolder("cache").toPath();
+        Path output = tmp.newFile("output.txt").toPath();
+        Files.write(output, "extracted".getBytes(StandardCharsets.UTF_8));
+        Path input = tmp.newFile("input.pdf").toPath();
+        Files.write(input, "content".getBytes(StandardCharsets.UTF_8));
+        String digest = ResultCache.digest(input);
+        assertEquals(64, digest.length());
+
+        ResultCache cache = new ResultCache(dir, 1000000);
+        assertNull(cache.get(NS, digest));
+        cache.put(NS, digest, result(3), output);
+
+        ResultCache.Entry entry = cache.get(NS, digest);
+        assertNotNull(entry);
+        assertEquals(3, entry.getResult().getExitValue());
+        assertEquals("extracted", new String(Files.readAllBytes(entry.getOutput()), StandardCharsets.UTF_8));
+        //results are only reused within a namespace
+        assertNull(cache.get("other-tool", digest));
+
+        //and across runs
+        entry = new ResultCache(dir, 1000000).get(NS, digest);
+        assertNotNull(entry);
+        assertEquals(3, entry.getResult().getExitValue());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        Path dir = tmp.newFolder("cache").toPath();
+        long entryBytes = entryBytes();
+        ResultCache cache = new ResultCache(dir, 2 * entryBytes);
+        cache.put(NS, "aa01", result(1), null);
+        cache.put(NS, "bb02", result(2), null);
+        //a is now more recently used than b
+        assertNotNull(cache.get(NS, "aa01"));
+        cache.put(NS, "cc03", result(3), null);
+
+        assertEquals(2 * entryBytes, cache.getTotalBytes());
+        assertNotNull(cache.get(NS, "aa01"));
+        assertNull(cache.get(NS, "bb02"));
+        assertNotNull(cache.get(NS, "cc03"));
+        assertFalse(Files.exists(dir.resolve(NS).resolve("bb").resolve("bb02")));
+    }
+
+    @Test
+    public void testOrderFromMtimesOnReopen() throws Exception {
+        Path dir = tmp.newFolder("cache").toPath();
+        long entryBytes = entryBytes();
+        ResultCache cache = new ResultCache(dir, 10 * entryBytes);
+        cache.put(NS, "aa01", result(1), null);
+        cache.put(NS, "bb02", result(2), null);
+        cache.put(NS, "cc03", result(3), null);
+        //b was used longest ago, then c, then a
+        long now = System.currentTimeMillis();
+        setMtime(dir, "aa01", now - 1000);
+        setMtime(dir, "bb02", now - 3000);
+        setMtime(dir, "cc03", now - 2000);
+
+        cache = new ResultCache(dir, 2 * entryBytes);
+        assertEquals(2 * entryBytes, cache.getTotalBytes());
+        assertNull(cache.get(NS, "bb02"));
+        //c is now the most recently used, so a goes next
+        assertNotNull(cache.get(NS, "cc03"));
+        cache = new ResultCache(dir, entryBytes);
+        assertNull(cache.get(NS, "aa01"));
+        assertNotNull(cache.get(NS, "cc03"));
+    }
+
+    @Test
+    public void testOnlyStaleTempDirsDeleted() throws Exception {
+        Path dir = tmp.newFolder("cache").toPath();
+        Path prefix = dir.resolve(NS).resolve("aa");
+        Path stale = prefix.resolve("tmp-1");
+        Path active = prefix.resolve("tmp-2");
+        Files.createDirectories(stale);
+        Files.createDirectories(active);
+        Files.write(stale.resolve("result.json"), "{}".getBytes(StandardCharsets.UTF_8));
+        Files.write(active.resolve("result.json"), "{}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(stale,
+                FileTime.fromMillis(System.currentTimeMillis() - 24L * 60 * 60 * 1000));
+
+        ResultCache cache = new ResultCache(dir, 1000000);
+        assertFalse(Files.exists(stale));
+        //another run may still be writing this one
+        assertTrue(Files.isDirectory(active));
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    /**
+     * @return size of an entry with one of the results from {@link #result(int)}
+     */
+    private long entryBytes() throws Exception {
+        ResultCache cache = new ResultCache(tmp.newFolder().toPath(), 1000000);
+        cache.put(NS, "ff00", result(0), null);
+        return cache.getTotalBytes();
+    }
+
+    private static FileProcessResult result(int exitValue) {
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue(exitValue);
+        return result;
+    }
+
+    private static void setMtime(Path dir, String digest, long millis) throws Exception {
+        Files.setLastModifiedTime(dir.resolve(NS).resolve(digest.substring(0, 2)).resolve(digest),
+                FileTime.fromMillis(millis));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestRetryLane {
+
+    private static final Path PATH = Paths.get("a.pdf");
+
+    @Test
+    public void testScaleTimeout() {
+        RetryLane lane = new RetryLane(3, 2.0, 1);
+        assertEquals(1000, lane.scaleTimeout(1000, 1));
+        assertEquals(2000, lane.scaleTimeout(1000, 2));
+        assertEquals(4000, lane.scaleTimeout(1000, 3));
+    }
+
+    @Test
+    public void testItemKeepsItsTimeout() throws Exception {
+        RetryLane lane = new RetryLane(2, 2.0, 1);
+        lane.add(new RetryLane.Item(PATH, 2, new long[]{600000}, 600000));
+        lane.mainDone();
+        RetryLane.Item item = lane.take();
+        assertEquals(600000, item.getFileTimeoutMillis());
+        assertEquals(2, item.getAttempt());
+        lane.done();
+        assertNull(lane.take());
+    }
+
+    @Test(timeout = 10000)
+    public void testEmptyWhenAllDone() throws Exception {
+        RetryLane lane = new RetryLane(2, 2.0, 2);
+        lane.mainDone();
+        lane.mainDone();
+        assertNull(lane.take());
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitsForMainPass() throws Exception {
+        RetryLane lane = new RetryLane(2, 2.0, 2);
+        lane.mainDone();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RetryLane.Item> future = executor.submit(lane::take);
+            //the other processor is still on the main queue and may add a retry
+            Thread.sleep(200);
+            assertFalse(future.isDone());
+            lane.add(new RetryLane.Item(PATH, 2, new long[]{1}, 1000));
+            assertEquals(PATH, future.get(5, TimeUnit.SECONDS).getPath());
+            lane.done();
+
+            future = executor.submit(lane::take);
+            Thread.sleep(200);
+            assertFalse(future.isDone());
+            lane.mainDone();
+            assertNull(future.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitsForInFlight() throws Exception {
+        RetryLane lane = new RetryLane(3, 2.0, 2);
+        lane.add(new RetryLane.Item(PATH, 2, new long[]{1}, 1000));
+        lane.mainDone();
+        lane.mainDone();
+        RetryLane.Item item = lane.take();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            //the item in flight may time out again and be re-added
+            Future<RetryLane.Item> future = executor.submit(lane::take);
+            Thread.sleep(200);
+            assertFalse(future.isDone());
+            lane.add(new RetryLane.Item(PATH, item.getAttempt() + 1, new long[]{1, 2}, 1000));
+            lane.done();
+            assertEquals(3, future.get(5, TimeUnit.SECONDS).getAttempt());
+            lane.done();
+            assertNull(lane.take());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testConcurrencyLimitOfOne() throws Exception {
+        int numProcessors = 2;
+        ArrayBlockingQueue<Path> queue = new ArrayBlockingQueue<>(100);
+        for (int i = 0; i < 10; i++) {
+            queue.add(Paths.get(i + ".pdf"));
+        }
+        for (int i = 0; i < numProcessors; i++) {
+            queue.add(AbstractDirectoryProcessor.POISON);
+        }
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+        RetryLane lane = new RetryLane(2, 2.0, numProcessors);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(numProcessors);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < numProcessors; i++) {
+                AbstractFileProcessor processor = new AbstractFileProcessor(queue) {
+                    private boolean retried = false;
+
+                    @Override
+                    public void process(Path path) {
+                        FileProcessResult result = new FileProcessResult();
+                        //the first file each processor sees times out once
+                        result.setTimeout(! retried);
+                        retried = true;
+                        if (! deferRetry(result)) {
+                            processed.add(path.toString());
+                        }
+                    }
+                };
+                processor.setConcurrencyLimiter(limiter);
+                processor.setRetryLane(lane);
+                futures.add(executor.submit(processor));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(1, (int) future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(10, processed.size());
+        //every permit was returned
+        assertEquals(1, limiter.availablePermits());
+    }
+}
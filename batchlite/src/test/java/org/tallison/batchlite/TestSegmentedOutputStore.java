@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSegmentedOutputStore {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testRawPathKeepsExtension() throws Exception {
+        SegmentedOutputStore store = new SegmentedOutputStore(tmp.getRoot().toPath(),
+                OutputCompression.GZIP, 1000);
+        assertTrue(store.getRawPath("dir/a.pdf.html").getFileName().toString().endsWith(".html"));
+        assertTrue(store.getStoredPath("dir/a.pdf.html").getFileName().toString().endsWith(".html.stored"));
+        store.close();
+        assertEquals(".txt", SegmentedOutputStore.getExtension("a.b/c.txt"));
+        assertEquals("", SegmentedOutputStore.getExtension("a.b/c"));
+        assertEquals("", SegmentedOutputStore.getExtension("a.b/.hidden"));
+        assertEquals("", SegmentedOutputStore.getExtension("a.b\\c"));
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentCommits() throws Exception {
+        Path root = tmp.getRoot().toPath();
+        //small segments, so that commits race with the rollover
+        SegmentedOutputStore store = new SegmentedOutputStore(root, OutputCompression.GZIP, 2000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    String key = "t" + thread + "/f" + i + ".txt";
+                    Files.createDirectories(store.getRawPath(key).getParent());
+                    Files.write(store.getRawPath(key), content(key).getBytes(StandardCharsets.UTF_8));
+                    store.commit(key, store.finish(key));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        store.close();
+
+        Map<String, String> read = new HashMap<>();
+        Path segments = root.resolve("segments");
+        try (Reader reader = Files.newBufferedReader(segments.resolve("index.csv"), StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, CSVFormat.EXCEL.withFirstRecordAsHeader())) {
+            for (CSVRecord record : parser) {
+                byte[] segment = Files.readAllBytes(segments.resolve(record.get("segment")));
+                int offset = Integer.parseInt(record.get("offset"));
+                int length = Integer.parseInt(record.get("length"));
+                try (InputStream is = new GZIPInputStream(
+                        new ByteArrayInputStream(segment, offset, length))) {
+                    read.put(record.get("key"), new String(readAll(is), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        assertEquals(400, read.size());
+        for (Map.Entry<String, String> e : read.entrySet()) {
+            assertEquals(content(e.getKey()), e.getValue());
+        }
+    }
+
+    private static String content(String key) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append(key).append(' ').append(i).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readAll(InputStream is) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int r = is.read(buffer);
+        while (r > -1) {
+            bos.write(buffer, 0, r);
+            r = is.read(buffer);
+        }
+        return bos.toByteArray();
+    }
+}
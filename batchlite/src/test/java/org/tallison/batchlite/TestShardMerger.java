@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tallison.batchlite.writer.MetadataWriterFactory;
+import org.tallison.batchlite.writer.PathResultPair;
+
+public class TestShardMerger {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testDuplicatePaths() throws Exception {
+        String csv = tmp.getRoot().toPath().resolve("metadata.csv").toString();
+        //a retry appended a second row for x.pdf, and a later run marked y.pdf as removed
+        List<PathResultPair> rows = new ArrayList<>();
+        rows.add(new PathResultPair("x.pdf", result(1, false)));
+        rows.add(new PathResultPair("y.pdf", result(0, false)));
+        rows.add(new PathResultPair("x.pdf", result(0, false)));
+        rows.add(new PathResultPair("y.pdf", result(0, true)));
+        write(MetadataWriterFactory.shard(csv, new Partition(0, 2)), rows);
+        rows.clear();
+        rows.add(new PathResultPair("z.pdf", result(2, false)));
+        write(MetadataWriterFactory.shard(csv, new Partition(1, 2)), rows);
+
+        //the jdbc table's primary key would reject the second x.pdf
+        String db = "jdbc:h2:file:" + tmp.getRoot().toPath().resolve("merged").toAbsolutePath();
+        assertEquals(3, ShardMerger.merge(csv, 2, db + ":results"));
+
+        MetadataWriter merged = MetadataWriterFactory.build(db + ":results", 100, 100, true);
+        Map<String, FileProcessResult> results = new HashMap<>();
+        try {
+            merged.forEachResult(results::put);
+        } finally {
+            merged.close();
+        }
+        assertEquals(3, results.size());
+        assertEquals(0, results.get("x.pdf").getExitValue());
+        assertFalse(results.get("x.pdf").isRemoved());
+        assertTrue(results.get("y.pdf").isRemoved());
+        assertEquals(2, results.get("z.pdf").getExitValue());
+    }
+
+    private static FileProcessResult result(int exitValue, boolean removed) {
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue(exitValue);
+        result.setRemoved(removed);
+        return result;
+    }
+
+    private static void write(String writerString, List<PathResultPair> rows) throws Exception {
+        MetadataWriter writer = MetadataWriterFactory.build(writerString, 100, 100);
+        try {
+            writer.writeBatch(rows);
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestWorkerProcess {
+
+    //echoes each request back; "slow" hangs, "big" writes a lot of stderr
+    //before its response, and "late" writes more
+    //stderr a little while after its response
+    private static final String WORKER =
+            "while IFS= read -r line; do\n" +
+            "  echo \"err $line\" >&2\n" +
+            "  if [ \"$line\" = slow ]; then sleep 10; fi\n" +
+            "  if [ \"$line\" = big ]; then head -c 1000000 /dev/zero | tr '\\0' x >&2; fi\n" +
+            "  printf '0 %d\\n%s' ${#line} \"$line\"\n" +
+            "  if [ \"$line\" = late ]; then sleep 0.1; echo \"after $line\" >&2; fi\n" +
+            "done\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String[] commandline;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Files.isExecutable(Paths.get("/bin/bash")));
+        Path script = tmp.getRoot().toPath().resolve("worker.sh");
+        Files.write(script, WORKER.getBytes(StandardCharsets.UTF_8));
+        commandline = new String[]{"/bin/bash", script.toAbsolutePath().toString()};
+    }
+
+    @Test
+    public void testStderrPerRequest() throws Exception {
+        try (WorkerProcess worker = new WorkerProcess(commandline, -1)) {
+            FileProcessResult a = worker.execute("late", 10000, 1000, 1000);
+            assertEquals(0, a.getExitValue());
+            assertEquals("late", a.getStdout());
+            assertEquals("err late\n", a.getStderr());
+            //the child writes more stderr after its response, before the next request
+            Thread.sleep(300);
+            FileProcessResult b = worker.execute("b", 10000, 1000, 1000);
+            assertEquals("b", b.getStdout());
+            assertEquals("err b\n", b.getStderr());
+            assertEquals(0, worker.getRestarts());
+        }
+    }
+
+    @Test
+    public void testAllStderrBeforeTheResponse() throws Exception {
+        try (WorkerProcess worker = new WorkerProcess(commandline, -1)) {
+            for (int i = 0; i < 3; i++) {
+                FileProcessResult big = worker.execute("big", 10000, 1000, 1000);
+                assertEquals("big", big.getStdout());
+                assertEquals("err big\n".length() + 1000000, big.getStderrLength());
+                assertTrue(big.isStderrTruncated());
+                assertTrue(big.getStderr().endsWith("xxx"));
+                FileProcessResult b = worker.execute("b", 10000, 1000, 1000);
+                assertEquals("err b\n", b.getStderr());
+            }
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        try (WorkerProcess worker = new WorkerProcess(commandline, -1)) {
+            FileProcessResult slow = worker.execute("slow", 500, 1000, 1000);
+            assertTrue(slow.isTimeout());
+            assertEquals("", slow.getStdout());
+            assertEquals("err slow\n", slow.getStderr());
+
+            FileProcessResult b = worker.execute("b", 10000, 1000, 1000);
+            assertFalse(b.isTimeout());
+            assertEquals("b", b.getStdout());
+            assertEquals("err b\n", b.getStderr());
+            assertEquals(1, worker.getRestarts());
+        }
+    }
+
+    @Test
+    public void testRecycle() throws Exception {
+        try (WorkerProcess worker = new WorkerProcess(commandline, 2)) {
+            for (int i = 0; i < 5; i++) {
+                FileProcessResult r = worker.execute("r" + i, 10000, 1000, 1000);
+                assertEquals("r" + i, r.getStdout());
+                assertEquals("err r" + i + "\n", r.getStderr());
+            }
+            assertEquals(2, worker.getRestarts());
+        }
+    }
+}
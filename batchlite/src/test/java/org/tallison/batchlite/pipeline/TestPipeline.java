@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestPipeline {
+
+    @Test(timeout = 30000)
+    public void testStages() throws Exception {
+        Set<Integer> results = ConcurrentHashMap.newKeySet();
+        AtomicInteger closed = new AtomicInteger();
+        Pipeline.<Integer>from("numbers", emitter -> {
+            for (int i = 0; i < 1000; i++) {
+                emitter.emit(i);
+            }
+        })
+                //filter out the odd ones, on small queues so that the source has to wait
+                .<Integer>then("filter", 3, 2, () -> (i, emitter) -> {
+                    if (i % 2 == 0) {
+                        emitter.emit(i);
+                    }
+                })
+                //split each one in two
+                .<String>then("split", 2, () -> new Stage<Integer, String>() {
+                    @Override
+                    public void process(Integer i, Emitter<String> emitter) throws IOException {
+                        emitter.emit(i + "a");
+                        emitter.emit(i + "b");
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                    }
+                })
+                .<Void>then("collect", 4, () -> (s, emitter) -> {
+                    if (s.endsWith("a")) {
+                        results.add(Integer.parseInt(s.substring(0, s.length() - 1)));
+                    }
+                })
+                .run();
+        assertEquals(500, results.size());
+        assertTrue(results.contains(998));
+        assertFalse(results.contains(1));
+        assertEquals(2, closed.get());
+    }
+
+    @Test(timeout = 30000)
+    public void testFailure() throws Exception {
+        AtomicInteger processed = new AtomicInteger();
+        try {
+            Pipeline.<Integer>from("numbers", emitter -> {
+                //more than the queues can hold, so the source is blocked when the stage fails
+                for (int i = 0; i < 100000; i++) {
+                    emitter.emit(i);
+                }
+            })
+                    .<Void>then("fail", 2, 10, () -> (i, emitter) -> {
+                        if (i == 100) {
+                            throw new IOException("bad item");
+                        }
+                        processed.incrementAndGet();
+                    })
+                    .run();
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertEquals("bad item", e.getMessage());
+        }
+        assertTrue(processed.get() < 100000);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBranching() {
+        Pipeline<Integer> source = Pipeline.from("numbers", emitter -> {});
+        source.then("a", 1, () -> (i, emitter) -> {});
+        source.then("b", 1, () -> (i, emitter) -> {});
+    }
+
+    @Test(timeout = 10000)
+    public void testStageQueue() throws Exception {
+        StageQueue<String> queue = new StageQueue<>(1, 2);
+        queue.put("a");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            //full
+            Future<?> put = executor.submit(() -> {
+                queue.put("b");
+                return null;
+            });
+            Thread.sleep(200);
+            assertFalse(put.isDone());
+            assertEquals("a", queue.take());
+            put.get(5, TimeUnit.SECONDS);
+            assertEquals("b", queue.take());
+
+            //empty, with a producer still open
+            queue.producerDone();
+            Future<String> take = executor.submit(queue::take);
+            Thread.sleep(200);
+            assertFalse(take.isDone());
+            queue.producerDone();
+            assertNull(take.get(5, TimeUnit.SECONDS));
+            assertNull(queue.take());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tallison.batchlite.CompletedPathSet;
+import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.FileStateIndex;
+
+public class TestCSVMetadataWriter {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testResumeOldHeader() throws Exception {
+        Path csv = tmp.getRoot().toPath().resolve("results.csv");
+        //the columns before the file state, attempt and resource columns,
+        //with a partial last row
+        Files.write(csv, ("path,exitValue,isTimeout,processTimeMillis,stderr,stderrLength," +
+                "stderrTruncated,stdout,stdoutLength,stdoutTruncated\r\n" +
+                "old.pdf,0,false,10,,0,false,out,3,false\r\n" +
+                "partial.pdf,0,fa").getBytes(StandardCharsets.UTF_8));
+        CSVMetadataWriter writer = new CSVMetadataWriter(csv, true);
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue(1);
+        result.setFileSize(123);
+        result.setLastModified(1000);
+        writer.write(new PathResultPair("new.pdf", result));
+        writer.close();
+
+        writer = new CSVMetadataWriter(csv, true);
+        Map<String, FileProcessResult> results = new HashMap<>();
+        writer.forEachResult(results::put);
+        assertEquals(2, results.size());
+        assertEquals("out", results.get("old.pdf").getStdout());
+        assertEquals(-1, results.get("old.pdf").getFileSize());
+        assertEquals(123, results.get("new.pdf").getFileSize());
+        try (FileStateIndex fileStates = new FileStateIndex()) {
+            writer.loadFileStates(fileStates);
+            assertTrue(fileStates.seen("new.pdf", 123, 1000));
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testResumeUnknownHeader() throws Exception {
+        Path csv = tmp.getRoot().toPath().resolve("results.csv");
+        Files.write(csv, "path,color\r\na.pdf,red\r\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            new CSVMetadataWriter(csv, true);
+            fail("should have refused to append");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("color"));
+        }
+    }
+
+    @Test
+    public void testResumeTruncatedLastRow() throws Exception {
+        //cut inside a quoted stderr, and inside the last column, where
+        //the partial row still has every column
+        for (String cut : new String[]{"line one", "-1,-1,-1,-1,-"}) {
+            Path csv = tmp.newFolder().toPath().resolve("results.csv");
+            CSVMetadataWriter writer = new CSVMetadataWriter(csv, false);
+            writer.write(new PathResultPair("a.pdf", result("ok")));
+            FileProcessResult crashed = result("line one\nline two, with a comma");
+            crashed.setIoWriteBytes(-123);
+            writer.write(new PathResultPair("b.pdf", crashed));
+            writer.close();
+            String content = new String(Files.readAllBytes(csv), StandardCharsets.UTF_8);
+            int end = content.lastIndexOf(cut) + cut.length();
+            try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.WRITE)) {
+                channel.truncate(content.substring(0, end).getBytes(StandardCharsets.UTF_8).length);
+            }
+
+            writer = new CSVMetadataWriter(csv, true);
+            CompletedPathSet completed = new CompletedPathSet();
+            writer.loadCompletedPaths(completed);
+            assertEquals(1, completed.size());
+            assertTrue(completed.contains("a.pdf"));
+            writer.write(new PathResultPair("b.pdf", result("retried")));
+            writer.write(new PathResultPair("c.pdf", result("ok")));
+            writer.close();
+
+            writer = new CSVMetadataWriter(csv, true);
+            Map<String, FileProcessResult> results = new HashMap<>();
+            writer.forEachResult(results::put);
+            writer.close();
+            assertEquals(cut, 3, results.size());
+            assertEquals("retried", results.get("b.pdf").getStderr());
+            assertEquals("ok", results.get("c.pdf").getStderr());
+        }
+    }
+
+    private static FileProcessResult result(String stderr) {
+        FileProcessResult result = new FileProcessResult();
+        result.setStderr(stderr);
+        return result;
+    }
+}
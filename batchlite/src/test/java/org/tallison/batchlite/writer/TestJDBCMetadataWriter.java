@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.writer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tallison.batchlite.CompletedPathSet;
+import org.tallison.batchlite.FileProcessResult;
+
+public class TestJDBCMetadataWriter {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String SMILE = new String(Character.toChars(0x1F600));
+
+    @Test
+    public void testClean() {
+        assertEquals("", JDBCMetadataWriter.clean(null, 10, true));
+        assertEquals("a b", JDBCMetadataWriter.clean("a\u0000b", 10, true));
+        assertEquals("a\u0000b", JDBCMetadataWriter.clean("a\u0000b", 10, false));
+        assertEquals("abc", JDBCMetadataWriter.clean("abcdef", 3, false));
+        //cutting after the high surrogate would leave half a character
+        assertEquals("a", JDBCMetadataWriter.clean("a" + SMILE, 2, false));
+        assertEquals("a" + SMILE, JDBCMetadataWriter.clean("a" + SMILE + "b", 3, false));
+    }
+
+    @Test
+    public void testCopyRow() throws Exception {
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue(1);
+        result.setTimeout(true);
+        result.setProcessTimeMillis(123);
+        result.setStdout("tab\there\nnew line\\backslash\r\u0000nul " + SMILE);
+        result.setStdoutLength(1000);
+        result.setStdoutTruncated(true);
+        result.setStderr(null);
+        result.setAttemptTimesMillis(new long[]{30000, 60000});
+        StringWriter writer = new StringWriter();
+        JDBCMetadataWriter.writeCopyRow(writer, new PathResultPair("dir/a\tb.pdf", result), 100, 100);
+        String row = writer.toString();
+        //exactly one row terminator, at the end
+        assertEquals(row.length() - 1, row.indexOf('\n'));
+
+        List<String> columns = parseCopyRow(row.substring(0, row.length() - 1));
+        assertEquals(20, columns.size());
+        assertEquals("dir/a\tb.pdf", columns.get(0));
+        assertEquals("1", columns.get(1));
+        assertEquals("t", columns.get(2));
+        assertEquals("123", columns.get(3));
+        assertEquals("tab\there\nnew line\\backslash\r nul " + SMILE, columns.get(4));
+        assertEquals("1000", columns.get(5));
+        assertEquals("t", columns.get(6));
+        assertEquals("", columns.get(7));
+        assertEquals("f", columns.get(9));
+        assertEquals("30000;60000", columns.get(14));
+        assertEquals("-1", columns.get(19));
+    }
+
+    @Test
+    public void testResumeOldTable() throws Exception {
+        String db = "jdbc:h2:file:" + tmp.getRoot().toPath().resolve("results").toAbsolutePath();
+        //the table as it was before the file state, attempt and resource columns
+        try (Connection connection = DriverManager.getConnection(db);
+             Statement st = connection.createStatement()) {
+            st.execute("create table results (path varchar(500) primary key, exit_value integer," +
+                    "timeout boolean, process_time_ms bigint, stdout varchar(100), stdout_length bigint," +
+                    "stdout_truncated boolean, stderr varchar(100), stderr_length bigint," +
+                    "stderr_truncated boolean)");
+            st.execute("insert into results values ('old.pdf', 0, false, 10, 'out', 3, false, '', 0, false)");
+        }
+        JDBCMetadataWriter writer = new JDBCMetadataWriter(db + ":results", 100, 100, true);
+        FileProcessResult result = new FileProcessResult();
+        result.setExitValue(1);
+        result.setFileSize(123);
+        result.setLastModified(1000);
+        writer.writeBatch(Collections.singletonList(new PathResultPair("new.pdf", result)));
+        writer.flush();
+        writer.close();
+
+        writer = new JDBCMetadataWriter(db + ":results", 100, 100, true);
+        CompletedPathSet completed = new CompletedPathSet();
+        writer.loadCompletedPaths(completed);
+        assertEquals(2, completed.size());
+        Map<String, FileProcessResult> results = new HashMap<>();
+        writer.forEachResult(results::put);
+        writer.close();
+        assertEquals(2, results.size());
+        assertEquals("out", results.get("old.pdf").getStdout());
+        assertEquals(-1, results.get("old.pdf").getFileSize());
+        assertEquals(123, results.get("new.pdf").getFileSize());
+        assertEquals(1, results.get("new.pdf").getExitValue());
+    }
+
+    /**
+     * Splits and unescapes a row in COPY's text format, as the server does
+     */
+    private static List<String> parseCopyRow(String row) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < row.length(); i++) {
+            char c = row.charAt(i);
+            if (c == '\t') {
+                columns.add(sb.toString());
+                sb.setLength(0);
+            } else if (c == '\\') {
+                char n = row.charAt(++i);
+                switch (n) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    default:
+                        sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        columns.add(sb.toString());
+        return columns;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tallison.batchlite.CompletedPathSet;
+import org.tallison.batchlite.FileProcessResult;
+
+public class TestJSONLMetadataWriter {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testLookup() throws Exception {
+        for (String name : new String[]{"metadata.jsonl", "metadata.jsonl.gz"}) {
+            Path jsonl = tmp.newFolder().toPath().resolve(name);
+            JSONLMetadataWriter writer = new JSONLMetadataWriter(jsonl, false);
+            writer.setMaxSegmentBytes(200);
+            for (int batch = 0; batch < 20; batch++) {
+                writer.writeBatch(batch(batch * 10, 10, "v1"));
+            }
+            //the last one wins
+            writer.write(new PathResultPair("file-5.pdf", result(5, "v2")));
+            writer.close();
+            assertTrue(Files.isRegularFile(jsonl.resolveSibling("metadata-00001" +
+                    name.substring("metadata".length()))));
+
+            try (JSONLIndexReader reader = new JSONLIndexReader(jsonl)) {
+                assertEquals(200, reader.size());
+                for (int i = 0; i < 200; i++) {
+                    FileProcessResult result = reader.get("file-" + i + ".pdf");
+                    assertEquals(i, result.getFileSize());
+                    assertEquals(i == 5 ? "v2" : "v1", result.getStdout());
+                }
+                assertNull(reader.get("missing.pdf"));
+            }
+            Path lookup = JSONLMetadataWriter.getLookupFile(jsonl.toAbsolutePath());
+            assertTrue(Files.isRegularFile(lookup));
+
+            //a resumed run appends to the index, so the lookup table is rebuilt
+            writer = new JSONLMetadataWriter(jsonl, true);
+            writer.write(new PathResultPair("file-5.pdf", result(5, "v3")));
+            writer.write(new PathResultPair("file-200.pdf", result(200, "v1")));
+            writer.close();
+            try (JSONLIndexReader reader = new JSONLIndexReader(jsonl)) {
+                assertEquals(201, reader.size());
+                assertEquals("v3", reader.get("file-5.pdf").getStdout());
+                assertEquals(200, reader.get("file-200.pdf").getFileSize());
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedGzipBlock() throws Exception {
+        Path jsonl = tmp.getRoot().toPath().resolve("metadata.jsonl.gz");
+        JSONLMetadataWriter writer = new JSONLMetadataWriter(jsonl, false);
+        writer.writeBatch(batch(0, 10, "v1"));
+        writer.writeBatch(batch(10, 10, "v1"));
+        writer.close();
+        Path segment = jsonl.resolveSibling("metadata-00000.jsonl.gz");
+        //a crash in the middle of writing the second block
+        long firstBlockEnd = -1;
+        for (String line : Files.readAllLines(JSONLMetadataWriter.getIndexFile(jsonl))) {
+            if (line.startsWith("file-10.pdf,")) {
+                firstBlockEnd = Long.parseLong(line.split(",")[2]);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(firstBlockEnd + (Files.size(segment) - firstBlockEnd) / 2);
+        }
+
+        writer = new JSONLMetadataWriter(jsonl, true);
+        Map<String, FileProcessResult> results = new HashMap<>();
+        writer.forEachResult(results::put);
+        writer.close();
+        assertEquals(10, results.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, results.get("file-" + i + ".pdf").getFileSize());
+        }
+    }
+
+    @Test
+    public void testLoadCompletedPaths() throws Exception {
+        Path jsonl = tmp.getRoot().toPath().resolve("metadata.jsonl");
+        JSONLMetadataWriter writer = new JSONLMetadataWriter(jsonl, false);
+        writer.writeBatch(batch(0, 3, "v1"));
+        writer.close();
+
+        writer = new JSONLMetadataWriter(jsonl, true);
+        CompletedPathSet completed = new CompletedPathSet();
+        writer.loadCompletedPaths(completed);
+        writer.close();
+        assertEquals(3, completed.size());
+        assertTrue(completed.contains("file-2.pdf"));
+
+        //not resuming deletes the old output
+        writer = new JSONLMetadataWriter(jsonl, false);
+        writer.close();
+        try (JSONLIndexReader reader = new JSONLIndexReader(jsonl)) {
+            assertEquals(0, reader.size());
+            assertNull(reader.get("file-2.pdf"));
+        }
+    }
+
+    private static List<PathResultPair> batch(int start, int count, String stdout) {
+        List<PathResultPair> batch = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            batch.add(new PathResultPair("file-" + i + ".pdf", result(i, stdout)));
+        }
+        return batch;
+    }
+
+    private static FileProcessResult result(long fileSize, String stdout) {
+        FileProcessResult result = new FileProcessResult();
+        result.setFileSize(fileSize);
+        result.setStdout(stdout);
+        return result;
+    }
+}
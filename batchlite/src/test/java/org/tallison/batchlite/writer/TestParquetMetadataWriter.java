@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.batchlite.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tallison.batchlite.CompletedPathSet;
+import org.tallison.batchlite.FileProcessResult;
+import org.tallison.batchlite.FileStateIndex;
+
+public class TestParquetMetadataWriter {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testResume() throws Exception {
+        Path parquet = tmp.getRoot().toPath().resolve("results.parquet");
+        write(new ParquetMetadataWriter(parquet, false), "a.pdf", "b.pdf");
+        write(new ParquetMetadataWriter(parquet, true), "c.pdf");
+        assertTrue(Files.isRegularFile(tmp.getRoot().toPath().resolve("results-00000.parquet")));
+        assertTrue(Files.isRegularFile(tmp.getRoot().toPath().resolve("results-00001.parquet")));
+
+        ParquetMetadataWriter writer = new ParquetMetadataWriter(parquet, true);
+        List<String> paths = new ArrayList<>();
+        writer.forEachResult((relPath, result) -> paths.add(relPath));
+        assertEquals(3, paths.size());
+
+        CompletedPathSet completed = new CompletedPathSet();
+        writer.loadCompletedPaths(completed);
+        assertEquals(3, completed.size());
+        assertTrue(completed.contains("c.pdf"));
+
+        try (FileStateIndex fileStates = new FileStateIndex()) {
+            writer.loadFileStates(fileStates);
+            assertTrue(fileStates.seen("a.pdf", 100, 1000));
+            assertFalse(fileStates.seen("b.pdf", 101, 1000));
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testResumeAfterCrash() throws Exception {
+        Path root = tmp.getRoot().toPath();
+        Path parquet = root.resolve("results.parquet");
+        write(new ParquetMetadataWriter(parquet, false), "a.pdf");
+        //the file that was open when the run died: just the leading magic
+        Files.write(root.resolve("results-00001.parquet"), "PAR1".getBytes(StandardCharsets.US_ASCII));
+
+        ParquetMetadataWriter writer = new ParquetMetadataWriter(parquet, true);
+        List<String> paths = new ArrayList<>();
+        writer.forEachResult((relPath, result) -> paths.add(relPath));
+        assertEquals(1, paths.size());
+        CompletedPathSet completed = new CompletedPathSet();
+        writer.loadCompletedPaths(completed);
+        assertEquals(1, completed.size());
+        try (FileStateIndex fileStates = new FileStateIndex()) {
+            writer.loadFileStates(fileStates);
+            assertTrue(fileStates.seen("a.pdf", 100, 1000));
+        }
+        writer.close();
+        assertTrue(Files.isRegularFile(root.resolve("results-00001.parquet.corrupt")));
+        assertFalse(Files.exists(root.resolve("results-00001.parquet")));
+
+        //the next run reuses the number; if it dies too, the first
+        //unreadable file must not be overwritten
+        write(new ParquetMetadataWriter(parquet, true), "b.pdf");
+        assertTrue(Files.isRegularFile(root.resolve("results-00001.parquet")));
+        Files.write(root.resolve("results-00002.parquet"), new byte[0]);
+        writer = new ParquetMetadataWriter(parquet, true);
+        paths.clear();
+        writer.forEachResult((relPath, result) -> paths.add(relPath));
+        writer.close();
+        assertEquals(2, paths.size());
+        assertTrue(Files.isRegularFile(root.resolve("results-00002.parquet.corrupt")));
+        Files.write(root.resolve("results-00002.parquet"), new byte[0]);
+        new ParquetMetadataWriter(parquet, true).close();
+        assertTrue(Files.isRegularFile(root.resolve("results-00002.parquet.corrupt-1")));
+    }
+
+    @Test
+    public void testNoResumeDeletesExisting() throws Exception {
+        Path parquet = tmp.getRoot().toPath().resolve("results.parquet");
+        write(new ParquetMetadataWriter(parquet, false), "a.pdf");
+        write(new ParquetMetadataWriter(parquet, true), "b.pdf");
+        write(new ParquetMetadataWriter(parquet, false), "c.pdf");
+        assertFalse(Files.exists(tmp.getRoot().toPath().resolve("results-00001.parquet")));
+
+        ParquetMetadataWriter writer = new ParquetMetadataWriter(parquet, true);
+        List<String> paths = new ArrayList<>();
+        writer.forEachResult((relPath, result) -> paths.add(relPath));
+        assertEquals(1, paths.size());
+        assertEquals("c.pdf", paths.get(0));
+        writer.close();
+    }
+
+    private static void write(ParquetMetadataWriter writer, String... relPaths) throws Exception {
+        for (String relPath : relPaths) {
+            FileProcessResult result = new FileProcessResult();
+            result.setExitValue(0);
+            result.setStdout("stdout " + relPath);
+            result.setFileSize(100);
+            result.setLastModified(1000);
+            writer.write(new PathResultPair(relPath, result));
+        }
+        writer.close();
+    }
+}
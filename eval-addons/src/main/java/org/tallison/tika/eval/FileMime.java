@@ -11,6 +11,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -18,6 +23,19 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class FileMime {
     private static final long TIMEOUT_MS = 6000;
+    //how long to wait for stdout/stderr to hit EOF after file has exited
+    private static final long GOBBLER_WAIT_MS = 1000;
+
+    private static final ThreadFactory GOBBLER_THREAD_FACTORY = r -> {
+        Thread t = new Thread(r, "file-mime-gobbler");
+        t.setDaemon(true);
+        return t;
+    };
+
+    //reuses idle threads across calls to detect(); a gobbler never
+    //waits for a thread, so file can't block on a full pipe
+    private static final ExecutorService GOBBLERS =
+            Executors.newCachedThreadPool(GOBBLER_THREAD_FACTORY);
 
     public static void main(String[] args) throws Exception {
         System.out.println(detect(Paths.get(args[0])));
@@ -31,10 +49,8 @@ public class FileMime {
         Process process = builder.start();
         StringStreamGobbler errorGobbler = new StringStreamGobbler(process.getErrorStream());
         StringStreamGobbler outGobbler = new StringStreamGobbler(process.getInputStream());
-        Thread errorThread = new Thread(errorGobbler);
-        Thread outThread = new Thread(outGobbler);
-        errorThread.start();
-        outThread.start();
+        Future<?> errorFuture = GOBBLERS.submit(errorGobbler);
+        Future<?> outFuture = GOBBLERS.submit(outGobbler);
 
         process.getErrorStream();
         process.getInputStream();
@@ -48,8 +64,19 @@ public class FileMime {
         if (exitValue != 0) {
             throw new IOExceptionWithCause(new RuntimeException("bad exit value"));
         }
-        errorThread.join();
-        outThread.join();
+        try {
+            //file has exited, so its pipes should hit EOF right away
+            errorFuture.get(GOBBLER_WAIT_MS, TimeUnit.MILLISECONDS);
+            outFuture.get(GOBBLER_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOExceptionWithCause(e);
+        } catch (TimeoutException e) {
+            errorGobbler.stopGobblingAndDie();
+            outGobbler.stopGobblingAndDie();
+            errorFuture.cancel(true);
+            outFuture.cancel(true);
+            throw new IOExceptionWithCause(e);
+        }
         return outGobbler.toString().trim();
     }
 
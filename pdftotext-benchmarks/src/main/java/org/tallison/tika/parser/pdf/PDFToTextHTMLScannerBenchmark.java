@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.metadata.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Time to scrape pdftotext -htmlmeta output with {@link PDFToTextHTMLScanner}
+ * and with TagSoup.  This is in the parser's package because the scraping
+ * entry point is package-private.
+ * <pre>
+ *     java -jar target/benchmarks.jar -rf json PDFToTextHTMLScanner
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PDFToTextHTMLScannerBenchmark {
+
+    @Param({"10", "1000"})
+    public int pages;
+
+    private String html;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        //40 lines per page, with entities, like the scanner's unit tests
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html xmlns=\"http://www.w3.org/1999/xhtml\">\n<head>\n")
+                .append("<title>Large</title>\n<meta name=\"Producer\" content=\"test\"/>\n")
+                .append("</head>\n<body>\n<pre>\n");
+        for (int p = 0; p < pages; p++) {
+            for (int line = 0; line < 40; line++) {
+                sb.append("Page ").append(p).append(", line ").append(line)
+                        .append(": the quick brown fox &amp; the lazy dog &lt;").append(line)
+                        .append("&gt;\n");
+            }
+            sb.append('\f');
+        }
+        sb.append("</pre>\n</body>\n</html>\n");
+        html = sb.toString();
+    }
+
+    @Benchmark
+    public Metadata scanner() throws Exception {
+        return scrape(false);
+    }
+
+    @Benchmark
+    public Metadata tagSoup() throws Exception {
+        return scrape(true);
+    }
+
+    private Metadata scrape(boolean useTagSoup) throws Exception {
+        Metadata metadata = new Metadata();
+        PDFToTextParser.scrapeHTMLToTika(new StringReader(html), new DefaultHandler(),
+                metadata, true, true, useTagSoup);
+        return metadata;
+    }
+}
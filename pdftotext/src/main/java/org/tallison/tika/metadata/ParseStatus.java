@@ -68,4 +68,22 @@ public class ParseStatus {
     );
 
     public static final Property WARNINGS = Property.externalTextBag(STATUS_NS+"warnings");
+
+    /**
+     * <code>true</code> if the parser stopped early because the content
+     * handler reached its write limit
+     */
+    public static final Property TRUNCATED = Property.externalBoolean(STATUS_NS+"truncated");
+
+    /**
+     * how long, in milliseconds, the parser waited for a slot to run its
+     * child process when the number of concurrent processes is limited
+     */
+    public static final Property QUEUE_WAIT_MILLIS = Property.externalInteger(STATUS_NS+"queue-wait-ms");
+
+    /**
+     * <code>true</code> if the parser gave up because it waited too long
+     * for a slot to run its child process
+     */
+    public static final Property QUEUE_TIMEOUT = Property.externalBoolean(STATUS_NS+"queue-timeout");
 }
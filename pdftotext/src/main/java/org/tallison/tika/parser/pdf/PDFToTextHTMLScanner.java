@@ -0,0 +1,454 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Streaming scanner for the narrow html that <code>pdftotext -htmlmeta</code>
+ * writes: a head with a title and meta elements, then the text in a
+ * <code>pre</code> element.  This emits the same SAX events that TagSoup
+ * followed by the XHTMLDowngradeHandler would (element names upper-cased,
+ * no namespaces, no namespaced attributes), without a general html parser.
+ * <p>
+ * Text is collected in a reused buffer and passed on in chunks; the only
+ * per-element allocations are for unexpected element names and attributes.
+ * Only the entities pdftotext writes (the xml entities, plus &amp;nbsp; and
+ * numeric references) are decoded; anything else is passed through as text.
+ * As with TagSoup, whitespace outside of the body, control characters
+ * (including the form feeds between pages), comments and the doctype are dropped.
+ */
+class PDFToTextHTMLScanner {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_TAG_LENGTH = 16384;
+
+    private static final String HTML = "HTML";
+    private static final String HEAD = "HEAD";
+    private static final String TITLE = "TITLE";
+    private static final String META = "META";
+    private static final String BODY = "BODY";
+    private static final String PRE = "PRE";
+
+    private static final String CDATA = "CDATA";
+    //&nbsp; is decoded to U+00A0, as TagSoup does; spelled out so the source stays ascii
+    private static final char NBSP = '\u00A0';
+
+    private final Reader reader;
+    private final ContentHandler handler;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    //decoded text waiting to be passed on
+    private final char[] text = new char[BUFFER_SIZE];
+    private int textLength = 0;
+    //reused for each tag
+    private final StringBuilder tag = new StringBuilder();
+    private final AttributesImpl attributes = new AttributesImpl();
+    private boolean inBody = false;
+    private boolean afterBody = false;
+    private boolean inTitle = false;
+
+    PDFToTextHTMLScanner(Reader reader, ContentHandler handler) {
+        this.reader = reader;
+        this.handler = handler;
+    }
+
+    void scan() throws IOException, SAXException {
+        handler.startDocument();
+        int c = read();
+        while (c != -1) {
+            if (c == '<') {
+                c = read();
+                if (c == '/' || c == '!' || c == '?' || isNameStart(c)) {
+                    flushText();
+                    c = readMarkup(c);
+                    continue;
+                }
+                //not a tag, e.g. "a < b"
+                appendText('<');
+                continue;
+            } else if (c == '&') {
+                c = readEntity();
+                continue;
+            }
+            appendText((char) c);
+            c = read();
+        }
+        flushText();
+        handler.endDocument();
+    }
+
+    /**
+     * Reads a tag, comment, doctype or processing instruction, starting with
+     * the character after the '&lt;'.
+     *
+     * @return the next character after the markup
+     */
+    private int readMarkup(int c) throws IOException, SAXException {
+        if (c == '!' || c == '?') {
+            return skipDeclaration(c);
+        }
+        boolean isEnd = false;
+        if (c == '/') {
+            isEnd = true;
+            c = read();
+        }
+        tag.setLength(0);
+        while (c != -1 && ! isSpace(c) && c != '>' && c != '/') {
+            tag.append((char) c);
+            c = read();
+        }
+        String name = canonicalName(tag);
+        attributes.clear();
+        boolean selfClosing = false;
+        while (c != -1 && c != '>') {
+            if (c == '/') {
+                selfClosing = true;
+                c = read();
+            } else if (isSpace(c)) {
+                c = read();
+            } else {
+                selfClosing = false;
+                c = readAttribute(c);
+            }
+        }
+        if (c == -1) {
+            return c;
+        }
+        if (name.isEmpty()) {
+            return read();
+        }
+        if (isEnd) {
+            endElement(name);
+        } else {
+            startElement(name);
+            if (selfClosing || name == META) {
+                endElement(name);
+            }
+        }
+        return read();
+    }
+
+    private int readAttribute(int c) throws IOException {
+        tag.setLength(0);
+        while (c != -1 && c != '=' && c != '>' && c != '/' && ! isSpace(c)) {
+            tag.append((char) c);
+            c = read();
+        }
+        String name = tag.toString();
+        while (isSpace(c)) {
+            c = read();
+        }
+        String value = "";
+        if (c == '=') {
+            c = read();
+            while (isSpace(c)) {
+                c = read();
+            }
+            tag.setLength(0);
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                c = read();
+                while (c != -1 && c != quote && tag.length() < MAX_TAG_LENGTH) {
+                    tag.append((char) c);
+                    c = read();
+                }
+                if (c == quote) {
+                    c = read();
+                }
+            } else {
+                while (c != -1 && c != '>' && ! isSpace(c)) {
+                    tag.append((char) c);
+                    c = read();
+                }
+            }
+            value = decodeEntities(tag);
+        }
+        //as XHTMLDowngradeHandler: drop namespace declarations and namespaced attributes
+        if (! name.isEmpty() && name.indexOf(':') < 0 &&
+                ! name.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+            String local = name.toLowerCase(Locale.ENGLISH);
+            attributes.addAttribute(XMLConstants.NULL_NS_URI, local, local, CDATA, value);
+        }
+        return c;
+    }
+
+    private int skipDeclaration(int c) throws IOException {
+        if (c == '!') {
+            int c1 = read();
+            if (c1 == '-') {
+                int c2 = read();
+                if (c2 == '-') {
+                    return skipComment();
+                }
+            }
+            c = c1;
+        }
+        while (c != -1 && c != '>') {
+            c = read();
+        }
+        return c == -1 ? c : read();
+    }
+
+    private int skipComment() throws IOException {
+        int dashes = 0;
+        int c = read();
+        while (c != -1) {
+            if (c == '>' && dashes >= 2) {
+                return read();
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+            c = read();
+        }
+        return c;
+    }
+
+    /**
+     * Reads an entity reference, starting after the '&amp;'.
+     *
+     * @return the next character after the entity
+     */
+    private int readEntity() throws IOException, SAXException {
+        tag.setLength(0);
+        int c = read();
+        while (c != -1 && c != ';' && tag.length() < 10 &&
+                (Character.isLetterOrDigit(c) || c == '#')) {
+            tag.append((char) c);
+            c = read();
+        }
+        //as TagSoup, known entities are decoded even without the ';'
+        int decoded = decodeEntity(tag);
+        if (decoded < 0) {
+            //not an entity we know; pass it through as is
+            appendText('&');
+            for (int i = 0; i < tag.length(); i++) {
+                appendText(tag.charAt(i));
+            }
+            return c;
+        }
+        if (Character.isSupplementaryCodePoint(decoded)) {
+            appendText(Character.highSurrogate(decoded));
+            appendText(Character.lowSurrogate(decoded));
+        } else {
+            appendText((char) decoded);
+        }
+        return c == ';' ? read() : c;
+    }
+
+    private static int decodeEntity(CharSequence name) {
+        if (name.length() > 1 && name.charAt(0) == '#') {
+            try {
+                int cp;
+                if (name.charAt(1) == 'x' || name.charAt(1) == 'X') {
+                    cp = Integer.parseInt(name.subSequence(2, name.length()).toString(), 16);
+                } else {
+                    cp = Integer.parseInt(name.subSequence(1, name.length()).toString());
+                }
+                return Character.isValidCodePoint(cp) ? cp : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        switch (name.toString()) {
+            case "amp":
+            case "AMP":
+                return '&';
+            case "lt":
+            case "LT":
+                return '<';
+            case "gt":
+            case "GT":
+                return '>';
+            case "quot":
+            case "QUOT":
+                return '"';
+            case "apos":
+                return '\'';
+            case "nbsp":
+                return NBSP;
+            default:
+                return -1;
+        }
+    }
+
+    private static String decodeEntities(StringBuilder sb) {
+        if (sb.indexOf("&") < 0) {
+            return sb.toString();
+        }
+        StringBuilder decoded = new StringBuilder(sb.length());
+        int i = 0;
+        while (i < sb.length()) {
+            char c = sb.charAt(i);
+            int semi = c == '&' ? sb.indexOf(";", i) : -1;
+            if (semi > i + 1 && semi - i <= 11) {
+                int cp = decodeEntity(sb.subSequence(i + 1, semi));
+                if (cp >= 0) {
+                    decoded.appendCodePoint(cp);
+                    i = semi + 1;
+                    continue;
+                }
+            }
+            decoded.append(c);
+            i++;
+        }
+        return decoded.toString();
+    }
+
+    private void startElement(String name) throws SAXException {
+        if (name == BODY) {
+            inBody = true;
+        } else if (name == TITLE) {
+            inTitle = true;
+        }
+        handler.startElement(XMLConstants.NULL_NS_URI, name, name, attributes);
+    }
+
+    private void endElement(String name) throws SAXException {
+        if (name == BODY) {
+            inBody = false;
+            afterBody = true;
+        } else if (name == TITLE) {
+            inTitle = false;
+        }
+        handler.endElement(XMLConstants.NULL_NS_URI, name, name);
+    }
+
+    private void appendText(char c) throws SAXException {
+        if (c < 0x20 && c != '\n' && c != '\r' && c != '\t') {
+            return;
+        }
+        if (! inBody && ! inTitle && (afterBody || isSpace(c))) {
+            //whitespace between the elements of the head, or anything after the body
+            return;
+        }
+        if (textLength == text.length) {
+            flushText();
+        }
+        text[textLength++] = c;
+    }
+
+    private void flushText() throws SAXException {
+        if (textLength > 0) {
+            handler.characters(text, 0, textLength);
+            textLength = 0;
+        }
+    }
+
+    /**
+     * @return the upper-cased name, using the constants for the elements
+     * pdftotext writes so that they can be compared with ==
+     */
+    private static String canonicalName(StringBuilder name) {
+        switch (name.length()) {
+            case 3:
+                if (equalsIgnoreCase(name, PRE)) {
+                    return PRE;
+                }
+                break;
+            case 4:
+                if (equalsIgnoreCase(name, HTML)) {
+                    return HTML;
+                } else if (equalsIgnoreCase(name, HEAD)) {
+                    return HEAD;
+                } else if (equalsIgnoreCase(name, META)) {
+                    return META;
+                } else if (equalsIgnoreCase(name, BODY)) {
+                    return BODY;
+                }
+                break;
+            case 5:
+                if (equalsIgnoreCase(name, TITLE)) {
+                    return TITLE;
+                }
+                break;
+            default:
+                break;
+        }
+        String s = name.toString();
+        //as XHTMLDowngradeHandler: drop any prefix
+        int colon = s.indexOf(':');
+        if (colon > -1) {
+            s = s.substring(colon + 1);
+        }
+        return s.toUpperCase(Locale.ENGLISH);
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence a, String b) {
+        for (int i = 0; i < b.length(); i++) {
+            if (Character.toUpperCase(a.charAt(i)) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+    }
+
+    /**
+     * @return the next character, with line ends normalized to '\n' as
+     * in xml, or -1 at the end of the stream
+     */
+    private int read() throws IOException {
+        int c = readRaw();
+        if (c == '\r') {
+            if (peekRaw() == '\n') {
+                pos++;
+            }
+            return '\n';
+        }
+        return c;
+    }
+
+    private int readRaw() throws IOException {
+        if (pos == limit && ! fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private int peekRaw() throws IOException {
+        if (pos == limit && ! fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    private boolean fill() throws IOException {
+        limit = reader.read(buffer, 0, buffer.length);
+        pos = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+}
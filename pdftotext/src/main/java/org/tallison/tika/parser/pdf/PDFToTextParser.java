@@ -34,16 +34,29 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.xml.XMLConstants;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.tika.config.Field;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.exception.WriteLimitReachedException;
 import org.apache.tika.io.TemporaryResources;
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
@@ -89,10 +102,39 @@ public class PDFToTextParser extends AbstractParser {
     //after an exception or the parse has finished
     //how long to wait for the child process to shutdown
     private static final int WAIT_FOR_MILLIS = 20000;
+    private static final int PDFINFO_TIME_OUT_MILLIS = 10000;
+    private static final Pattern PDFINFO_PAGES = Pattern.compile("^Pages:\\s+(\\d+)");
+
+    //pdftotext's name for stdout
+    private static final String STDOUT = "-";
+
+    //kills pdftotext processes that run past the timeout while we're reading their output
+    private static final ScheduledExecutorService TIMEOUT_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "pdftotext-timeout");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private static final AtomicInteger RANGE_THREAD_COUNT = new AtomicInteger();
+
+    //runs the pdftotext processes for the page ranges of a document
+    private static final ExecutorService RANGE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "pdftotext-range-" + RANGE_THREAD_COUNT.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+    });
 
     //This is the root of the path to write the verbose logs
     Path logRoot = null;
 
+    //1 runs a single pdftotext over the whole document
+    private int maxPageRanges = 1;
+    private int minPagesPerRange = 100;
+    private boolean useTagSoup = false;
+    //-1 waits indefinitely for a pdftotext slot
+    private long maxQueueWaitMillis = -1;
+
     public Set<MediaType> getSupportedTypes(ParseContext context) {
         return SUPPORTED_TYPES;
     }
@@ -107,32 +149,254 @@ public class PDFToTextParser extends AbstractParser {
 
         try (Writer perFileLogWriter = getPerFileLogWriter(metadata)) {
             TikaInputStream tis = TikaInputStream.get(inputStream, tmp);
-            Path txtFile = tmp.createTempFile();
-
             //tis.getPath() will return the actual file path if tis
             //was initialized with a File, or it will spool the file to disk
-            errorMsgs = runPDFToText(tis.getPath(), txtFile);
+            Path pdfFile = tis.getPath();
+            List<PageRange> ranges = maxPageRanges > 1 ?
+                    PageRange.split(getPageCount(pdfFile), maxPageRanges, minPagesPerRange) :
+                    Collections.emptyList();
+            if (ranges.size() > 1) {
+                errorMsgs = parseRanges(pdfFile, ranges, tmp, xhtml, metadata, perFileLogWriter);
+                return;
+            }
+            setQueueWait(acquireSlot(), metadata);
+            try {
+                errorMsgs = streamPDFToText(pdfFile, xhtml, metadata);
+            } finally {
+                ProcessGovernor.getInstance().release();
+            }
             LOG.debug("error msg size: " + errorMsgs.size());
             logErrorMsgs(errorMsgs, perFileLogWriter);
             setStatusFlags(errorMsgs, metadata);
-            if (errorMsgs.size() == 0) {
-                try {
-                    scrapeHTMLToTika(txtFile, xhtml, metadata);
-                } catch (SAXException | IOException e) {
-                    throw new TikaException("problem scraping" + e);
-                }
+        } catch (SAXException e) {
+            if (WriteLimitReachedException.isWriteLimitReached(e)) {
+                //let the caller know, as with Tika's other parsers
+                throw e;
             }
+            setStatusFlags(e, metadata);
+        } catch (ProcessGovernor.QueueTimeoutException e) {
+            //fail fast so that the caller can retry when the system is less busy
+            setQueueTimeout(e, metadata);
+            throw e;
         } catch (Throwable t) {
             setStatusFlags(t, metadata);
         } finally {
             //if the file was spooled to disk, this will delete
-            //the temp file.
-            //And, of course, this will delete txtFile
+            //the temp file (and any page range output files)
             tmp.dispose();
             maybeThrowTikaException(errorMsgs);
         }
     }
 
+    /**
+     * Runs pdftotext over each page range at the same time and
+     * stitches the output back together in page order.  If some ranges
+     * fail (e.g. time out), the rest of the document is still parsed and
+     * the failures are recorded in {@link ParseStatus#WARNINGS}.  If the
+     * content handler reaches its write limit, the ranges that are still
+     * running are stopped.
+     *
+     * @return the error messages from pdftotext's stderr
+     */
+    private List<String> parseRanges(Path pdfFile, List<PageRange> ranges, TemporaryResources tmp,
+                                     XHTMLContentHandler xhtml, Metadata metadata,
+                                     Writer perFileLogWriter)
+            throws IOException, SAXException, TikaException {
+        List<Path> txtFiles = new ArrayList<>();
+        List<Future<List<String>>> futures = new ArrayList<>();
+        //to hear about a queue timeout in any range as soon as it happens
+        CompletionService<List<String>> completion = new ExecutorCompletionService<>(RANGE_EXECUTOR);
+        //each range waits for its own slot; record the longest wait
+        AtomicLong queueWait = new AtomicLong(0);
+        for (PageRange range : ranges) {
+            Path txtFile = tmp.createTempFile();
+            txtFiles.add(txtFile);
+            futures.add(completion.submit(() -> {
+                queueWait.accumulateAndGet(acquireSlot(), Math::max);
+                try {
+                    return runPDFToText(pdfFile, txtFile, range);
+                } finally {
+                    ProcessGovernor.getInstance().release();
+                }
+            }));
+        }
+        List<String> errorMsgs = new ArrayList<>();
+        List<String> rangeFailures = new ArrayList<>();
+        boolean[] done = new boolean[ranges.size()];
+        //the next range to scrape, in page order
+        int next = 0;
+        boolean scraped = false;
+        try {
+            for (int completed = 0; completed < ranges.size(); completed++) {
+                Future<List<String>> future = completion.take();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ProcessGovernor.QueueTimeoutException) {
+                        //don't return a document with holes just because the system is busy,
+                        //and don't hold slots or wait for the other ranges when the
+                        //document is going to be rejected anyway
+                        cancel(futures);
+                        setQueueWait(queueWait.get(), metadata);
+                        throw (ProcessGovernor.QueueTimeoutException) e.getCause();
+                    }
+                }
+                done[futures.indexOf(future)] = true;
+                //scrape what we can as soon as we can, so that if the handler reaches
+                //its write limit, the later ranges can be cancelled.
+                //As with a single pdftotext, the text is kept even if pdftotext wrote
+                //to stderr; the caller gets the status flags and the exception
+                while (next < ranges.size() && done[next]) {
+                    try {
+                        errorMsgs.addAll(futures.get(next).get());
+                        try (Reader reader = Files.newBufferedReader(txtFiles.get(next), UTF_8)) {
+                            //endDocument is sent below, once we know which range is the last to succeed
+                            scrapeHTMLToTika(reader, xhtml, metadata, ! scraped, false);
+                        }
+                        scraped = true;
+                    } catch (ExecutionException e) {
+                        rangeFailures.add(ranges.get(next) + ": " + e.getCause().getMessage());
+                    }
+                    next++;
+                }
+            }
+            if (scraped) {
+                xhtml.endDocument();
+            }
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new TikaException("PDFToTextParser interrupted", e);
+        } catch (SAXException e) {
+            cancel(futures);
+            setQueueWait(queueWait.get(), metadata);
+            if (WriteLimitReachedException.isWriteLimitReached(e)) {
+                //the handler won't take any more text, so stop the ranges that are still running
+                setTruncated(metadata);
+                throw e;
+            }
+            throw new TikaException("problem scraping", e);
+        } catch (IOException e) {
+            cancel(futures);
+            throw new TikaException("problem scraping", e);
+        }
+        setQueueWait(queueWait.get(), metadata);
+        LOG.debug("error msg size: " + errorMsgs.size() + " failed ranges: " + rangeFailures.size());
+        logErrorMsgs(errorMsgs, perFileLogWriter);
+        logErrorMsgs(rangeFailures, perFileLogWriter);
+        if (! scraped) {
+            setStatusFlags(errorMsgs, metadata);
+            for (String msg : rangeFailures) {
+                metadata.add(ParseStatus.WARNINGS, msg);
+            }
+            throw new TikaException("pdftotext failed on every page range: " + rangeFailures);
+        }
+        if (rangeFailures.size() > 0 && errorMsgs.isEmpty()) {
+            metadata.set(ParseStatus.SAFETY_STATUS,
+                    ParseStatus.SAFETY.SAFE_WARNINGS.getName());
+            metadata.set(ParseStatus.VALIDITY_STATUS,
+                    ParseStatus.VALIDITY.VALID_WARNINGS.getName());
+        } else {
+            setStatusFlags(errorMsgs, metadata);
+        }
+        for (String msg : rangeFailures) {
+            metadata.add(ParseStatus.WARNINGS, msg);
+        }
+        return errorMsgs;
+    }
+
+    private static void cancel(List<Future<List<String>>> futures) {
+        for (Future<List<String>> future : futures) {
+            //interrupts a range that is waiting for a slot or for its process
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * @return the number of pages according to pdfinfo, or -1 if that
+     * couldn't be determined
+     */
+    private int getPageCount(Path pdfFile) {
+        ProcessBuilder pb = new ProcessBuilder("pdfinfo",
+                ProcessUtils.escapeCommandLine(pdfFile.toAbsolutePath().toString()));
+        Process process = null;
+        try {
+            process = pb.start();
+            StreamGobbler outGobbler = new StreamGobbler("pdfinfo stdout", process.getInputStream());
+            StreamGobbler errGobbler = new StreamGobbler("pdfinfo stderr", process.getErrorStream());
+            Future<?> outDrain = StreamDrainer.drain(outGobbler);
+            Future<?> errDrain = StreamDrainer.drain(errGobbler);
+            if (! process.waitFor(PDFINFO_TIME_OUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.debug("pdfinfo timed out");
+                return -1;
+            }
+            long deadline = System.currentTimeMillis() + WAIT_FOR_MILLIS;
+            StreamDrainer.await(outDrain, process.getInputStream(), deadline);
+            StreamDrainer.await(errDrain, process.getErrorStream(), deadline);
+            if (process.exitValue() != 0) {
+                LOG.debug("pdfinfo exit value: " + process.exitValue());
+                return -1;
+            }
+            for (String line : outGobbler.getLines()) {
+                Matcher m = PDFINFO_PAGES.matcher(line);
+                if (m.find()) {
+                    return Integer.parseInt(m.group(1));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOG.debug("couldn't get page count from pdfinfo", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records that the content handler hit its write limit, so the text is
+     * incomplete and pdftotext was stopped before the end of the document.
+     */
+    private static void setTruncated(Metadata metadata) {
+        metadata.set(ParseStatus.TRUNCATED, Boolean.toString(true));
+        metadata.set(ParseStatus.SAFETY_STATUS,
+                ParseStatus.SAFETY.SAFE_WARNINGS.getName());
+        metadata.set(ParseStatus.VALIDITY_STATUS,
+                ParseStatus.VALIDITY.VALID_WARNINGS.getName());
+        metadata.add(ParseStatus.WARNINGS, "write limit reached; output truncated");
+    }
+
+    /**
+     * Waits for a slot from the {@link ProcessGovernor}.  The caller has to
+     * release the slot when its pdftotext process has stopped.
+     *
+     * @return how long this waited, in milliseconds
+     */
+    private long acquireSlot() throws TikaException {
+        try {
+            return ProcessGovernor.getInstance().acquire(maxQueueWaitMillis);
+        } catch (InterruptedException e) {
+            throw new TikaException("interrupted while waiting for a pdftotext slot", e);
+        }
+    }
+
+    private static void setQueueWait(long waitMillis, Metadata metadata) {
+        if (ProcessGovernor.getInstance().getMaxProcesses() > 0) {
+            metadata.set(ParseStatus.QUEUE_WAIT_MILLIS, (int) Math.min(waitMillis, Integer.MAX_VALUE));
+        }
+    }
+
+    private static void setQueueTimeout(ProcessGovernor.QueueTimeoutException e, Metadata metadata) {
+        metadata.set(ParseStatus.QUEUE_TIMEOUT, Boolean.toString(true));
+        metadata.set(ParseStatus.SAFETY_STATUS,
+                ParseStatus.SAFETY.SAFE_WARNINGS.getName());
+        metadata.set(ParseStatus.VALIDITY_STATUS,
+                ParseStatus.VALIDITY.REJECTED.getName());
+        metadata.add(ParseStatus.WARNINGS, e.getMessage());
+    }
+
     private Writer getPerFileLogWriter(Metadata metadata) throws IOException {
         if (logRoot == null) {
             return new EmptyWriter();
@@ -189,6 +453,88 @@ public class PDFToTextParser extends AbstractParser {
         return logRoot;
     }
 
+    /**
+     * If this is greater than 1, large documents are split into up to this many
+     * page ranges, and a pdftotext process is run on each range at the same
+     * time.  This needs pdfinfo to get the page count.
+     *
+     * @param maxPageRanges
+     */
+    @Field
+    public void setMaxPageRanges(int maxPageRanges) {
+        this.maxPageRanges = maxPageRanges;
+    }
+
+    public int getMaxPageRanges() {
+        return maxPageRanges;
+    }
+
+    /**
+     * @param minPagesPerRange documents are only split into ranges of at least
+     *                         this many pages
+     */
+    @Field
+    public void setMinPagesPerRange(int minPagesPerRange) {
+        this.minPagesPerRange = minPagesPerRange;
+    }
+
+    public int getMinPagesPerRange() {
+        return minPagesPerRange;
+    }
+
+    /**
+     * @param useTagSoup if <code>true</code>, parse pdftotext's output with TagSoup
+     *                   instead of the dedicated scanner, e.g. if a version of
+     *                   pdftotext writes html the scanner doesn't handle
+     */
+    @Field
+    public void setUseTagSoup(boolean useTagSoup) {
+        this.useTagSoup = useTagSoup;
+    }
+
+    public boolean isUseTagSoup() {
+        return useTagSoup;
+    }
+
+    /**
+     * Limits the number of pdftotext processes that can run at the same time
+     * across <em>all</em> PDFToTextParsers in this JVM, including the processes
+     * for page ranges.  Parses that can't start a process right away wait their
+     * turn in the order in which they arrived.
+     * <p>
+     * The limit is JVM-wide, not per parser: a later call, e.g. from another
+     * tika-config, changes the limit for every PDFToTextParser, including ones
+     * that are already in use.  A warning is logged when that replaces a
+     * different limit.
+     *
+     * @param maxConcurrentProcesses a positive limit, or -1 (the default) for no limit
+     * @throws IllegalArgumentException if this is 0 or less than -1
+     */
+    @Field
+    public void setMaxConcurrentProcesses(int maxConcurrentProcesses) {
+        ProcessGovernor.getInstance().setMaxProcesses(maxConcurrentProcesses);
+    }
+
+    public int getMaxConcurrentProcesses() {
+        return ProcessGovernor.getInstance().getMaxProcesses();
+    }
+
+    /**
+     * If a parse waits longer than this for a slot (see
+     * {@link #setMaxConcurrentProcesses(int)}), it throws a TikaException and
+     * sets {@link ParseStatus#QUEUE_TIMEOUT}.
+     *
+     * @param maxQueueWaitMillis -1 (the default) to wait indefinitely
+     */
+    @Field
+    public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+        this.maxQueueWaitMillis = maxQueueWaitMillis;
+    }
+
+    public long getMaxQueueWaitMillis() {
+        return maxQueueWaitMillis;
+    }
+
     private void maybeThrowTikaException(List<String> errorMsgs) throws TikaException {
         if (errorMsgs.size() == 0) {
             return;
@@ -202,25 +548,115 @@ public class PDFToTextParser extends AbstractParser {
         throw new TikaException(sb.toString());
     }
 
-    private List<String> runPDFToText(Path pdfFile, Path txtFile) throws IOException, TikaException {
+    /**
+     * Runs pdftotext with its output on stdout and scrapes the output as it
+     * arrives, so text reaches the content handler while pdftotext is
+     * still running.  The process is killed if it runs past the timeout, or
+     * as soon as the content handler reaches its write limit.
+     *
+     * @return the error messages from pdftotext's stderr
+     */
+    private List<String> streamPDFToText(Path pdfFile, ContentHandler xhtml, Metadata metadata)
+            throws IOException, SAXException, TikaException {
+        ProcessBuilder pb = new ProcessBuilder(getCommandLine(pdfFile, STDOUT, null));
+        pb.redirectError(ProcessBuilder.Redirect.PIPE);
+        final Process process = pb.start();
+        StreamGobbler errGobbler = new StreamGobbler("stderr", process.getErrorStream());
+        Future<?> errDrain = StreamDrainer.drain(errGobbler);
+
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        ScheduledFuture<?> watchdog = TIMEOUT_EXECUTOR.schedule(() -> {
+            timedOut.set(true);
+            process.destroyForcibly();
+        }, TIME_OUT_MILLIS, TimeUnit.MILLISECONDS);
+        boolean readToEnd = false;
+        try (Reader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), UTF_8))) {
+            scrapeHTMLToTika(reader, xhtml, metadata, true, true);
+            readToEnd = true;
+        } catch (SAXException e) {
+            if (WriteLimitReachedException.isWriteLimitReached(e)) {
+                //the handler won't take any more text, so there's no
+                //point in letting pdftotext work through the rest of the document
+                process.destroyForcibly();
+                setTruncated(metadata);
+                throw e;
+            }
+            if (timedOut.get()) {
+                throw new TikaException("timeout exception");
+            }
+            throw new TikaException("problem scraping", e);
+        } catch (IOException e) {
+            if (timedOut.get()) {
+                throw new TikaException("timeout exception");
+            }
+            throw new TikaException("problem scraping", e);
+        } finally {
+            watchdog.cancel(false);
+            if (readToEnd && process.isAlive() && ! timedOut.get()) {
+                //pdftotext has closed stdout, so it should exit right away.
+                //On the error paths, nothing reads stdout any more, so don't wait
+                try {
+                    process.waitFor(WAIT_FOR_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    //destroy below, but let the caller see the interrupt
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+        if (timedOut.get()) {
+            throw new TikaException("timeout exception");
+        }
+        try {
+            int status = process.exitValue();
+            if (status != 0) {
+                throw new TikaException("Bad exit value: " + status);
+            }
+            //the child has exited, so the drainer should hit EOF right away
+            StreamDrainer.await(errDrain, process.getErrorStream(),
+                    System.currentTimeMillis() + WAIT_FOR_MILLIS);
+        } catch (IllegalThreadStateException e) {
+            throw new TikaException("child process didn't stop after " + WAIT_FOR_MILLIS + " ms");
+        } catch (InterruptedException e) {
+            throw new TikaException("interrupted while reading child process output", e);
+        }
+        return errGobbler.getLines();
+    }
+
+    private static List<String> getCommandLine(Path pdfFile, String output, PageRange range) {
         List<String> cmd = new ArrayList<>();
         cmd.add("pdftotext");
         cmd.add("-htmlmeta");
+        if (range != null) {
+            cmd.add("-f");
+            cmd.add(Integer.toString(range.getFirst()));
+            cmd.add("-l");
+            cmd.add(Integer.toString(range.getLast()));
+        }
         cmd.add("-enc");
         cmd.add("UTF-8");
         cmd.add(ProcessUtils.escapeCommandLine(pdfFile.toAbsolutePath().toString()));
-        cmd.add(ProcessUtils.escapeCommandLine(txtFile.toAbsolutePath().toString()));
-        ProcessBuilder pb = new ProcessBuilder(cmd);
+        cmd.add(output);
+        return cmd;
+    }
+
+    /**
+     * @param range pages to extract, or <code>null</code> for the whole document
+     */
+    private List<String> runPDFToText(Path pdfFile, Path txtFile, PageRange range)
+            throws IOException, TikaException {
+        ProcessBuilder pb = new ProcessBuilder(getCommandLine(pdfFile,
+                ProcessUtils.escapeCommandLine(txtFile.toAbsolutePath().toString()), range));
         pb.redirectError(ProcessBuilder.Redirect.PIPE);
         final Process process = pb.start();
         StreamGobbler outGobbler = new StreamGobbler("stdout", process.getInputStream());
         StreamGobbler errGobbler = new StreamGobbler("stderr", process.getErrorStream());
 
-        Thread outGobblerThread = new Thread(outGobbler);
-        outGobblerThread.start();
-
-        Thread errGobblerThread = new Thread(errGobbler);
-        errGobblerThread.start();
+        Future<?> outDrain = StreamDrainer.drain(outGobbler);
+        Future<?> errDrain = StreamDrainer.drain(errGobbler);
 
         boolean completed = false;
         try {
@@ -228,36 +664,57 @@ public class PDFToTextParser extends AbstractParser {
         } catch (InterruptedException e) {
             throw new TikaException("PDFToTextParser interrupted", e);
         } finally {
+            //only clean up here; throwing from finally would hide
+            //an exception from the try block (e.g. the interrupt)
             if (! completed) {
                 process.destroyForcibly();
-                throw new TikaException("timeout exception");
-            }
-
-            try {
-                boolean stopped = process.waitFor(WAIT_FOR_MILLIS, TimeUnit.MILLISECONDS);
-                if (! stopped) {
-                    throw new TikaException("child process didn't stop after 10 seconds");
-                }
-                int status = process.exitValue();
-                if (status != 0) {
-                    throw new TikaException("Bad exit value: " + status);
-                }
-            } catch (InterruptedException e) {
-                throw new TikaException("child process interrupted while shutting down", e);
-            }
-            try {
-                outGobblerThread.join();
-                errGobblerThread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
             }
         }
+        if (! completed) {
+            throw new TikaException("timeout exception");
+        }
+        //waitFor returned true, so the child has exited
+        int status = process.exitValue();
+        if (status != 0) {
+            throw new TikaException("Bad exit value: " + status);
+        }
+        try {
+            //the child has exited, so the drainers should hit EOF right away
+            long deadline = System.currentTimeMillis() + WAIT_FOR_MILLIS;
+            StreamDrainer.await(outDrain, process.getInputStream(), deadline);
+            StreamDrainer.await(errDrain, process.getErrorStream(), deadline);
+        } catch (InterruptedException e) {
+            throw new TikaException("interrupted while reading child process output", e);
+        }
         return errGobbler.getLines();
     }
 
-    private void scrapeHTMLToTika(Path txtFile,
-                                  ContentHandler contentHandler, Metadata metadata)
+    /**
+     * @param isFirst if <code>false</code>, this is a later page range of the same
+     *                document, so the head (title, metadata) and startDocument are skipped
+     * @param isLast if <code>false</code>, more page ranges follow, so endDocument is skipped
+     */
+    private void scrapeHTMLToTika(Reader reader,
+                                  ContentHandler contentHandler, Metadata metadata,
+                                  boolean isFirst, boolean isLast)
+            throws IOException, SAXException {
+        scrapeHTMLToTika(reader, contentHandler, metadata, isFirst, isLast, useTagSoup);
+    }
+
+    /**
+     * @param useTagSoup if <code>true</code>, parse the output with TagSoup rather
+     *                   than {@link PDFToTextHTMLScanner}
+     */
+    static void scrapeHTMLToTika(Reader reader,
+                                 ContentHandler contentHandler, Metadata metadata,
+                                 boolean isFirst, boolean isLast, boolean useTagSoup)
             throws IOException, SAXException {
+        // scraper that actually processes output.
+        ContentHandler scraper = new PDFToTextScraper(metadata, contentHandler, isFirst, isLast);
+        if (! useTagSoup) {
+            new PDFToTextHTMLScanner(reader, scraper).scan();
+            return;
+        }
         // Parse the HTML document
         org.ccil.cowan.tagsoup.Parser parser =
                 new org.ccil.cowan.tagsoup.Parser();
@@ -266,12 +723,9 @@ public class PDFToTextParser extends AbstractParser {
         parser.setContentHandler(
                 new OfflineContentHandler(//be extra, extra cautious
                         new XHTMLDowngradeHandler(//remove html namespace markup
-                                // scraper that actually processes output.
-                                new PDFToTextScraper(metadata, contentHandler))));
+                                scraper)));
 
-        try (Reader reader = Files.newBufferedReader(txtFile, UTF_8)) {
-            parser.parse(new InputSource(reader));
-        }
+        parser.parse(new InputSource(reader));
     }
 
     /**
@@ -281,6 +735,8 @@ public class PDFToTextParser extends AbstractParser {
      */
     private static class PDFToTextScraper extends ContentHandlerDecorator {
         private static final String HTML = "html";
+        private static final String HEAD = "head";
+        private static final String BODY = "body";
         private static final String TITLE = "title";
         private static final String META = "meta";
 
@@ -291,26 +747,46 @@ public class PDFToTextParser extends AbstractParser {
         private static final String PRODUCER = "producer";
         private static final String CREATION_DATE = "creationdate";
         private final Metadata metadata;
+        private final boolean isFirst;
+        private final boolean isLast;
         StringBuilder titleBuffer = new StringBuilder();
         boolean inTitle = false;
 
-        public PDFToTextScraper(Metadata metadata, ContentHandler contentHandler) {
+        public PDFToTextScraper(Metadata metadata, ContentHandler contentHandler,
+                                boolean isFirst, boolean isLast) {
             super(contentHandler);
             this.metadata = metadata;
+            this.isFirst = isFirst;
+            this.isLast = isLast;
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            if (isFirst) {
+                super.startDocument();
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            if (isLast) {
+                super.endDocument();
+            }
         }
 
         @Override
         public void startElement(
                 String uri, String localName, String name, Attributes atts)
                 throws SAXException {
-            String lc = localName.toLowerCase(Locale.ENGLISH);
-            if (lc.equals(TITLE)) {
+            if (TITLE.equalsIgnoreCase(localName)) {
                 inTitle = true;
                 return;
-            } else if (lc.equals(META)) {
-                handleMeta(atts);
+            } else if (META.equalsIgnoreCase(localName)) {
+                if (isFirst) {
+                    handleMeta(atts);
+                }
                 return;
-            } else if (lc.equals(HTML) || lc.equals("body") || lc.equals("head")) {
+            } else if (isStructural(localName)) {
                 return;
             }
             super.startElement(XMLConstants.NULL_NS_URI, localName, name, atts);
@@ -319,16 +795,17 @@ public class PDFToTextParser extends AbstractParser {
         @Override
         public void endElement(String uri, String localName, String name)
                 throws SAXException {
-            String lc = localName.toLowerCase(Locale.ENGLISH);
-            if (lc.equals(META)) {
+            if (META.equalsIgnoreCase(localName)) {
                 return;
             }
-            if (lc.equals(HTML) || lc.equals("body") || lc.equals("head")) {
+            if (isStructural(localName)) {
                 return;
             }
-            if (lc.equals(TITLE)) {
+            if (TITLE.equalsIgnoreCase(localName)) {
                 inTitle = false;
-                metadata.set(TikaCoreProperties.TITLE, titleBuffer.toString());
+                if (isFirst) {
+                    metadata.set(TikaCoreProperties.TITLE, titleBuffer.toString());
+                }
                 titleBuffer.setLength(0);
                 return;
             }
@@ -344,6 +821,11 @@ public class PDFToTextParser extends AbstractParser {
             }
         }
 
+        private static boolean isStructural(String localName) {
+            return HTML.equalsIgnoreCase(localName) || BODY.equalsIgnoreCase(localName) ||
+                    HEAD.equalsIgnoreCase(localName);
+        }
+
         private void handleMeta(Attributes atts) {
             String name = null;
             String content = null;
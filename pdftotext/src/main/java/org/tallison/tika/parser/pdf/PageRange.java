@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inclusive, 1-based range of pages for pdftotext's -f and -l.
+ */
+class PageRange {
+
+    private final int first;
+    private final int last;
+
+    PageRange(int first, int last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    int getFirst() {
+        return first;
+    }
+
+    int getLast() {
+        return last;
+    }
+
+    /**
+     * Splits the document into at most <code>maxRanges</code> ranges of
+     * roughly equal size, each with at least <code>minPagesPerRange</code> pages.
+     *
+     * @param numPages number of pages in the document, -1 if unknown
+     * @param maxRanges
+     * @param minPagesPerRange
+     * @return the ranges in page order; empty if the document shouldn't be split
+     */
+    static List<PageRange> split(int numPages, int maxRanges, int minPagesPerRange) {
+        List<PageRange> ranges = new ArrayList<>();
+        int numRanges = Math.min(maxRanges, numPages / Math.max(1, minPagesPerRange));
+        if (numRanges < 2) {
+            return ranges;
+        }
+        int first = 1;
+        for (int i = 0; i < numRanges; i++) {
+            //spread the remainder over the first ranges
+            int size = numPages / numRanges + (i < numPages % numRanges ? 1 : 0);
+            ranges.add(new PageRange(first, first + size - 1));
+            first += size;
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return "pages " + first + "-" + last;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.tika.exception.TikaException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide limit on the number of pdftotext processes running at the
+ * same time, shared by all PDFToTextParser instances.  Threads that are
+ * waiting for a slot get one in the order in which they asked for it.
+ * <p>
+ * As there is one governor per JVM, the limit is whatever was configured
+ * last, e.g. by the most recently loaded tika-config; a warning is logged
+ * when a different limit replaces one that was already configured.
+ */
+class ProcessGovernor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessGovernor.class);
+
+    private static final ProcessGovernor INSTANCE = new ProcessGovernor();
+
+    /**
+     * Thrown if a thread waited longer than the max queue wait for a slot.
+     */
+    static class QueueTimeoutException extends TikaException {
+        private static final long serialVersionUID = 1L;
+
+        QueueTimeoutException(String msg) {
+            super(msg);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Thread> waiters = new ArrayDeque<>();
+    //-1 for no limit
+    private int maxProcesses = -1;
+    private boolean configured = false;
+    private int running = 0;
+
+    static ProcessGovernor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxProcesses max number of concurrent processes; -1 for no limit
+     * @throws IllegalArgumentException if this is 0 or less than -1
+     */
+    void setMaxProcesses(int maxProcesses) {
+        if (maxProcesses == 0 || maxProcesses < -1) {
+            throw new IllegalArgumentException("maxProcesses must be > 0, or -1 for no limit: " +
+                    maxProcesses);
+        }
+        lock.lock();
+        try {
+            if (configured && maxProcesses != this.maxProcesses) {
+                LOG.warn("the JVM-wide limit on pdftotext processes is changing from " +
+                        this.maxProcesses + " to " + maxProcesses + " for every PDFToTextParser");
+            }
+            configured = true;
+            this.maxProcesses = maxProcesses;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of threads waiting for a slot
+     */
+    int getQueueLength() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getMaxProcesses() {
+        lock.lock();
+        try {
+            return maxProcesses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a slot.  Every successful call has to be followed by a call
+     * to {@link #release()}.
+     *
+     * @param maxWaitMillis how long to wait for a slot; -1 to wait indefinitely
+     * @return how long this waited, in milliseconds
+     * @throws QueueTimeoutException if there was no slot within maxWaitMillis
+     */
+    long acquire(long maxWaitMillis) throws InterruptedException, QueueTimeoutException {
+        long start = System.nanoTime();
+        Thread ticket = Thread.currentThread();
+        lock.lock();
+        try {
+            waiters.add(ticket);
+            try {
+                while (waiters.peek() != ticket ||
+                        (maxProcesses > 0 && running >= maxProcesses)) {
+                    if (maxWaitMillis < 0) {
+                        changed.await();
+                    } else {
+                        long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis) -
+                                (System.nanoTime() - start);
+                        if (remaining <= 0) {
+                            throw new QueueTimeoutException("waited more than " + maxWaitMillis +
+                                    " ms for one of " + maxProcesses + " pdftotext slots");
+                        }
+                        changed.awaitNanos(remaining);
+                    }
+                }
+                running++;
+            } finally {
+                waiters.remove(ticket);
+                //the next thread in line may be able to go now
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            running--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
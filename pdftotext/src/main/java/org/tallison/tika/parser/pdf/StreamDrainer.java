@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM-wide pool of daemon threads that drain the stdout/stderr
+ * of pdftotext child processes.
+ * <p>
+ * Idle threads are reused; the number of threads isn't bounded, since a
+ * drain that waited in a queue could deadlock a child blocked on a full pipe.
+ */
+class StreamDrainer {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final ThreadFactory THREAD_FACTORY = r -> {
+        Thread t = new Thread(r, "pdftotext-drainer-" + THREAD_COUNT.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+    };
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(THREAD_FACTORY);
+
+    static Future<?> drain(Runnable drainer) {
+        FutureTask<Void> task = new FutureTask<>(drainer, null);
+        EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits until the drainer hits EOF or the deadline passes.  After
+     * the deadline (e.g. a grandchild is holding the pipe open), the
+     * stream is closed and the drainer is abandoned.
+     *
+     * @return <code>true</code> if the drainer reached EOF on its own
+     */
+    static boolean await(Future<?> drain, Closeable stream,
+                         long deadlineMillis) throws InterruptedException {
+        long remaining = deadlineMillis - System.currentTimeMillis();
+        try {
+            drain.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            //fall through
+        } catch (ExecutionException | CancellationException e) {
+            return false;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            //swallow
+        }
+        drain.cancel(true);
+        return false;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.PDF;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class TestPDFToTextHTMLScanner {
+
+    static final String HTMLMETA =
+            "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional//EN\" " +
+                    "\"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd\">\n" +
+            "<html xmlns=\"http://www.w3.org/1999/xhtml\">\n" +
+            "<head>\n" +
+            "<title>A &amp; B &lt;title&gt;</title>\n" +
+            "<meta name=\"Author\" content=\"Ann &quot;O&apos;Neil&quot;\"/>\n" +
+            "<meta name=\"Creator\" content=\"Writer\"/>\n" +
+            "<meta name=\"Producer\" content=\"LibreOffice 6.4\"/>\n" +
+            "<meta name=\"CreationDate\" content=\"\"/>\n" +
+            "</head>\n" +
+            "<body>\n" +
+            "<pre>\n" +
+            "Hello &amp; welcome &lt;x&gt; caf&#233; &#x1F600; &nbsp; &bogus; a < b\n" +
+            "second line\n" +
+            "\fpage two\n" +
+            "\n" +
+            "</pre>\n" +
+            "</body>\n" +
+            "</html>\n";
+
+    @Test
+    public void testSameEventsAsTagSoup() throws Exception {
+        assertSameEvents(HTMLMETA);
+        assertSameEvents(HTMLMETA.replace("\n", "\r\n"));
+        assertSameEvents("<html><head><title>t</title></head><body><pre>no newlines</pre></body></html>");
+        assertSameEvents("<!DOCTYPE html>\n<html>\n<head>\n<title></title>\n" +
+                "<!-- a -- comment -->\n</head>\n<body>\n<pre>\n</pre>\n</body>\n</html>\n");
+        assertSameEvents("<html><body><pre>\u0001ctl &#xZZ; &AMP; && &amp tab\tend</pre></body></html>");
+        assertSameEvents(largeDocument(2000));
+    }
+
+    @Test
+    public void testMetadata() throws Exception {
+        Metadata metadata = new Metadata();
+        PDFToTextParser.scrapeHTMLToTika(new StringReader(HTMLMETA), new DefaultHandler(),
+                metadata, true, true, false);
+        assertEquals("A & B <title>", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals("Ann \"O'Neil\"", metadata.get(TikaCoreProperties.CREATOR));
+        assertEquals("Writer", metadata.get(TikaCoreProperties.CREATOR_TOOL));
+        assertEquals("LibreOffice 6.4", metadata.get(PDF.DOC_INFO_PRODUCER));
+    }
+
+    private static void assertSameEvents(String html) throws Exception {
+        EventRecorder tagSoup = new EventRecorder();
+        Metadata tagSoupMetadata = new Metadata();
+        PDFToTextParser.scrapeHTMLToTika(new StringReader(html), tagSoup, tagSoupMetadata,
+                true, true, true);
+        EventRecorder scanner = new EventRecorder();
+        Metadata scannerMetadata = new Metadata();
+        PDFToTextParser.scrapeHTMLToTika(new StringReader(html), scanner, scannerMetadata,
+                true, true, false);
+        assertEquals(tagSoup.toString(), scanner.toString());
+        assertEquals(tagSoupMetadata.toString(), scannerMetadata.toString());
+    }
+
+    private static String largeDocument(int pages) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html xmlns=\"http://www.w3.org/1999/xhtml\">\n<head>\n")
+                .append("<title>Large</title>\n<meta name=\"Producer\" content=\"test\"/>\n")
+                .append("</head>\n<body>\n<pre>\n");
+        for (int p = 0; p < pages; p++) {
+            for (int line = 0; line < 40; line++) {
+                sb.append("Page ").append(p).append(", line ").append(line)
+                        .append(": the quick brown fox &amp; the lazy dog &lt;").append(line)
+                        .append("&gt;\n");
+            }
+            sb.append('\f');
+        }
+        sb.append("</pre>\n</body>\n</html>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Records the events as text, with adjacent characters merged, since
+     * the two parsers split text differently.
+     */
+    private static class EventRecorder extends DefaultHandler {
+        private final StringBuilder events = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public void startDocument() {
+            flush();
+            events.append("startDocument\n");
+        }
+
+        @Override
+        public void endDocument() {
+            flush();
+            events.append("endDocument\n");
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            flush();
+            events.append("start ").append(uri).append('|').append(localName).append('|').append(qName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                events.append(' ').append(atts.getLocalName(i)).append('=').append(atts.getValue(i));
+            }
+            events.append('\n');
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            flush();
+            events.append("end ").append(uri).append('|').append(localName).append('|')
+                    .append(qName).append('\n');
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        private void flush() {
+            if (text.length() > 0) {
+                events.append("characters ").append(text).append('\n');
+                text.setLength(0);
+            }
+        }
+
+        @Override
+        public String toString() {
+            flush();
+            return events.toString();
+        }
+    }
+}
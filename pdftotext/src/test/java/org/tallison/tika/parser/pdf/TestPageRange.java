@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestPageRange {
+
+    @Test
+    public void testRemainderSpread() {
+        //10 pages per range, with the 3 left over going to the first ranges
+        List<PageRange> ranges = PageRange.split(43, 4, 10);
+        assertEquals(4, ranges.size());
+        assertRange(1, 11, ranges.get(0));
+        assertRange(12, 22, ranges.get(1));
+        assertRange(23, 33, ranges.get(2));
+        assertRange(34, 43, ranges.get(3));
+        assertContiguous(43, ranges);
+    }
+
+    @Test
+    public void testMaxRanges() {
+        List<PageRange> ranges = PageRange.split(1000, 3, 100);
+        assertEquals(3, ranges.size());
+        assertContiguous(1000, ranges);
+    }
+
+    @Test
+    public void testMinPagesPerRange() {
+        //exactly two ranges of the minimum size
+        List<PageRange> ranges = PageRange.split(200, 8, 100);
+        assertEquals(2, ranges.size());
+        assertRange(1, 100, ranges.get(0));
+        assertRange(101, 200, ranges.get(1));
+        //one page short of two ranges
+        assertTrue(PageRange.split(199, 8, 100).isEmpty());
+        //the ranges get bigger rather than falling below the minimum
+        ranges = PageRange.split(399, 8, 100);
+        assertEquals(3, ranges.size());
+        for (PageRange range : ranges) {
+            assertTrue(range.toString(), range.getLast() - range.getFirst() + 1 >= 100);
+        }
+        assertContiguous(399, ranges);
+        //0 is treated as 1
+        assertEquals(5, PageRange.split(5, 8, 0).size());
+    }
+
+    @Test
+    public void testNoSplit() {
+        //unknown page count
+        assertTrue(PageRange.split(-1, 4, 10).isEmpty());
+        assertTrue(PageRange.split(0, 4, 10).isEmpty());
+        assertTrue(PageRange.split(1000, 1, 10).isEmpty());
+    }
+
+    private static void assertRange(int first, int last, PageRange range) {
+        assertEquals(first, range.getFirst());
+        assertEquals(last, range.getLast());
+    }
+
+    private static void assertContiguous(int numPages, List<PageRange> ranges) {
+        int next = 1;
+        for (PageRange range : ranges) {
+            assertEquals(next, range.getFirst());
+            assertTrue(range.getLast() >= range.getFirst());
+            next = range.getLast() + 1;
+        }
+        assertEquals(numPages + 1, next);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.tika.parser.pdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestProcessGovernor {
+
+    private static final long WAIT_MILLIS = 10000;
+
+    @Test
+    public void testFifo() throws Exception {
+        ProcessGovernor governor = new ProcessGovernor();
+        governor.setMaxProcesses(1);
+        governor.acquire(-1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int id = i;
+            Thread t = new Thread(() -> {
+                try {
+                    governor.acquire(-1);
+                    order.add(id);
+                    governor.release();
+                } catch (Exception e) {
+                    //the order check below fails
+                }
+            });
+            t.start();
+            threads.add(t);
+            //line them up in a known order
+            awaitQueueLength(governor, i + 1);
+        }
+        governor.release();
+        for (Thread t : threads) {
+            t.join(WAIT_MILLIS);
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+        assertEquals(0, governor.getQueueLength());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ProcessGovernor governor = new ProcessGovernor();
+        governor.setMaxProcesses(1);
+        governor.acquire(-1);
+        long start = System.nanoTime();
+        try {
+            governor.acquire(100);
+            fail("should have timed out");
+        } catch (ProcessGovernor.QueueTimeoutException e) {
+            //expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        //the timed out thread isn't left in line
+        assertEquals(0, governor.getQueueLength());
+        governor.release();
+        assertTrue(governor.acquire(100) < 100);
+    }
+
+    @Test
+    public void testTimeoutAtHeadDoesNotBlockTheLine() throws Exception {
+        ProcessGovernor governor = new ProcessGovernor();
+        governor.setMaxProcesses(1);
+        governor.acquire(-1);
+        CountDownLatch timedOut = new CountDownLatch(1);
+        Thread head = new Thread(() -> {
+            try {
+                governor.acquire(200);
+            } catch (ProcessGovernor.QueueTimeoutException e) {
+                timedOut.countDown();
+            } catch (InterruptedException e) {
+                //the latch isn't counted down
+            }
+        });
+        head.start();
+        awaitQueueLength(governor, 1);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread next = new Thread(() -> {
+            try {
+                governor.acquire(-1);
+                acquired.countDown();
+            } catch (Exception e) {
+                //the latch isn't counted down
+            }
+        });
+        next.start();
+        awaitQueueLength(governor, 2);
+        assertTrue(timedOut.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        governor.release();
+        assertTrue(acquired.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        ProcessGovernor governor = new ProcessGovernor();
+        governor.setMaxProcesses(2);
+        governor.acquire(-1);
+        governor.acquire(-1);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                governor.acquire(-1);
+                acquired.countDown();
+            } catch (Exception e) {
+                //the latch isn't counted down
+            }
+        });
+        t.start();
+        awaitQueueLength(governor, 1);
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        governor.release();
+        assertTrue(acquired.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRaiseLimit() throws Exception {
+        ProcessGovernor governor = new ProcessGovernor();
+        governor.setMaxProcesses(1);
+        governor.acquire(-1);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                governor.acquire(-1);
+                acquired.countDown();
+            } catch (Exception e) {
+                //the latch isn't counted down
+            }
+        });
+        t.start();
+        awaitQueueLength(governor, 1);
+        governor.setMaxProcesses(-1);
+        assertTrue(acquired.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBadLimits() {
+        ProcessGovernor governor = new ProcessGovernor();
+        for (int bad : new int[]{0, -2}) {
+            try {
+                governor.setMaxProcesses(bad);
+                fail("should have rejected " + bad);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+        assertEquals(-1, governor.getMaxProcesses());
+    }
+
+    private static void awaitQueueLength(ProcessGovernor governor, int length) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (governor.getQueueLength() < length) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("only " + governor.getQueueLength() + " threads waiting");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -33,7 +33,13 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -57,6 +63,20 @@ public class TikaClient {
     public static Property STACK_TRACE = Property.externalText(TIKA_STATUS_PREFIX +
                     ":stacktrace");
 
+    //how long to wait for stdout/stderr to hit EOF after the child has exited
+    private static final long GOBBLER_WAIT_MS = 1000;
+
+    private static final ThreadFactory GOBBLER_THREAD_FACTORY = r -> {
+        Thread t = new Thread(r, "tika-client-gobbler");
+        t.setDaemon(true);
+        return t;
+    };
+
+    //idle gobbler threads are reused across parses; when they're all busy
+    //a new one is started, as a queued gobbler could leave the child stuck on a full pipe
+    private static final ExecutorService GOBBLERS =
+            Executors.newCachedThreadPool(GOBBLER_THREAD_FACTORY);
+
     long timeoutMS = 30000;//default timeout is 30 seconds
 
     public List<Metadata> parse(String[] args, TikaInputStream tis) throws IOException, InterruptedException {
@@ -71,10 +91,8 @@ public class TikaClient {
         Process process = pb.start();
         StreamGobbler errGobbler = new ErrGobbler(process.getErrorStream());
         StreamGobbler inGobbler = new StreamGobbler(process.getInputStream());
-        Thread errThread = new Thread(errGobbler);
-        Thread inThread = new Thread(inGobbler);
-        errThread.start();
-        inThread.start();
+        Future<?> errFuture = GOBBLERS.submit(errGobbler);
+        Future<?> inFuture = GOBBLERS.submit(inGobbler);
         String status = SUCCESS;
         boolean completed = process.waitFor(timeoutMS, TimeUnit.MILLISECONDS);
         int exitValue = -1;
@@ -86,9 +104,10 @@ public class TikaClient {
             process.destroyForcibly();
         }
 
-        Thread.sleep(1000);//wait for race condition writing to stdout/stderr
-        inGobbler.stopGobblingAndDie();
-        errGobbler.stopGobblingAndDie();
+        //wait for the gobblers to read everything the child wrote
+        process.waitFor();
+        await(inFuture, inGobbler);
+        await(errFuture, errGobbler);
 
         String json = inGobbler.toString();
         String errString = errGobbler.toString().trim();
@@ -109,6 +128,16 @@ public class TikaClient {
         return updateStatus(metadataList, errString, status, exitValue);
     }
 
+    private static void await(Future<?> future, StreamGobbler gobbler) throws InterruptedException {
+        try {
+            future.get(GOBBLER_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            //e.g. a grandchild is holding the pipe open
+            gobbler.stopGobblingAndDie();
+            future.cancel(true);
+        }
+    }
+
     public void setTimeoutMS(long timeoutMS) {
         this.timeoutMS = timeoutMS;
     }